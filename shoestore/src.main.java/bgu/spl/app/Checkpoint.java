@@ -0,0 +1,438 @@
+package bgu.spl.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * a checkpoint of a whole simulation, taken by the timer at a tick boundary (see TimeService.setCheckpoint), that a
+ * new simulation - in another JVM too - resumes from as if it ran up to that tick itself. ShoeStoreRunner takes a
+ * checkpoint file wherever it takes a scenario, so a long scenario can be split, resumed after a failure or forked
+ * into several what-if runs (with other flags) without simulating the ticks before the checkpoint again.
+ * <p>
+ * the checkpoint is taken before the first tick after it is sent, once every message sent so far was handled
+ * (see MessageBusImpl.awaitQuiescence), so all the mailboxes are empty and no callback is running. what is left is
+ * the store, the fields of every micro service that did not terminate (see Service) and the requests they hold or
+ * wait for. a request that one micro service waits for while another holds it (a manufacturing order in a factory,
+ * a restock request the manager waits to fill...) is written once and both are given the same object when they
+ * are restored, and the one that sent it waits for it again (see MicroService.restoreRequest). the round robin
+ * positions of the request types are kept too, so with the deterministic runtime a resumed run gives exactly the
+ * receipts the original run gives.
+ * <p>
+ * the file is a binary image written through a DataOutputStream:
+ * <pre>
+ * header     MAGIC, VERSION, next tick, duration, speed, number of micro services
+ * dispatch   number of request types, then request type, round robin position for each
+ * storage    number of shoe types, then shoe type, amount, discounted amount for each
+ * receipts   number of receipts, then seller, customer, shoe type, issued tick, request tick, amount, discount
+ * services   kind (MANAGER, FACTORY, SELLER or CLIENT), then whatever the micro service writes (see Service)
+ * trailer    MAGIC
+ * </pre>
+ * a string is written once, later occurrences are written as the index of the first one. a request is written
+ * as its index too, followed by its kind and fields the first time.
+ *
+ * @param in : the image that is resumed
+ * @param tick : the first tick the resumed simulation sends
+ * @param duration, speed : the duration and speed of the scenario
+ * @param services : the number of micro services in the image, the timer not included
+ */
+public class Checkpoint {
+
+	public static final int MAGIC = 0x434b5054; // "CKPT"
+	public static final int VERSION = 1;
+
+	// micro service kinds
+	private static final byte MANAGER = 1;
+	private static final byte FACTORY = 2;
+	private static final byte SELLER = 3;
+	private static final byte CLIENT = 4;
+
+	// request kinds
+	private static final byte PURCHASE = 1;
+	private static final byte RESTOCK = 2;
+	private static final byte MANUFACTURING = 3;
+
+	private static final List<Class<? extends Request<?>>> REQUEST_TYPES = new ArrayList<Class<? extends Request<?>>>();
+	static {
+		REQUEST_TYPES.add(PurchaseOrderRequest.class);
+		REQUEST_TYPES.add(RestockRequest.class);
+		REQUEST_TYPES.add(ManufacturingOrderRequest.class);
+	}
+
+	/**
+	 * a micro service that can be checkpointed. it writes its fields in {@link #checkpoint(Writer)} and has a
+	 * constructor that reads them back in the same order from a {@link Reader}, after its name.
+	 * the checkpoint is written by the timer while the micro service is idle, so it may read its fields freely.
+	 */
+	public interface Service {
+
+		/**
+		 * writes the state of this micro service, its name was already written
+		 */
+		void checkpoint(Writer out) throws IOException;
+	}
+
+	/**
+	 * writes the values of a checkpoint
+	 * @param strings : the index of every string that was written
+	 * @param requests : the index of every request that was written
+	 */
+	public static class Writer {
+
+		private final DataOutputStream out;
+		private final HashMap<String,Integer> strings;
+		private final IdentityHashMap<Request<?>,Integer> requests;
+
+		private Writer(DataOutputStream out){
+			this.out = out;
+			strings = new HashMap<String,Integer>();
+			requests = new IdentityHashMap<Request<?>,Integer>();
+		}
+
+		public void writeInt(int i) throws IOException {
+			out.writeInt(i);
+		}
+
+		public void writeBoolean(boolean b) throws IOException {
+			out.writeBoolean(b);
+		}
+
+		public void writeString(String s) throws IOException {
+			Integer index = strings.get(s);
+			if (index!=null){
+				out.writeInt(index);
+				return;
+			}
+			out.writeInt(strings.size());
+			strings.put(s, strings.size());
+			out.writeUTF(s);
+		}
+
+		/**
+		 * writes {@code r}, which may be null. a request that was written before is written as a reference to it
+		 */
+		@SuppressWarnings("rawtypes")
+		public void writeRequest(Request<?> r) throws IOException {
+			if (r==null){
+				out.writeInt(-1);
+				return;
+			}
+			Integer index = requests.get(r);
+			if (index!=null){
+				out.writeInt(index);
+				return;
+			}
+			out.writeInt(requests.size());
+			requests.put(r, requests.size());
+			if (r instanceof PurchaseOrderRequest){
+				PurchaseOrderRequest p = (PurchaseOrderRequest) r;
+				out.writeByte(PURCHASE);
+				writeString(p.getSenderName());
+				out.writeInt(p.getTick());
+				writeString(p.getShoeType());
+				out.writeInt(p.getAmount());
+				out.writeBoolean(p.wantsDiscount());
+			}
+			else if (r instanceof RestockRequest){
+				RestockRequest restock = (RestockRequest) r;
+				out.writeByte(RESTOCK);
+				out.writeInt(restock.getTick());
+				writeString(restock.getShoeType());
+				out.writeInt(restock.getAmount());
+				writeString(restock.getSeller());
+			}
+			else if (r instanceof ManufacturingOrderRequest){
+				ManufacturingOrderRequest m = (ManufacturingOrderRequest) r;
+				out.writeByte(MANUFACTURING);
+				out.writeInt(m.getAmount());
+				writeString(m.getShoeType());
+				out.writeInt(m.getCurr_tick());
+			}
+			else
+				throw new IllegalArgumentException("cannot checkpoint a "+r.getClass().getName());
+		}
+	}
+
+	/**
+	 * reads the values of a checkpoint, in the order they were written
+	 * @param strings : every string that was read, by index
+	 * @param requests : every request that was read, by index
+	 */
+	public static class Reader {
+
+		private final DataInputStream in;
+		private final ArrayList<String> strings;
+		private final ArrayList<Request<?>> requests;
+
+		private Reader(DataInputStream in){
+			this.in = in;
+			strings = new ArrayList<String>();
+			requests = new ArrayList<Request<?>>();
+		}
+
+		public int readInt() throws IOException {
+			return in.readInt();
+		}
+
+		public boolean readBoolean() throws IOException {
+			return in.readBoolean();
+		}
+
+		public String readString() throws IOException {
+			int index = in.readInt();
+			if (index<strings.size())
+				return strings.get(index);
+			String s = in.readUTF();
+			strings.add(s);
+			return s;
+		}
+
+		/**
+		 * reads a request, a request that was read before is the same object
+		 * @return the request, null if null was written
+		 */
+		@SuppressWarnings("unchecked")
+		public <R extends Request<?>> R readRequest() throws IOException {
+			int index = in.readInt();
+			if (index<0)
+				return null;
+			if (index<requests.size())
+				return (R) requests.get(index);
+			Request<?> r;
+			byte kind = in.readByte();
+			switch(kind){
+				case PURCHASE:
+					r = new PurchaseOrderRequest(readString(), in.readInt(), readString(), in.readInt(), in.readBoolean());
+					break;
+				case RESTOCK:
+					r = new RestockRequest(in.readInt(), readString(), in.readInt(), readString());
+					break;
+				case MANUFACTURING:
+					r = new ManufacturingOrderRequest(in.readInt(), readString(), in.readInt());
+					break;
+				default:
+					throw new IOException("unknown request kind "+kind);
+			}
+			requests.add(r);
+			return (R) r;
+		}
+	}
+
+	private final DataInputStream in;
+	private final int tick;
+	private final int duration;
+	private final int speed;
+	private final int services;
+
+	/**
+	 * opens a checkpoint and reads its header
+	 * @param file a file written by {@link #write}
+	 */
+	public Checkpoint(String file) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16));
+		if (in.readInt()!=MAGIC || in.readInt()!=VERSION){
+			in.close();
+			throw new IOException(file+" is not a checkpoint of version "+VERSION);
+		}
+		tick = in.readInt();
+		duration = in.readInt();
+		speed = in.readInt();
+		services = in.readInt();
+	}
+
+	/**
+	 * @return true if {@code file} starts like a checkpoint
+	 */
+	public static boolean isCheckpoint(String file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			byte[] magic = new byte[4];
+			return in.read(magic)==4 && ByteBuffer.wrap(magic).getInt()==MAGIC;
+		}
+	}
+
+	/**
+	 * writes a checkpoint of the simulation of {@code context}, which must be at a tick boundary
+	 * @param file the file to write, it is complete once this method returns (it is renamed into place)
+	 * @param context the simulation
+	 * @param tick the first tick that was not sent yet
+	 * @param duration the duration of the scenario
+	 * @param speed the speed of the scenario
+	 * @throws IllegalStateException if messages are still waiting to be handled, or the message bus does not count
+	 * 		   them (see MessageBusImpl.countInFlight)
+	 */
+	public static void write(String file, SimulationContext context, int tick, int duration, int speed) throws IOException {
+		MessageBusImpl bus = context.getBus();
+		long inFlight = bus.getInFlight();
+		if (inFlight<0)
+			throw new IllegalStateException("the message bus does not count the messages in flight, a checkpoint needs them counted");
+		if (inFlight!=0)
+			throw new IllegalStateException(inFlight+" messages are not handled yet, a checkpoint is taken between ticks");
+		List<MicroService> alive = new ArrayList<MicroService>();
+		for (MicroService m : context.getServices())
+			if (m instanceof Service && !m.isTerminated()) // the timer is not a Service, it is created by the runner
+				alive.add(m);
+
+		File target = new File(file);
+		File tmp = new File(file+".tmp");
+		try (FileOutputStream stream = new FileOutputStream(tmp);
+				DataOutputStream data = new DataOutputStream(new BufferedOutputStream(stream, 1<<16))) {
+			Writer out = new Writer(data);
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(tick);
+			data.writeInt(duration);
+			data.writeInt(speed);
+			data.writeInt(alive.size());
+
+			data.writeInt(REQUEST_TYPES.size());
+			for (Class<? extends Request<?>> type : REQUEST_TYPES){
+				out.writeString(type.getName());
+				data.writeInt(bus.getDispatchCursor(type));
+			}
+
+			Store store = context.getStore();
+			List<ShoeStorageInfo> stock = new ArrayList<ShoeStorageInfo>();
+			for (ShoeStock s : store.getStocks())
+				stock.add(s.getInfo());
+			data.writeInt(stock.size());
+			for (ShoeStorageInfo shoe : stock){
+				out.writeString(shoe.getName());
+				data.writeInt(shoe.getAmount());
+				data.writeInt(shoe.getDiscountAmount());
+			}
+			ReceiptJournal journal = store.getJournal();
+			long receipts = journal.size();
+			data.writeLong(receipts);
+			for (long i=0; i<receipts; i++){
+				Receipt r = journal.get(i);
+				out.writeString(r.getSeller());
+				out.writeString(r.getSender());
+				out.writeString(r.getShoeType());
+				data.writeInt(r.getIssuedTick());
+				data.writeInt(r.getRequestTick());
+				data.writeInt(r.getAmountSold());
+				data.writeBoolean(r.isDiscount());
+			}
+
+			for (MicroService m : alive){
+				data.writeByte(kind(m));
+				out.writeString(m.getName());
+				((Service) m).checkpoint(out);
+			}
+			data.writeInt(MAGIC);
+			data.flush();
+			stream.getFD().sync();
+		}
+		if (target.exists() && !target.delete())
+			throw new IOException("cannot replace "+target);
+		if (!tmp.renameTo(target))
+			throw new IOException("cannot rename "+tmp+" to "+target);
+	}
+
+	private static byte kind(MicroService m){
+		if (m instanceof ManagementService)
+			return MANAGER;
+		if (m instanceof ShoeFactoryService)
+			return FACTORY;
+		if (m instanceof SellingService)
+			return SELLER;
+		if (m instanceof WebsiteClientService)
+			return CLIENT;
+		throw new IllegalArgumentException("cannot checkpoint "+m.getName());
+	}
+
+	/**
+	 * fills the store of {@code context} and starts the micro services of the checkpoint in it, in the order they
+	 * were started in the checkpointed simulation. the timer is left to the caller, it should start at {@link #getTick()}.
+	 * @param c counted down by every micro service once it is initialized
+	 * @param f counted down by every micro service once it terminated
+	 */
+	@SuppressWarnings("unchecked")
+	public void restore(SimulationContext context, CountDownLatch c, CountDownLatch f) throws IOException {
+		try {
+			Reader reader = new Reader(in);
+			HashMap<String,Integer> cursors = new HashMap<String,Integer>();
+			int types = in.readInt();
+			for (int i=0; i<types; i++)
+				cursors.put(reader.readString(), in.readInt());
+
+			Store store = context.getStore();
+			int shoes = in.readInt();
+			for (int i=0; i<shoes; i++)
+				store.load(new ShoeStorageInfo(reader.readString(), in.readInt(), in.readInt()));
+			long receipts = in.readLong();
+			for (long i=0; i<receipts; i++){
+				String seller = reader.readString();
+				String customer = reader.readString();
+				String shoe = reader.readString();
+				int issued = in.readInt();
+				int requested = in.readInt();
+				int amount = in.readInt();
+				store.file(new Receipt(seller, customer, shoe, in.readBoolean(), issued, requested, amount)); // logged, if the store is
+			}
+
+			for (int i=0; i<services; i++){
+				byte kind = in.readByte();
+				switch(kind){
+					case MANAGER:
+						context.start(new ManagementService(reader, context, c, f));
+						break;
+					case FACTORY:
+						context.start(new ShoeFactoryService(reader, context, c, f));
+						break;
+					case SELLER:
+						context.start(new SellingService(reader, context, c, f));
+						break;
+					case CLIENT:
+						context.start(new WebsiteClientService(reader, context, c, f));
+						break;
+					default:
+						throw new IOException("unknown micro service kind "+kind);
+				}
+			}
+			if (in.readInt()!=MAGIC)
+				throw new IOException("the checkpoint is corrupt");
+
+			// the handlers subscribed while they were started
+			MessageBusImpl bus = context.getBus();
+			for (Class<? extends Request<?>> type : REQUEST_TYPES)
+				if (cursors.containsKey(type.getName()))
+					bus.setDispatchCursor(type, cursors.get(type.getName()));
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public int getTick(){
+		return tick;
+	}
+
+	public int getDuration(){
+		return duration;
+	}
+
+	public int getSpeed(){
+		return speed;
+	}
+
+	public int getServices(){
+		return services;
+	}
+}
@@ -0,0 +1,303 @@
+package bgu.spl.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * a scenario compiled from a json scenario file into a compact binary file, which is memory mapped instead of
+ * parsed. every string (shoe types and customer names) is stored once in a string table and referred to by its
+ * index, and a string is decoded only when it is first used, so opening a compiled scenario costs the same
+ * whatever its size and loading it costs what is actually read.
+ * <p>
+ * the file is made of these sections, all ints are big endian:
+ * <pre>
+ * header            MAGIC, VERSION, speed, duration, factories, sellers, customers, storage count, discount count,
+ *                   string count, has manager (0/1), string bytes, customer bytes
+ * string offsets    string count + 1 ints, string i is the UTF-8 bytes between offsets i and i+1 of the string data
+ * string data       string bytes bytes
+ * storage           storage count records of (shoe type, amount, discounted amount)
+ * discounts         discount count records of (shoe type, tick, amount)
+ * customer offsets  customers ints, where each customer starts in the customer data
+ * customer data     per customer: name, wish count, purchase count, wish count shoe types, purchase count (shoe type, tick)
+ * </pre>
+ * a mapped file is limited to 2GB.
+ *
+ * @param file : the compiled file
+ * @param buffer : the mapped file
+ * @param strings : the strings that were decoded so far (null for the others)
+ */
+public class CompiledScenario implements Scenario {
+
+	public static final int MAGIC = 0x53484f45; // "SHOE"
+	public static final int VERSION = 1;
+	private static final int HEADER_INTS = 13;
+
+	private final String file;
+	private final MappedByteBuffer buffer;
+	private final int speed;
+	private final int duration;
+	private final int factories;
+	private final int sellers;
+	private final int customers;
+	private final int storageCount;
+	private final int discountCount;
+	private final boolean hasManager;
+	private final int stringOffsets;
+	private final int stringData;
+	private final int storage;
+	private final int discounts;
+	private final int customerOffsets;
+	private final int customerData;
+	private final String[] strings;
+
+	/**
+	 * maps a compiled scenario file and reads its header
+	 * @param file the compiled file
+	 */
+	public CompiledScenario(String file) throws IOException {
+		this.file = file;
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after the channel is closed
+		}
+		if (buffer.getInt(0)!=MAGIC || buffer.getInt(4)!=VERSION)
+			throw new IOException(file+" is not a compiled scenario of version "+VERSION);
+		speed = buffer.getInt(8);
+		duration = buffer.getInt(12);
+		factories = buffer.getInt(16);
+		sellers = buffer.getInt(20);
+		customers = buffer.getInt(24);
+		storageCount = buffer.getInt(28);
+		discountCount = buffer.getInt(32);
+		int stringCount = buffer.getInt(36);
+		hasManager = buffer.getInt(40)!=0;
+		int stringBytes = buffer.getInt(44);
+		stringOffsets = HEADER_INTS*4;
+		stringData = stringOffsets+(stringCount+1)*4;
+		storage = stringData+stringBytes;
+		discounts = storage+storageCount*12;
+		customerOffsets = discounts+discountCount*12;
+		customerData = customerOffsets+customers*4;
+		strings = new String[stringCount];
+	}
+
+	/**
+	 * @param file a scenario file
+	 * @return true if {@code file} is a compiled scenario (and not a json one)
+	 */
+	public static boolean isCompiled(String file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			byte[] magic = new byte[4];
+			return in.read(magic)==4 && ByteBuffer.wrap(magic).getInt()==MAGIC;
+		}
+	}
+
+	// the string with the given index, decoded the first time it is used
+	private String string(int index){
+		String s = strings[index];
+		if (s==null){
+			int start = buffer.getInt(stringOffsets+index*4);
+			int end = buffer.getInt(stringOffsets+index*4+4);
+			byte[] bytes = new byte[end-start];
+			ByteBuffer view = buffer.duplicate(); // the shared buffer's position is never moved
+			view.position(stringData+start);
+			view.get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+			strings[index] = s;
+		}
+		return s;
+	}
+
+	@Override
+	public void load(Handler handler){
+		long start = System.nanoTime();
+		for (int i=0; i<storageCount; i++){
+			int at = storage+i*12;
+			handler.storage(new ShoeStorageInfo(string(buffer.getInt(at)), buffer.getInt(at+4), buffer.getInt(at+8)));
+		}
+		if (hasManager){
+			List<DiscountSchedule> discountSchedule = new ArrayList<DiscountSchedule>(discountCount);
+			for (int i=0; i<discountCount; i++){
+				int at = discounts+i*12;
+				discountSchedule.add(new DiscountSchedule(string(buffer.getInt(at)), buffer.getInt(at+4), buffer.getInt(at+8)));
+			}
+			handler.manager(discountSchedule);
+		}
+		handler.factories(factories);
+		handler.sellers(sellers);
+		for (int i=0; i<customers; i++){
+			int at = customerData+buffer.getInt(customerOffsets+i*4);
+			String name = string(buffer.getInt(at));
+			int wishes = buffer.getInt(at+4);
+			int purchases = buffer.getInt(at+8);
+			at += 12;
+			Set<String> wishList = new HashSet<String>();
+			for (int j=0; j<wishes; j++, at+=4)
+				wishList.add(string(buffer.getInt(at)));
+			List<PurchaseSchedule> purchaseSchedule = new ArrayList<PurchaseSchedule>(purchases);
+			for (int j=0; j<purchases; j++, at+=8)
+				purchaseSchedule.add(new PurchaseSchedule(string(buffer.getInt(at)), buffer.getInt(at+4)));
+			handler.customer(name, purchaseSchedule, wishList);
+			if ((i & ScenarioLoader.SAMPLE_MASK)==0)
+				ScenarioLoader.sampleHeap();
+		}
+		Logger.getLogger("logger").log(Level.INFO, "loaded "+file+" ("+customers+" customers) in "+(System.nanoTime()-start)/1000000+
+				" ms, peak heap: "+ScenarioLoader.sampleHeap()/(1024*1024)+" MB");
+	}
+
+	/**
+	 * compiles a json scenario file. the json file is streamed (see ScenarioLoader) and the customers are written
+	 * to a temporary file while it is read, so only the string table is kept in memory.
+	 * @param json the json scenario file
+	 * @param out the compiled file to write
+	 */
+	public static void compile(String json, String out) throws IOException {
+		ScenarioLoader source = new ScenarioLoader(json);
+		HashMap<String,Integer> ids = new HashMap<String,Integer>();
+		ArrayList<String> table = new ArrayList<String>();
+		ByteArrayOutputStream storageBytes = new ByteArrayOutputStream();
+		DataOutputStream storageOut = new DataOutputStream(storageBytes);
+		ByteArrayOutputStream discountBytes = new ByteArrayOutputStream();
+		DataOutputStream discountOut = new DataOutputStream(discountBytes);
+		int[] offsets = new int[source.getCustomers()];
+		int[] counts = new int[3]; // storage, discounts, manager
+		File customersFile = File.createTempFile("customers", ".bin");
+		try {
+			try (DataOutputStream customersOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(customersFile), 1<<16))) {
+				source.load(new Handler(){
+					private int customer = 0;
+
+					private int id(String s){
+						Integer id = ids.get(s);
+						if (id==null){
+							id = table.size();
+							ids.put(s, id);
+							table.add(s);
+						}
+						return id;
+					}
+
+					public void storage(ShoeStorageInfo shoe){
+						write(storageOut, id(shoe.getName()), shoe.getAmount(), shoe.getDiscountAmount());
+						counts[0]++;
+					}
+
+					public void manager(List<DiscountSchedule> discountSchedule){
+						for (DiscountSchedule d : discountSchedule)
+							write(discountOut, id(d.getShoeType()), d.getTick(), d.getAmount());
+						counts[1] += discountSchedule.size();
+						counts[2] = 1;
+					}
+
+					public void customer(String name, List<PurchaseSchedule> purchaseSchedule, Set<String> wishList){
+						offsets[customer++] = customersOut.size();
+						write(customersOut, id(name), wishList.size(), purchaseSchedule.size());
+						for (String wish : wishList)
+							write(customersOut, id(wish));
+						for (PurchaseSchedule p : purchaseSchedule)
+							write(customersOut, id(p.getShoeType()), p.getTick());
+					}
+
+					public void factories(int count){
+					}
+
+					public void sellers(int count){
+					}
+				});
+			}
+			byte[][] encoded = new byte[table.size()][];
+			int stringBytes = 0;
+			for (int i=0; i<encoded.length; i++){
+				encoded[i] = table.get(i).getBytes(StandardCharsets.UTF_8);
+				stringBytes += encoded[i].length;
+			}
+			try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 1<<16))) {
+				write(file, MAGIC, VERSION, source.getSpeed(), source.getDuration(), source.getFactories(), source.getSellers(),
+						source.getCustomers(), counts[0], counts[1], encoded.length, counts[2], stringBytes, (int) customersFile.length());
+				int offset = 0;
+				for (byte[] s : encoded){
+					file.writeInt(offset);
+					offset += s.length;
+				}
+				file.writeInt(offset);
+				for (byte[] s : encoded)
+					file.write(s);
+				storageBytes.writeTo(file);
+				discountBytes.writeTo(file);
+				for (int o : offsets)
+					file.writeInt(o);
+				try (DataInputStream in = new DataInputStream(new FileInputStream(customersFile))) {
+					byte[] chunk = new byte[1<<16];
+					int read;
+					while ((read = in.read(chunk))>0)
+						file.write(chunk, 0, read);
+				}
+			}
+		}
+		finally {
+			Files.deleteIfExists(customersFile.toPath());
+		}
+		Logger.getLogger("logger").log(Level.INFO, "compiled "+json+" into "+out+" ("+source.getCustomers()+" customers, "+
+				table.size()+" strings)");
+	}
+
+	// the handler methods cannot throw, a failed write is rethrown unchecked and compile fails with it
+	private static void write(DataOutputStream out, int... values){
+		try {
+			for (int v : values)
+				out.writeInt(v);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public int getCustomers(){
+		return customers;
+	}
+
+	@Override
+	public boolean hasManager(){
+		return hasManager;
+	}
+
+	@Override
+	public int getFactories(){
+		return factories;
+	}
+
+	@Override
+	public int getSellers(){
+		return sellers;
+	}
+
+	@Override
+	public int getSpeed(){
+		return speed;
+	}
+
+	@Override
+	public int getDuration(){
+		return duration;
+	}
+}
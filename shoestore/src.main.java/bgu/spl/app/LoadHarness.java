@@ -0,0 +1,120 @@
+package bgu.spl.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * runs scenarios through ShoeStoreRunner headlessly, one after the other, and writes one row of load figures per
+ * run to a csv file. unlike ScenarioSweep the scenarios never run at the same time, so the peak heap and the peak
+ * thread count of a row belong to its scenario alone. synthetic scenarios of any size can be made with
+ * ScenarioGenerator.
+ *
+ *	Usage: LoadHarness output.csv (scenario.json | scenario.bin | directory) ... [-repeat=N] [-verbose] [ShoeStoreRunner flags]
+ *	a directory stands for all the json files in it. -repeat runs every scenario N times (default 1), the first
+ *	runs of a JVM pay for the JIT warmup. the logger is quiet unless -verbose is given. all other flags are passed
+ *	to every scenario (see ShoeStoreRunner).
+ *
+ *	each row holds: scenario, run, status, wall_ms, ticks, ms_per_tick, purchases, purchases_per_sec, discounted,
+ *	restocks, peak_heap_mb, peak_threads
+ *
+ *@param logger : prints all methods to the console with relevant info
+ */
+public class LoadHarness {
+
+	public static Logger logger=Logger.getLogger("logger");
+
+	private static final long SAMPLE_MILLIS = 10; // how often the heap in use is sampled while a scenario runs
+
+	public static void main(String[] args) throws IOException {
+		if (args.length<2)
+			throw new IllegalArgumentException("Usage: LoadHarness output.csv (scenario.json | scenario.bin | directory) ... [-repeat=N] [-verbose] [ShoeStoreRunner flags]");
+		List<String> scenarios = new ArrayList<String>();
+		List<String> flags = new ArrayList<String>();
+		int repeat = 1;
+		boolean verbose = false;
+		for(int i=1; i<args.length; i++){
+			if (args[i].startsWith("-repeat="))
+				repeat = Integer.parseInt(args[i].substring("-repeat=".length()));
+			else if (args[i].equals("-verbose"))
+				verbose = true;
+			else if (args[i].startsWith("-"))
+				flags.add(args[i]);
+			else
+				ScenarioSweep.addScenarios(new File(args[i]), scenarios);
+		}
+		if (!verbose)
+			logger.setLevel(Level.WARNING);
+
+		try (PrintWriter out = new PrintWriter(args[0], "UTF-8")) {
+			out.println("scenario,run,status,wall_ms,ticks,ms_per_tick,purchases,purchases_per_sec,discounted,restocks,peak_heap_mb,peak_threads");
+			for(String scenario : scenarios)
+				for(int run=1; run<=repeat; run++){
+					out.println(runScenario(scenario, run, flags));
+					out.flush(); // a long load test can be followed while it runs
+				}
+		}
+	}
+
+	/**
+	 * runs a single scenario to its end
+	 * @param scenario the scenario file
+	 * @param run the number of the run of this scenario
+	 * @param flags the ShoeStoreRunner flags
+	 * @return the row of the run
+	 */
+	private static String runScenario(String scenario, int run, List<String> flags){
+		String row = ScenarioSweep.csv(scenario)+","+run;
+		int ticks;
+		try {
+			ticks = (CompiledScenario.isCompiled(scenario) ? new CompiledScenario(scenario) : new ScenarioLoader(scenario)).getDuration();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "scenario "+scenario+" cannot be read", e);
+			return row+",failed,,,,,,,,,";
+		}
+		String[] args = new String[flags.size()+1];
+		args[0] = scenario;
+		for(int i=0; i<flags.size(); i++)
+			args[i+1] = flags.get(i);
+
+		// the peaks are reset after the garbage of the previous runs is collected, so they are this run's
+		System.gc();
+		ScenarioLoader.resetHeapPeak();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+		Timer sampler = new Timer("heap sampler", true); // the heap keeps no peak of its own
+		sampler.scheduleAtFixedRate(new TimerTask(){
+			public void run(){
+				ScenarioLoader.sampleHeap();
+			}
+		}, 0, SAMPLE_MILLIS);
+		long start = System.nanoTime();
+		SimulationContext context;
+		try {
+			context = ShoeStoreRunner.run(args);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "scenario "+scenario+" failed", e);
+			return row+",failed,"+(System.nanoTime()-start)/1000000+",,,,,,,,";
+		} finally {
+			sampler.cancel();
+		}
+		long wallNanos = System.nanoTime()-start;
+		long peakHeap = ScenarioLoader.sampleHeap();
+		int peakThreads = threads.getPeakThreadCount();
+
+		SalesAggregates sales = context.getStore().getSales();
+		long purchases = sales.getSold();
+		return row+",ok,"+wallNanos/1000000+","+ticks+","+String.format(Locale.ROOT, "%.3f", wallNanos/1e6/Math.max(ticks, 1))+","+purchases+","+
+				String.format(Locale.ROOT, "%.1f", purchases/(wallNanos/1e9))+","+sales.getSoldAtDiscount()+","+sales.getRestocked()+","+
+				peakHeap/(1024*1024)+","+peakThreads;
+	}
+}
@@ -1,16 +1,17 @@
 package bgu.spl.app;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
+import bgu.spl.mics.EventLog;
 import bgu.spl.mics.MicroService;
 
 /**
@@ -35,18 +36,21 @@ import bgu.spl.mics.MicroService;
  * RestockRequest and add only 1 brown-flip-flops to the store (the one left).
  * 
  * @param curr_tick : current time in the clock
- * @param discountSchedule : a list of DiscountSChedule items to broadcast to interested microservices 
+ * @param schedule : the discounts that were not broadcast yet by their tick
  * @param ordered_shoes : a hash map that keeps the amount of recent client orders to each shoe by Integer  
  * @param awaiting_requests : a hash map that keeps a list of awaiting restock requests keyed by the shoe,
  *  when the factory finishes the request the manager will take from the right shoe list and send a true message to the right amount of requests (calculated by the amount the factory created) 
+ * @param manufacturing_orders : the manufacturing orders that were not completed yet, each with the restock request it was sent for
  *
  */
-public class ManagementService extends MicroService {
+public class ManagementService extends MicroService implements Checkpoint.Service {
 
 	private int curr_tick;
-	private LinkedList<DiscountSchedule> discountSchedule; 
+	private ScheduleWheel<DiscountSchedule> schedule;
 	private ConcurrentHashMap<String,AtomicInteger> ordered_shoes; 
 	private ConcurrentHashMap<String,LinkedBlockingQueue<RestockRequest>> awaiting_requests;
+	private ConcurrentHashMap<ManufacturingOrderRequest,RestockRequest> manufacturing_orders;
+	private final Store store;
 	
 	
 	/**
@@ -56,22 +60,49 @@ public class ManagementService extends MicroService {
 	 * @param f is the count down latch used in the terminating part of the program
 	 */
 	public ManagementService(List<DiscountSchedule> discountScheduleList, CountDownLatch c,CountDownLatch f) { // list not guaranteed to be ordered 
-		super("manager",c,f);
+		this(discountScheduleList,SimulationContext.getDefault(),c,f);
+	}
+
+	/**
+	 * the constructor for the manager of the simulation {@code context}
+	 */
+	public ManagementService(List<DiscountSchedule> discountScheduleList, SimulationContext context, CountDownLatch c,CountDownLatch f) { // list not guaranteed to be ordered 
+		super("manager",context.getBus(),c,f);
+		store = context.getStore();
 		ordered_shoes = new ConcurrentHashMap<String,AtomicInteger>();
-		discountSchedule = new LinkedList<DiscountSchedule>();
-		discountSchedule.addAll(discountScheduleList);
+		schedule = new ScheduleWheel<DiscountSchedule>(DiscountSchedule::getTick);
+		schedule.addAll(discountScheduleList);
 		awaiting_requests = new ConcurrentHashMap<String,LinkedBlockingQueue<RestockRequest>>();
+		manufacturing_orders = new ConcurrentHashMap<ManufacturingOrderRequest,RestockRequest>();
 	}
 
 	/**
-	 * this function is sort of a partial copy constructor used for the Json file to copy the necessary info for initializing
+	 * the constructor of a manager that is resumed from a checkpoint of the simulation {@code context} (see {@link #checkpoint}),
+	 * it waits again for the manufacturing orders it sent
 	 */
-	public ManagementService(ManagementService m, CountDownLatch c, CountDownLatch f) { // list not guaranteed to be ordered 
-		super("manager",c,f);
-		this.curr_tick=m.getCurr_tick();
-		this.discountSchedule = m.getDiscountList();
-		this.ordered_shoes = m.getOrdered_shoes();
-		this.awaiting_requests = new ConcurrentHashMap<String,LinkedBlockingQueue<RestockRequest>>();
+	public ManagementService(Checkpoint.Reader in, SimulationContext context, CountDownLatch c, CountDownLatch f) throws IOException {
+		super(in.readString(),context.getBus(),c,f);
+		store = context.getStore();
+		curr_tick = in.readInt();
+		schedule = new ScheduleWheel<DiscountSchedule>(DiscountSchedule::getTick);
+		for (int i=in.readInt(); i>0; i--)
+			schedule.add(new DiscountSchedule(in.readString(), in.readInt(), in.readInt()));
+		ordered_shoes = new ConcurrentHashMap<String,AtomicInteger>();
+		for (int i=in.readInt(); i>0; i--)
+			ordered_shoes.put(in.readString(), new AtomicInteger(in.readInt()));
+		awaiting_requests = new ConcurrentHashMap<String,LinkedBlockingQueue<RestockRequest>>();
+		for (int i=in.readInt(); i>0; i--){
+			LinkedBlockingQueue<RestockRequest> waiting = new LinkedBlockingQueue<RestockRequest>();
+			awaiting_requests.put(in.readString(), waiting);
+			for (int j=in.readInt(); j>0; j--)
+				waiting.add(in.readRequest());
+		}
+		manufacturing_orders = new ConcurrentHashMap<ManufacturingOrderRequest,RestockRequest>();
+		for (int i=in.readInt(); i>0; i--){
+			ManufacturingOrderRequest order = in.readRequest();
+			manufacturing_orders.put(order, in.readRequest());
+			restoreRequest(order, facMsg -> onManufactured(order, facMsg));
+		}
 	}
 	
 	/**
@@ -83,26 +114,23 @@ public class ManagementService extends MicroService {
 	 * @param restock_msg : is the re-stock request message
 	 * 
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	protected void initialize() {
 
 
 		subscribeBroadcast(TickBroadcast.class, tick_msg -> { //subscribe to timer
 			if (!tick_msg.isRunning()){ //if reached duration time 
-				Logger.getLogger("logger").log(Level.INFO, " is terminating ");
+				EventLog.log(ShoeStoreEvent.TERMINATING, getName());
 				terminate();
 			}
 			setTick(tick_msg.getTick());
-			Store myStore = Store.storeGetInstance();
+			Store myStore = store;
 			//DISCOUNT BROADCAST: EVERY TICK CHECK IF ONE EXISTS  
-			for (DiscountSchedule disc_sched : discountSchedule){
+			for (DiscountSchedule disc_sched : schedule.advance(curr_tick)){ // only the discounts of the current tick
 				String shoe = disc_sched.getShoeType();
 				int amount = disc_sched.getAmount();
-				if (disc_sched.getTick()==curr_tick){
-					myStore.addDiscount(shoe, amount);
-					sendBroadcast(new NewDiscountBroadcast(shoe,amount));
-				}
+				myStore.addDiscount(shoe, amount);
+				sendBroadcast(new NewDiscountBroadcast(shoe,amount));
 			}		
 		});
 		
@@ -114,7 +142,7 @@ public class ManagementService extends MicroService {
 				awaiting_requests.put(shoe,new LinkedBlockingQueue<RestockRequest>());
 			
 			AtomicInteger newAmount = new AtomicInteger((curr_tick%5)+1);		//amount to order
-			Store myStore = Store.storeGetInstance();
+			Store myStore = store;
 			int shoes_in_factory; 												//how much shoes we already ordered
 
 			if (ordered_shoes==null) 		//create new ordered shoe list if it doesnt exist
@@ -149,46 +177,21 @@ public class ManagementService extends MicroService {
 				count_orders.add(restock_msg);
 				
 				//IF NECESSARY SEND A MANUFACTURING ORDER REQUEST
-				boolean success = sendRequest(new ManufacturingOrderRequest<Receipt>(newAmount.intValue(),shoe,curr_tick), facMsg->{
-										
-					if(facMsg==null){
-						Logger.getLogger("logger").log(Level.INFO, "Restock attempt for :" +shoe+" failed - no factory available");
-						complete(restock_msg,new Boolean(false));
-					}
-					else{
-						int ordered = count_orders.size(); // how many requests from clients
-						myStore.file((Receipt)facMsg);
-						int amountToAddToStorage = ((Receipt)facMsg).getAmountSold()-ordered; //how much shoes add to storage
-						if (amountToAddToStorage>0)
-							myStore.add(shoe, amountToAddToStorage); 
-						
-						int oldNumOfOrders = ordered_shoes.get(shoe).intValue(); //old number of restock orders sent to the factory
-						
-						int newNumofOrders = oldNumOfOrders-((Receipt) facMsg).getAmountSold(); //reduce the amount that already completed
-						if (newNumofOrders<0)
-							newNumofOrders=0;
-						
-						ordered_shoes.get(shoe).set(newNumofOrders); // update data for this shoe (1 restock already completed)
-						
-						RestockRequest temp;
-						for( int i=1; i<= ((Receipt)facMsg).getAmountSold() && !count_orders.isEmpty(); i++){
-							temp = count_orders.remove();
-							complete(temp,new Boolean(true));
-						}
-					}
-						
-				});
+				ManufacturingOrderRequest order = new ManufacturingOrderRequest(newAmount.intValue(),shoe,curr_tick);
+				manufacturing_orders.put(order, restock_msg);
+				boolean success = sendRequest(order, facMsg -> onManufactured(order, facMsg));
 				
 				if (success)
-					Logger.getLogger("logger").log(Level.INFO, "the Manager sent a Restock request to factory for "+newAmount+" "+shoe+" and waits for arrival");
+					EventLog.log(ShoeStoreEvent.RESTOCK_SENT, newAmount.intValue(), shoe);
 				else{
-					Logger.getLogger("logger").log(Level.INFO, "the Manager tried to send a restock request for "+newAmount+" "+shoe+" but no one cares");
+					EventLog.log(ShoeStoreEvent.RESTOCK_UNHANDLED, newAmount.intValue(), shoe);
+					manufacturing_orders.remove(order);
 					complete(restock_msg,false);
 				}	
 			}
 			else{ // Is not necessary to send a new order (already ordered) 
 				count_orders.add(restock_msg);
-				Logger.getLogger("logger").log(Level.INFO, "Manager respondes to "+restock_msg.getSeller()+": No need for Restock for "+shoe+", it's on it's way");
+				EventLog.log(ShoeStoreEvent.RESTOCK_ON_ITS_WAY, restock_msg.getSeller(), shoe);
 			}  
 			
 		});
@@ -197,6 +200,76 @@ public class ManagementService extends MicroService {
 		
 	}
 
+	/**
+	 * called when a factory completes {@code order}: files the receipt, completes as many waiting restock requests of the shoe
+	 * as were made and adds the rest to the storage
+	 * @param facMsg : the receipt of the factory, null if no factory made the shoes
+	 */
+	private void onManufactured(ManufacturingOrderRequest order, Receipt facMsg){
+		RestockRequest restock_msg = manufacturing_orders.remove(order);
+		String shoe = order.getShoeType();
+		LinkedBlockingQueue<RestockRequest> count_orders = awaiting_requests.get(shoe);
+		Store myStore = store;
+		if(facMsg==null){
+			EventLog.log(ShoeStoreEvent.RESTOCK_NO_FACTORY, shoe);
+			complete(restock_msg,Boolean.FALSE);
+		}
+		else{
+			int ordered = count_orders.size(); // how many requests from clients
+			myStore.file(facMsg);
+			int amountToAddToStorage = facMsg.getAmountSold()-ordered; //how much shoes add to storage
+			if (amountToAddToStorage>0)
+				myStore.add(shoe, amountToAddToStorage); 
+			
+			int oldNumOfOrders = ordered_shoes.get(shoe).intValue(); //old number of restock orders sent to the factory
+			
+			int newNumofOrders = oldNumOfOrders-facMsg.getAmountSold(); //reduce the amount that already completed
+			if (newNumofOrders<0)
+				newNumofOrders=0;
+			
+			ordered_shoes.get(shoe).set(newNumofOrders); // update data for this shoe (1 restock already completed)
+			
+			RestockRequest temp;
+			for( int i=1; i<= facMsg.getAmountSold() && !count_orders.isEmpty(); i++){
+				temp = count_orders.remove();
+				complete(temp,Boolean.TRUE);
+			}
+		}
+	}
+
+	/**
+	 * writes the tick, the discounts that were not broadcast yet, the ordered shoes, the waiting restock requests
+	 * and the manufacturing orders that were not completed yet with the restock request each was sent for
+	 */
+	@Override
+	public void checkpoint(Checkpoint.Writer out) throws IOException {
+		out.writeInt(curr_tick);
+		List<DiscountSchedule> discounts = getDiscountList();
+		out.writeInt(discounts.size());
+		for (DiscountSchedule d : discounts){
+			out.writeString(d.getShoeType());
+			out.writeInt(d.getTick());
+			out.writeInt(d.getAmount());
+		}
+		out.writeInt(ordered_shoes.size());
+		for (Map.Entry<String,AtomicInteger> e : ordered_shoes.entrySet()){
+			out.writeString(e.getKey());
+			out.writeInt(e.getValue().get());
+		}
+		out.writeInt(awaiting_requests.size());
+		for (Map.Entry<String,LinkedBlockingQueue<RestockRequest>> e : awaiting_requests.entrySet()){
+			out.writeString(e.getKey());
+			out.writeInt(e.getValue().size());
+			for (RestockRequest r : e.getValue())
+				out.writeRequest(r);
+		}
+		out.writeInt(manufacturing_orders.size());
+		for (Map.Entry<ManufacturingOrderRequest,RestockRequest> e : manufacturing_orders.entrySet()){
+			out.writeRequest(e.getKey());
+			out.writeRequest(e.getValue());
+		}
+	}
+
 	private void setTick(int tick) {
 		this.curr_tick=tick;
 	}
@@ -232,10 +305,7 @@ public class ManagementService extends MicroService {
 	
 	private LinkedList<DiscountSchedule> getDiscountList(){
 		LinkedList<DiscountSchedule> newlist = new LinkedList<DiscountSchedule>();
-		if (discountSchedule!=null)
-			for (DiscountSchedule d : discountSchedule){
-				newlist.add(d);
-			}
+		newlist.addAll(schedule.pending());
 		return newlist;
 	}
 
@@ -1,7 +1,7 @@
 package bgu.spl.app;
-import bgu.spl.mics.Request;
+import bgu.spl.mics.AbstractRequest;
 
-public class ManufacturingOrderRequest<Receipt> implements Request {
+public class ManufacturingOrderRequest extends AbstractRequest<Receipt> {
 	private int amount;
 	private String shoeType;
 	private int curr_tick;
@@ -12,7 +12,7 @@ public class ManufacturingOrderRequest<Receipt> implements Request {
 		curr_tick=tick;
 	}
 
-	public ManufacturingOrderRequest(ManufacturingOrderRequest<Receipt> m){
+	public ManufacturingOrderRequest(ManufacturingOrderRequest m){
 		this.amount=m.getAmount();
 		shoeType=m.getShoeType();
 		curr_tick=m.getCurr_tick();
@@ -1,7 +1,10 @@
 package bgu.spl.app;
-import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.KeyedBroadcast;
 
-public class NewDiscountBroadcast implements Broadcast{
+/**
+ * keyed by the shoe type, so only the clients that have this shoe type in their wish list receive it
+ */
+public class NewDiscountBroadcast implements KeyedBroadcast{
 
 	private String shoeType;
 	private int amount; //how many of them to give with discount
@@ -18,4 +21,8 @@ public class NewDiscountBroadcast implements Broadcast{
 	public int getAmount(){
 		return amount;
 	}
+	
+	public Object getKey(){
+		return shoeType;
+	}
 }
@@ -1,7 +1,7 @@
 package bgu.spl.app;
-import bgu.spl.mics.Request;
+import bgu.spl.mics.AbstractRequest;
 
-public class PurchaseOrderRequest implements Request<Receipt>{
+public class PurchaseOrderRequest extends AbstractRequest<Receipt>{
 	
 	private String senderName;
 	private int requestTick;
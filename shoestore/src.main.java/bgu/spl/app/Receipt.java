@@ -1,7 +1,6 @@
 package bgu.spl.app;
 
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import bgu.spl.mics.EventLog;
 
 public class Receipt {
 	
@@ -25,9 +24,9 @@ public class Receipt {
 	
 	public void printReceipt(){
 			if (discount)
-				Logger.getLogger("logger").log(Level.INFO, "\n	 ================================   DISCOUNTED purchase receipt   ================================= \n		Customer: "+customer+", Amount: "+amountSold+ ", Shoe Type: "+shoeType+", Seller: "+seller+"\n		Order Tick: "+requestTick+", Issued Tick: "+issuedTick +" \n	 ================================================================================================== \n" );
+				EventLog.log(ShoeStoreEvent.DISCOUNTED_RECEIPT, customer, shoeType, seller, amountSold, requestTick, issuedTick);
 			else
-				Logger.getLogger("logger").log(Level.INFO, "\n	==================================   REGULAR purchase receipt   ================================== \n	 	Customer: "+customer+", Amount: "+amountSold+ ", Shoe Type: "+shoeType+", Seller: "+seller+"\n		Order Tick: "+requestTick+", Issued Tick: "+issuedTick +" \n	================================================================================================== \n");  			
+				EventLog.log(ShoeStoreEvent.REGULAR_RECEIPT, customer, shoeType, seller, amountSold, requestTick, issuedTick);
 	}
 
 	public String getSeller() {
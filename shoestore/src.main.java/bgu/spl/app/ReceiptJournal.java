@@ -0,0 +1,178 @@
+package bgu.spl.app;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * an append only journal of receipts that keeps them out of the java heap.
+ * every receipt is written as a fixed width record of six ints into direct byte buffers (segments) that are
+ * allocated when they are first needed, and the seller, customer and shoe names are interned to int ids, so a
+ * filed receipt costs 24 bytes off the heap and nothing for the garbage collector to trace.
+ * <p>
+ * appending does not lock: a writer makes sure the segment of the next record number exists, claims the number with
+ * a compare and set and writes its own record. a record is visible to readers once every record before it is written
+ * too (the writer waits for the writers before it, which are in the middle of writing a few ints), so readers always
+ * see a gap free prefix. nothing can fail between claiming a record and publishing it, since a full journal and a
+ * failed allocation are found before the claim, so a writer never waits for a record that will not be published.
+ * only allocating a segment locks, once per segment, so racing writers do not allocate it twice.
+ * the iterator streams the records and builds a Receipt object only for the record it returns.
+ *
+ * @param segments : the segments that were allocated so far, segment i holds records i*SEGMENT_RECORDS and on
+ * @param claimed : the number of records that writers started to write
+ * @param published : the number of records that are completely written, readers only read below it
+ * @param ids : the id of every interned name
+ * @param names : the name of every id
+ * @param nameCount : the number of interned names
+ */
+public class ReceiptJournal implements Iterable<Receipt> {
+
+	private static final int RECORD_INTS = 6;
+	private static final int RECORD_BYTES = RECORD_INTS*4;
+	private static final int SEGMENT_SHIFT = 14;
+	private static final int SEGMENT_RECORDS = 1<<SEGMENT_SHIFT;
+	private static final int MAX_SEGMENTS = 1<<16; // about a billion receipts
+	private static final long MAX_RECORDS = (long) MAX_SEGMENTS<<SEGMENT_SHIFT;
+
+	// record layout (int offsets)
+	private static final int SELLER = 0;
+	private static final int CUSTOMER = 1;
+	private static final int SHOE = 2;
+	private static final int ISSUED_TICK = 3;
+	private static final int REQUEST_TICK = 4;
+	private static final int AMOUNT_AND_DISCOUNT = 5; // amount<<1 | discount
+
+	private final AtomicReferenceArray<ByteBuffer> segments;
+	private final AtomicLong claimed;
+	private final AtomicLong published;
+	private final ConcurrentHashMap<String,Integer> ids;
+	private volatile String[] names;
+	private int nameCount;
+
+	public ReceiptJournal(){
+		segments = new AtomicReferenceArray<ByteBuffer>(MAX_SEGMENTS);
+		claimed = new AtomicLong(0);
+		published = new AtomicLong(0);
+		ids = new ConcurrentHashMap<String,Integer>();
+		names = new String[16];
+	}
+
+	/**
+	 * appends {@code r} to the journal, the receipt object is not kept
+	 * @param r the receipt to append
+	 */
+	public void append(Receipt r){
+		int seller = intern(r.getSeller());
+		int customer = intern(r.getSender());
+		int shoe = intern(r.getShoeType());
+		long index;
+		ByteBuffer segment;
+		do {
+			index = claimed.get();
+			if (index>=MAX_RECORDS)
+				throw new IllegalStateException("the receipt journal is full");
+			segment = segment((int)(index>>>SEGMENT_SHIFT)); // before the claim, a failed allocation claims nothing
+		} while (!claimed.compareAndSet(index, index+1));
+		try {
+			int offset = (int)(index & (SEGMENT_RECORDS-1))*RECORD_BYTES;
+			segment.putInt(offset+SELLER*4, seller);
+			segment.putInt(offset+CUSTOMER*4, customer);
+			segment.putInt(offset+SHOE*4, shoe);
+			segment.putInt(offset+ISSUED_TICK*4, r.getIssuedTick());
+			segment.putInt(offset+REQUEST_TICK*4, r.getRequestTick());
+			segment.putInt(offset+AMOUNT_AND_DISCOUNT*4, r.getAmountSold()<<1 | (r.isDiscount() ? 1 : 0));
+		} finally {
+			// publishing in order makes the record (and every record before it) visible to the readers. the writers
+			// after this one wait for it, so it is published even if writing it failed
+			while (!published.compareAndSet(index, index+1))
+				Thread.yield();
+		}
+	}
+
+	// the segment with the given number, allocated by the first writer that needs it
+	private ByteBuffer segment(int number){
+		ByteBuffer segment = segments.get(number);
+		return segment!=null ? segment : allocate(number);
+	}
+
+	// the writers that race for a new segment wait for the one that allocates it instead of allocating a copy each
+	private synchronized ByteBuffer allocate(int number){
+		ByteBuffer segment = segments.get(number);
+		if (segment==null){
+			segment = ByteBuffer.allocateDirect(SEGMENT_RECORDS*RECORD_BYTES);
+			segments.set(number, segment);
+		}
+		return segment;
+	}
+
+	private int intern(String name){
+		Integer id = ids.get(name);
+		if (id!=null)
+			return id;
+		return ids.computeIfAbsent(name, this::newId);
+	}
+
+	// called once per name, under the lock of the map bin, so only the names array needs its own lock
+	private synchronized int newId(String name){
+		int id = nameCount++;
+		String[] curr = names;
+		if (id==curr.length){
+			String[] next = new String[curr.length*2];
+			System.arraycopy(curr, 0, next, 0, curr.length);
+			curr = next;
+		}
+		curr[id] = name;
+		names = curr; // the volatile write publishes the name before the id is returned
+		return id;
+	}
+
+	/**
+	 * @return the number of receipts that can be read
+	 */
+	public long size(){
+		return published.get();
+	}
+
+	/**
+	 * reads a receipt back from the journal
+	 * @param index the number of the receipt, smaller than {@link #size()}
+	 * @return a new Receipt object with the fields of the record
+	 */
+	public Receipt get(long index){
+		if (index<0 || index>=published.get())
+			throw new IndexOutOfBoundsException("no receipt number "+index);
+		ByteBuffer segment = segments.get((int)(index>>>SEGMENT_SHIFT));
+		int offset = (int)(index & (SEGMENT_RECORDS-1))*RECORD_BYTES;
+		String[] n = names;
+		int amountAndDiscount = segment.getInt(offset+AMOUNT_AND_DISCOUNT*4);
+		return new Receipt(n[segment.getInt(offset+SELLER*4)], n[segment.getInt(offset+CUSTOMER*4)],
+				n[segment.getInt(offset+SHOE*4)], (amountAndDiscount & 1)==1,
+				segment.getInt(offset+ISSUED_TICK*4), segment.getInt(offset+REQUEST_TICK*4), amountAndDiscount>>1);
+	}
+
+	/**
+	 * streams the receipts that were published when the iterator was created, in the order they were appended
+	 */
+	@Override
+	public Iterator<Receipt> iterator(){
+		final long end = published.get();
+		return new Iterator<Receipt>(){
+			private long position = 0;
+
+			@Override
+			public boolean hasNext(){
+				return position<end;
+			}
+
+			@Override
+			public Receipt next(){
+				if (position>=end)
+					throw new NoSuchElementException();
+				return get(position++);
+			}
+		};
+	}
+}
@@ -1,7 +1,7 @@
 package bgu.spl.app;
-import bgu.spl.mics.Request;
+import bgu.spl.mics.AbstractRequest;
 
-public class RestockRequest<Boolean> implements Request{
+public class RestockRequest extends AbstractRequest<Boolean>{
 
 	private int currentTick;
 	private String shoeType;
@@ -15,7 +15,7 @@ public class RestockRequest<Boolean> implements Request{
 		this.seller=seller;
 	}
 	
-	public RestockRequest(RestockRequest<Receipt> request){
+	public RestockRequest(RestockRequest request){
 		currentTick=request.getTick();
 		shoeType=request.getShoeType();
 		this.amount = request.getAmount();
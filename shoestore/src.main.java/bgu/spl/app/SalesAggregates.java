@@ -0,0 +1,138 @@
+package bgu.spl.app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * live sales figures of the store, updated on every filed receipt so they can be read at any time without walking
+ * the receipts. every figure is a striped counter (LongAdder), so the sellers and the manager filing receipts at
+ * the same moment do not contend on a single counter, and every query is one map lookup and one sum over the stripes.
+ * amounts are counted in shoes, not receipts.
+ * receipts issued to the store (by the factories) are counted as restocks, all other receipts are purchases.
+ *
+ * @param bucketTicks : the number of ticks summed together in a tick bucket
+ * @param soldByShoe : shoes sold per shoe type
+ * @param discountedByShoe : shoes sold at a discount per shoe type
+ * @param soldBySeller : shoes sold per seller
+ * @param boughtByCustomer : shoes bought per customer
+ * @param soldByBucket : shoes sold per tick bucket (the issued tick of the receipt divided by bucketTicks)
+ * @param restockedByShoe : shoes the factories delivered per shoe type
+ */
+public class SalesAggregates {
+
+	public static final int DEFAULT_BUCKET_TICKS = 10;
+
+	private static final String STORE = "store"; // the customer of the receipts issued by the factories
+
+	private final int bucketTicks;
+	private final ConcurrentHashMap<String,LongAdder> soldByShoe;
+	private final ConcurrentHashMap<String,LongAdder> discountedByShoe;
+	private final ConcurrentHashMap<String,LongAdder> soldBySeller;
+	private final ConcurrentHashMap<String,LongAdder> boughtByCustomer;
+	private final ConcurrentHashMap<Integer,LongAdder> soldByBucket;
+	private final ConcurrentHashMap<String,LongAdder> restockedByShoe;
+	private final LongAdder sold;
+	private final LongAdder discounted;
+	private final LongAdder restocked;
+
+	public SalesAggregates(){
+		this(DEFAULT_BUCKET_TICKS);
+	}
+
+	public SalesAggregates(int bucketTicks){
+		if (bucketTicks<=0)
+			throw new IllegalArgumentException("expecting a tick bucket > 0, instead received: "+bucketTicks);
+		this.bucketTicks = bucketTicks;
+		soldByShoe = new ConcurrentHashMap<String,LongAdder>();
+		discountedByShoe = new ConcurrentHashMap<String,LongAdder>();
+		soldBySeller = new ConcurrentHashMap<String,LongAdder>();
+		boughtByCustomer = new ConcurrentHashMap<String,LongAdder>();
+		soldByBucket = new ConcurrentHashMap<Integer,LongAdder>();
+		restockedByShoe = new ConcurrentHashMap<String,LongAdder>();
+		sold = new LongAdder();
+		discounted = new LongAdder();
+		restocked = new LongAdder();
+	}
+
+	/**
+	 * adds a filed receipt to the figures
+	 * @param r the receipt that was filed
+	 */
+	public void record(Receipt r){
+		int amount = r.getAmountSold();
+		if (STORE.equals(r.getSender())){
+			counter(restockedByShoe, r.getShoeType()).add(amount);
+			restocked.add(amount);
+			return;
+		}
+		counter(soldByShoe, r.getShoeType()).add(amount);
+		counter(soldBySeller, r.getSeller()).add(amount);
+		counter(boughtByCustomer, r.getSender()).add(amount);
+		counter(soldByBucket, r.getIssuedTick()/bucketTicks).add(amount);
+		sold.add(amount);
+		if (r.isDiscount()){
+			counter(discountedByShoe, r.getShoeType()).add(amount);
+			discounted.add(amount);
+		}
+	}
+
+	private static <K> LongAdder counter(ConcurrentHashMap<K,LongAdder> map, K key){
+		LongAdder counter = map.get(key); // the key is there after its first receipt, so this avoids locking its bin
+		if (counter==null)
+			counter = map.computeIfAbsent(key, k->new LongAdder());
+		return counter;
+	}
+
+	private static <K> long sum(ConcurrentHashMap<K,LongAdder> map, K key){
+		LongAdder counter = map.get(key);
+		return counter==null ? 0 : counter.sum();
+	}
+
+	public long getSold(){
+		return sold.sum();
+	}
+
+	public long getSoldAtDiscount(){
+		return discounted.sum();
+	}
+
+	public long getSoldAtRegularPrice(){
+		return sold.sum()-discounted.sum();
+	}
+
+	public long getRestocked(){
+		return restocked.sum();
+	}
+
+	public long getSold(String shoeType){
+		return sum(soldByShoe, shoeType);
+	}
+
+	public long getSoldAtDiscount(String shoeType){
+		return sum(discountedByShoe, shoeType);
+	}
+
+	public long getRestocked(String shoeType){
+		return sum(restockedByShoe, shoeType);
+	}
+
+	public long getSoldBy(String seller){
+		return sum(soldBySeller, seller);
+	}
+
+	public long getBoughtBy(String customer){
+		return sum(boughtByCustomer, customer);
+	}
+
+	/**
+	 * @param tick any tick of the bucket
+	 * @return the shoes sold in receipts issued during the bucket of {@code tick}
+	 */
+	public long getSoldDuring(int tick){
+		return sum(soldByBucket, tick/bucketTicks);
+	}
+
+	public int getBucketTicks(){
+		return bucketTicks;
+	}
+}
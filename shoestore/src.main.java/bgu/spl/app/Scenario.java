@@ -0,0 +1,45 @@
+package bgu.spl.app;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * a scenario to simulate, read from a json file (ScenarioLoader) or from a compiled one (CompiledScenario).
+ * the counts and the time are known as soon as the scenario is opened, the rest is handed over part by part by
+ * {@link #load(Handler)} so the runner can start every micro service as soon as it is read.
+ */
+public interface Scenario {
+
+	/**
+	 * receives the parts of a scenario in the order they are read
+	 */
+	public interface Handler {
+		void storage(ShoeStorageInfo shoe);
+		void manager(List<DiscountSchedule> discountSchedule);
+		void customer(String name, List<PurchaseSchedule> purchaseSchedule, Set<String> wishList);
+		void factories(int count);
+		void sellers(int count);
+	}
+
+	/**
+	 * hands every part of the scenario to {@code handler}
+	 * @param handler receives the parts of the scenario
+	 */
+	void load(Handler handler) throws IOException;
+
+	int getCustomers();
+
+	/**
+	 * @return true if the scenario has a manager, a scenario may leave it out
+	 */
+	boolean hasManager();
+
+	int getFactories();
+
+	int getSellers();
+
+	int getSpeed();
+
+	int getDuration();
+}
@@ -0,0 +1,213 @@
+package bgu.spl.app;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * writes a synthetic scenario file in the format ScenarioLoader reads, of any size, so the simulation can be tried far
+ * beyond the hand written examples. the file is written as it is generated, customer by customer, so the size of
+ * the scenario is bounded by the disk only.
+ * <p>
+ * shoe types are named shoe-0, shoe-1... and customers customer-0, customer-1... the popularity of the shoe types
+ * follows a Zipf distribution (shoe-0 is the most popular), which decides what is bought, wished for and
+ * discounted. a share of the purchases is packed into a few burst ticks (flash sales), the rest are spread over
+ * the whole run. the same flags and seed always give the same file.
+ *
+ *	Usage: ScenarioGenerator output.json [-shoes=N] [-customers=N] [-sellers=N] [-factories=N] [-duration=N]
+ *	       [-speed=N] [-stock=N] [-skew=S] [-purchases=N] [-bursts=N] [-burstShare=F] [-wishes=F] [-discounts=F] [-seed=N]
+ *	-shoes, -customers, -sellers, -factories: how many of each (default 100, 1000, 4, 2)
+ *	-duration, -speed: the time of the scenario in ticks and the milliseconds between ticks (default 100, 1)
+ *	-stock: the most shoes of a type in the initial storage, each type gets a random amount up to it (default 10)
+ *	-skew: the Zipf exponent of the shoe popularity, 0 for uniform (default 1)
+ *	-purchases: the mean number of purchases in a customer's schedule (default 3)
+ *	-bursts, -burstShare: the number of burst ticks and the share of the purchases scheduled at them (default 5, 0.3)
+ *	-wishes: the mean number of shoe types in a customer's wish list (default 0.5)
+ *	-discounts: the mean number of discounts the manager announces per tick (default 0.2)
+ *	-seed: the seed of the random choices (default 1)
+ *
+ * @param shoes : the number of shoe types
+ * @param cumulative : the cumulative distribution of the shoe types' popularity
+ * @param random : makes every random choice
+ */
+public class ScenarioGenerator {
+
+	public static Logger logger=Logger.getLogger("logger");
+
+	private int shoes = 100;
+	private int customers = 1000;
+	private int sellers = 4;
+	private int factories = 2;
+	private int duration = 100;
+	private int speed = 1;
+	private int stock = 10;
+	private double skew = 1;
+	private double purchases = 3;
+	private int bursts = 5;
+	private double burstShare = 0.3;
+	private double wishes = 0.5;
+	private double discounts = 0.2;
+	private long seed = 1;
+
+	private double[] cumulative;
+	private Random random;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length<1)
+			throw new IllegalArgumentException("Usage: ScenarioGenerator output.json [-shoes=N] [-customers=N] [-sellers=N] [-factories=N] [-duration=N] "+
+					"[-speed=N] [-stock=N] [-skew=S] [-purchases=N] [-bursts=N] [-burstShare=F] [-wishes=F] [-discounts=F] [-seed=N]");
+		ScenarioGenerator generator = new ScenarioGenerator();
+		for (int i=1; i<args.length; i++)
+			generator.set(args[i]);
+		generator.write(args[0]);
+	}
+
+	// reads a single -name=value flag
+	private void set(String flag){
+		int eq = flag.indexOf('=');
+		if (!flag.startsWith("-") || eq<0)
+			throw new IllegalArgumentException("expecting a -name=value flag, instead received: "+flag);
+		String value = flag.substring(eq+1);
+		switch(flag.substring(1, eq)){
+			case "shoes": shoes = Integer.parseInt(value); break;
+			case "customers": customers = Integer.parseInt(value); break;
+			case "sellers": sellers = Integer.parseInt(value); break;
+			case "factories": factories = Integer.parseInt(value); break;
+			case "duration": duration = Integer.parseInt(value); break;
+			case "speed": speed = Integer.parseInt(value); break;
+			case "stock": stock = Integer.parseInt(value); break;
+			case "skew": skew = Double.parseDouble(value); break;
+			case "purchases": purchases = Double.parseDouble(value); break;
+			case "bursts": bursts = Integer.parseInt(value); break;
+			case "burstShare": burstShare = Double.parseDouble(value); break;
+			case "wishes": wishes = Double.parseDouble(value); break;
+			case "discounts": discounts = Double.parseDouble(value); break;
+			case "seed": seed = Long.parseLong(value); break;
+			default: throw new IllegalArgumentException("unknown flag: "+flag);
+		}
+	}
+
+	/**
+	 * generates the scenario
+	 * @param file the scenario file to write
+	 */
+	public void write(String file) throws IOException {
+		if (shoes<=0 || duration<=0)
+			throw new IllegalArgumentException("expecting at least one shoe type and one tick");
+		random = new Random(seed);
+		cumulative = new double[shoes];
+		double total = 0;
+		for (int i=0; i<shoes; i++){
+			total += 1/Math.pow(i+1, skew);
+			cumulative[i] = total;
+		}
+		for (int i=0; i<shoes; i++)
+			cumulative[i] /= total;
+		int[] burstTicks = new int[Math.max(bursts, 0)];
+		for (int i=0; i<burstTicks.length; i++)
+			burstTicks[i] = tick();
+
+		long start = System.nanoTime();
+		long scheduled = 0;
+		try (JsonWriter out = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1<<16))) {
+			out.beginObject();
+			out.name("initialStorage").beginArray();
+			for (int i=0; i<shoes; i++){
+				out.beginObject();
+				out.name("shoeType").value(shoe(i));
+				out.name("amount").value(random.nextInt(stock+1));
+				out.endObject();
+			}
+			out.endArray();
+
+			out.name("services").beginObject();
+			out.name("time").beginObject();
+			out.name("speed").value(speed);
+			out.name("duration").value(duration);
+			out.endObject();
+			out.name("manager").beginObject();
+			out.name("discountSchedule").beginArray();
+			for (int i=count(discounts*duration); i>0; i--){
+				out.beginObject();
+				out.name("shoeType").value(shoe(popularShoe()));
+				out.name("amount").value(1+random.nextInt(3));
+				out.name("tick").value(tick());
+				out.endObject();
+			}
+			out.endArray();
+			out.endObject();
+			out.name("factories").value(factories);
+			out.name("sellers").value(sellers);
+
+			out.name("customers").beginArray();
+			for (int c=0; c<customers; c++){
+				out.beginObject();
+				out.name("name").value("customer-"+c);
+				Set<String> wishList = new LinkedHashSet<String>();
+				for (int i=count(wishes); i>0; i--)
+					wishList.add(shoe(popularShoe()));
+				out.name("wishList").beginArray();
+				for (String wish : wishList)
+					out.value(wish);
+				out.endArray();
+				out.name("purchaseSchedule").beginArray();
+				for (int i=count(purchases); i>0; i--){
+					out.beginObject();
+					out.name("shoeType").value(shoe(popularShoe()));
+					boolean burst = burstTicks.length>0 && random.nextDouble()<burstShare;
+					out.name("tick").value(burst ? burstTicks[random.nextInt(burstTicks.length)] : tick());
+					out.endObject();
+					scheduled++;
+				}
+				out.endArray();
+				out.endObject();
+			}
+			out.endArray();
+			out.endObject(); // services
+			out.endObject();
+		}
+		logger.log(Level.INFO, "generated "+file+": "+shoes+" shoe types, "+customers+" customers, "+scheduled+" purchases in "+
+				(System.nanoTime()-start)/1000000+" ms");
+	}
+
+	private static String shoe(int i){
+		return "shoe-"+i;
+	}
+
+	// a shoe type drawn by its popularity
+	private int popularShoe(){
+		double u = random.nextDouble();
+		int low = 0;
+		int high = shoes-1;
+		while (low<high){
+			int mid = (low+high)>>>1;
+			if (cumulative[mid]<u)
+				low = mid+1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private int tick(){
+		return 1+random.nextInt(duration);
+	}
+
+	// a random count with the given mean: uniform between 0 and twice the mean, rounded so fractions add up
+	private int count(double mean){
+		if (mean<=0)
+			return 0;
+		double x = random.nextDouble()*2*mean;
+		int n = (int) x;
+		return random.nextDouble()<x-n ? n+1 : n;
+	}
+}
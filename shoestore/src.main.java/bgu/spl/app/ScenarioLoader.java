@@ -0,0 +1,323 @@
+package bgu.spl.app;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * reads a json scenario file (initialStorage, then services: time, manager, factories, sellers and customers) token
+ * by token and hands every part of it to a {@link Scenario.Handler} as soon as it is read, so a scenario with millions of customers never sits in memory as a whole:
+ * each customer is built, handed over (and started by the runner) before the next one is read.
+ * <p>
+ * the file is read twice. the first pass only counts the customers and reads the time, factories and sellers
+ * fields (skipping everything else), since the latches of the micro services must know how many micro services
+ * there are before the first one starts. the second pass hands the parts over in the order they appear in the file.
+ *
+ * @param file : the scenario file
+ * @param customers : the number of customers in the file
+ * @param factories : the number of factories
+ * @param sellers : the number of sellers
+ * @param speed : the milliseconds between ticks
+ * @param duration : the number of ticks
+ * @param hasManager : true if the file has a manager
+ * @param heapPeak : the most heap in use that sampleHeap saw since resetHeapPeak. the heap memory pools peak at
+ * 					different times, so the sum of their peaks overstates it, and the heap as a whole keeps no peak
+ * 					of its own, so it is sampled while the scenario loads
+ */
+public class ScenarioLoader implements Scenario {
+
+	private final String file;
+	private int customers;
+	private int factories;
+	private int sellers;
+	private int speed;
+	private int duration;
+	private boolean hasManager;
+
+	// the heap is sampled once every SAMPLE_MASK+1 customers
+	static final int SAMPLE_MASK = (1<<10)-1;
+	private static final AtomicLong heapPeak = new AtomicLong(0);
+
+	/**
+	 * reads the counts and the time of the scenario (the first pass)
+	 * @param file the scenario file
+	 */
+	public ScenarioLoader(String file) throws IOException {
+		this.file = file;
+		try (JsonReader reader = open()) {
+			reader.beginObject();
+			while (reader.hasNext()){
+				if (reader.nextName().equals("services"))
+					countServices(reader);
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+		}
+	}
+
+	private JsonReader open() throws IOException {
+		return new JsonReader(new BufferedReader(new FileReader(file), 1<<16));
+	}
+
+	private void countServices(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()){
+			switch(reader.nextName()){
+				case "time":
+					reader.beginObject();
+					while (reader.hasNext()){
+						String name = reader.nextName();
+						if (name.equals("speed"))
+							speed = reader.nextInt();
+						else if (name.equals("duration"))
+							duration = reader.nextInt();
+						else
+							reader.skipValue();
+					}
+					reader.endObject();
+					break;
+				case "factories":
+					factories = reader.nextInt();
+					break;
+				case "sellers":
+					sellers = reader.nextInt();
+					break;
+				case "customers":
+					reader.beginArray();
+					while (reader.hasNext()){
+						reader.skipValue();
+						customers++;
+					}
+					reader.endArray();
+					break;
+				case "manager":
+					hasManager = true;
+					reader.skipValue();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	/**
+	 * reads the scenario again and hands its parts to {@code handler} (the second pass), then logs how long the
+	 * second pass took and the peak heap usage so far
+	 * @param handler receives the parts of the scenario
+	 */
+	@Override
+	public void load(Handler handler) throws IOException {
+		long start = System.nanoTime();
+		try (JsonReader reader = open()) {
+			reader.beginObject();
+			while (reader.hasNext()){
+				switch(reader.nextName()){
+					case "initialStorage":
+						reader.beginArray();
+						while (reader.hasNext())
+							handler.storage(readShoe(reader));
+						reader.endArray();
+						break;
+					case "services":
+						readServices(reader, handler);
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		Logger.getLogger("logger").log(Level.INFO, "loaded "+file+" ("+customers+" customers) in "+(System.nanoTime()-start)/1000000+
+				" ms, peak heap: "+sampleHeap()/(1024*1024)+" MB");
+	}
+
+	private void readServices(JsonReader reader, Handler handler) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()){
+			switch(reader.nextName()){
+				case "manager":
+					handler.manager(readManager(reader));
+					break;
+				case "factories":
+					handler.factories(reader.nextInt());
+					break;
+				case "sellers":
+					handler.sellers(reader.nextInt());
+					break;
+				case "customers":
+					reader.beginArray();
+					for (int read=0; reader.hasNext(); read++){
+						readCustomer(reader, handler);
+						if ((read & SAMPLE_MASK)==0)
+							sampleHeap();
+					}
+					reader.endArray();
+					break;
+				default: // the time was read in the first pass
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	private static ShoeStorageInfo readShoe(JsonReader reader) throws IOException {
+		String shoeType = null;
+		int amount = 0;
+		int discountedAmount = 0;
+		reader.beginObject();
+		while (reader.hasNext()){
+			switch(reader.nextName()){
+				case "shoeType":
+					shoeType = reader.nextString();
+					break;
+				case "amount":
+					amount = reader.nextInt();
+					break;
+				case "discountedAmount":
+					discountedAmount = reader.nextInt();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new ShoeStorageInfo(shoeType, amount, discountedAmount);
+	}
+
+	private static List<DiscountSchedule> readManager(JsonReader reader) throws IOException {
+		List<DiscountSchedule> discounts = new ArrayList<DiscountSchedule>();
+		reader.beginObject();
+		while (reader.hasNext()){
+			if (!reader.nextName().equals("discountSchedule")){
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while (reader.hasNext()){
+				String shoeType = null;
+				int tick = 0;
+				int amount = 0;
+				reader.beginObject();
+				while (reader.hasNext()){
+					switch(reader.nextName()){
+						case "shoeType":
+							shoeType = reader.nextString();
+							break;
+						case "tick":
+							tick = reader.nextInt();
+							break;
+						case "amount":
+							amount = reader.nextInt();
+							break;
+						default:
+							reader.skipValue();
+					}
+				}
+				reader.endObject();
+				discounts.add(new DiscountSchedule(shoeType, tick, amount));
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+		return discounts;
+	}
+
+	private static void readCustomer(JsonReader reader, Handler handler) throws IOException {
+		String name = null;
+		List<PurchaseSchedule> purchases = new ArrayList<PurchaseSchedule>();
+		Set<String> wishList = new HashSet<String>();
+		reader.beginObject();
+		while (reader.hasNext()){
+			switch(reader.nextName()){
+				case "name":
+					name = reader.nextString();
+					break;
+				case "wishList":
+					reader.beginArray();
+					while (reader.hasNext())
+						wishList.add(reader.nextString());
+					reader.endArray();
+					break;
+				case "purchaseSchedule":
+					reader.beginArray();
+					while (reader.hasNext()){
+						String shoeType = null;
+						int tick = 0;
+						reader.beginObject();
+						while (reader.hasNext()){
+							String field = reader.nextName();
+							if (field.equals("shoeType"))
+								shoeType = reader.nextString();
+							else if (field.equals("tick"))
+								tick = reader.nextInt();
+							else
+								reader.skipValue();
+						}
+						reader.endObject();
+						purchases.add(new PurchaseSchedule(shoeType, tick));
+					}
+					reader.endArray();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		handler.customer(name, purchases, wishList);
+	}
+
+	/**
+	 * samples the heap that is in use now
+	 * @return the most heap in use that was sampled since {@link #resetHeapPeak()} (or since the JVM started)
+	 */
+	static long sampleHeap(){
+		long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		return heapPeak.accumulateAndGet(used, Math::max);
+	}
+
+	static void resetHeapPeak(){
+		heapPeak.set(0);
+	}
+
+	@Override
+	public int getCustomers(){
+		return customers;
+	}
+
+	@Override
+	public boolean hasManager(){
+		return hasManager;
+	}
+
+	@Override
+	public int getFactories(){
+		return factories;
+	}
+
+	@Override
+	public int getSellers(){
+		return sellers;
+	}
+
+	@Override
+	public int getSpeed(){
+		return speed;
+	}
+
+	@Override
+	public int getDuration(){
+		return duration;
+	}
+}
@@ -0,0 +1,131 @@
+package bgu.spl.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * runs many ShoeStoreRunner scenarios in the same JVM, several at a time, and writes one summary row per scenario
+ * to a csv file. every scenario runs in a simulation context of its own (see SimulationContext), so the scenarios
+ * do not share a message bus or a store, and only the first ones pay for the JVM startup and JIT warmup.
+ *
+ *	Usage: ScenarioSweep output.csv (scenario.json | directory) ... [-parallelism=N] [-verbose] [ShoeStoreRunner flags]
+ *	a directory stands for all the json files in it. -parallelism is the number of scenarios that run at once
+ *	(default: the number of available processors). the logger is quiet unless -verbose is given, since every
+ *	scenario prints its whole store at the end. all other flags are passed to every scenario (see ShoeStoreRunner).
+ *
+ *	each row holds: scenario, status, wall_ms, last_tick, receipts, purchases, discounted, restocks
+ *
+ *@param logger : prints all methods to the console with relevant info
+ */
+public class ScenarioSweep {
+
+	public static Logger logger=Logger.getLogger("logger");
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length<2)
+			throw new IllegalArgumentException("Usage: ScenarioSweep output.csv (scenario.json | directory) ... [-parallelism=N] [-verbose] [ShoeStoreRunner flags]");
+		List<String> scenarios = new ArrayList<String>();
+		List<String> flags = new ArrayList<String>();
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		boolean verbose = false;
+		for(int i=1; i<args.length; i++){
+			if (args[i].startsWith("-parallelism="))
+				parallelism = Integer.parseInt(args[i].substring("-parallelism=".length()));
+			else if (args[i].equals("-verbose"))
+				verbose = true;
+			else if (args[i].startsWith("-"))
+				flags.add(args[i]);
+			else
+				addScenarios(new File(args[i]), scenarios);
+		}
+		if (!verbose)
+			logger.setLevel(Level.WARNING);
+
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		for(String scenario : scenarios)
+			tasks.add(()->runScenario(scenario, flags));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try (PrintWriter out = new PrintWriter(args[0], "UTF-8")) {
+			out.println("scenario,status,wall_ms,last_tick,receipts,purchases,discounted,restocks");
+			// invokeAll keeps the order of the scenarios, whatever order they finish in
+			for(Future<String> row : pool.invokeAll(tasks)){
+				try {
+					out.println(row.get());
+				} catch (ExecutionException e) { // runScenario reports its own failures, this one is unexpected
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	// a directory stands for the json files in it, sorted by name so the rows come in a stable order
+	static void addScenarios(File f, List<String> scenarios){
+		if (!f.isDirectory()){
+			scenarios.add(f.getPath());
+			return;
+		}
+		File[] files = f.listFiles((dir,name)->name.endsWith(".json"));
+		if (files==null)
+			return;
+		Arrays.sort(files);
+		for(File file : files)
+			scenarios.add(file.getPath());
+	}
+
+	/**
+	 * runs a single scenario to its end
+	 * @param scenario the json file of the scenario
+	 * @param flags the ShoeStoreRunner flags
+	 * @return the summary row of the scenario
+	 */
+	private static String runScenario(String scenario, List<String> flags){
+		String[] args = new String[flags.size()+1];
+		args[0] = scenario;
+		for(int i=0; i<flags.size(); i++)
+			args[i+1] = flags.get(i);
+		long start = System.nanoTime();
+		SimulationContext context;
+		try {
+			context = ShoeStoreRunner.run(args);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "scenario "+scenario+" failed", e);
+			return csv(scenario)+",failed,"+(System.nanoTime()-start)/1000000+",,,,,";
+		}
+		long wallMillis = (System.nanoTime()-start)/1000000;
+		int lastTick = 0;
+		int receipts = 0;
+		int purchases = 0;
+		int discounted = 0;
+		int restocks = 0;
+		for(Receipt r : context.getStore().getReceipts()){
+			receipts++;
+			lastTick = Math.max(lastTick, r.getIssuedTick());
+			if (r.getSender().equals("store")) // the factories issue receipts to the store
+				restocks++;
+			else {
+				purchases++;
+				if (r.isDiscount())
+					discounted++;
+			}
+		}
+		return csv(scenario)+",ok,"+wallMillis+","+lastTick+","+receipts+","+purchases+","+discounted+","+restocks;
+	}
+
+	// quotes a csv field
+	static String csv(String field){
+		return "\""+field.replace("\"", "\"\"")+"\"";
+	}
+}
@@ -0,0 +1,144 @@
+package bgu.spl.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * a timing wheel of scheduled entries (purchases, discounts...) indexed by the tick they are due at, so firing a
+ * tick costs only the entries due at that tick instead of a walk over the whole schedule.
+ * the wheel has a slot for each of the next WHEEL_TICKS ticks (a tick goes to slot tick % WHEEL_TICKS), entries
+ * that are due later wait in a map keyed by their tick and move into the wheel when their tick gets close enough.
+ * fired entries are handed to the caller and the wheel keeps no reference to them.
+ * an entry that is due at a tick that was already fired (or skipped) is never fired, like a schedule that is only
+ * checked for the current tick.
+ * <p>
+ * the wheel is not thread safe, it belongs to the event loop of a single micro service.
+ *
+ * @param tickOf : gives the tick an entry is due at
+ * @param slots : the entries due in the next WHEEL_TICKS ticks, null for an empty slot
+ * @param later : the entries due after the wheel, keyed by their tick
+ * @param next : the first tick that was not fired yet
+ * @param size : the number of entries waiting in the wheel
+ */
+public class ScheduleWheel<E> {
+
+	private static final int WHEEL_TICKS = 64; // a power of 2
+	private static final int MASK = WHEEL_TICKS-1;
+
+	private final ToIntFunction<? super E> tickOf;
+	private final List<ArrayList<E>> slots;
+	private final HashMap<Integer,ArrayList<E>> later;
+	private int next;
+	private int size;
+
+	public ScheduleWheel(ToIntFunction<? super E> tickOf){
+		this.tickOf = tickOf;
+		this.slots = new ArrayList<ArrayList<E>>(Collections.nCopies(WHEEL_TICKS, (ArrayList<E>) null));
+		this.later = new HashMap<Integer,ArrayList<E>>();
+		this.next = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * schedules {@code e} at its tick, entries due at the same tick are fired in the order they were added
+	 * @param e the entry to schedule
+	 * @return false if the tick of {@code e} was already fired (the entry is dropped)
+	 */
+	public boolean add(E e){
+		int tick = tickOf.applyAsInt(e);
+		if (tick<next)
+			return false;
+		if (tick-next<WHEEL_TICKS)
+			slot(tick).add(e);
+		else
+			later.computeIfAbsent(tick, t->new ArrayList<E>()).add(e);
+		size++;
+		return true;
+	}
+
+	public void addAll(Collection<? extends E> entries){
+		for (E e : entries)
+			add(e);
+	}
+
+	private ArrayList<E> slot(int tick){
+		ArrayList<E> slot = slots.get(tick & MASK);
+		if (slot==null){
+			slot = new ArrayList<E>();
+			slots.set(tick & MASK, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * fires {@code tick}: removes and returns the entries due at it. entries due at earlier ticks that were not
+	 * fired are dropped.
+	 * @param tick the current tick
+	 * @return the entries due at {@code tick} in the order they were added, empty if there are none or {@code tick} was fired already
+	 */
+	public List<E> advance(int tick){
+		if (tick<next)
+			return Collections.emptyList();
+		if (tick-next>=WHEEL_TICKS)
+			jumpTo(tick);
+		List<E> due = Collections.emptyList();
+		for (int t=next; t<=tick; t++){
+			ArrayList<E> slot = slots.get(t & MASK);
+			if (slot!=null){
+				size -= slot.size();
+				if (t==tick)
+					due = slot;
+			}
+			// the slot of t now stands for t+WHEEL_TICKS
+			slots.set(t & MASK, later.remove(t+WHEEL_TICKS));
+		}
+		next = tick+1;
+		return due;
+	}
+
+	// skips every tick before tick at once, dropping their entries, and fills the wheel from tick on
+	private void jumpTo(int tick){
+		for (int i=0; i<WHEEL_TICKS; i++){
+			if (slots.get(i)!=null)
+				size -= slots.get(i).size();
+			slots.set(i, null);
+		}
+		for (Iterator<Map.Entry<Integer,ArrayList<E>>> it = later.entrySet().iterator(); it.hasNext();){
+			Map.Entry<Integer,ArrayList<E>> entry = it.next();
+			if (entry.getKey()<tick){
+				size -= entry.getValue().size();
+				it.remove();
+			}
+		}
+		for (int t=tick; t<tick+WHEEL_TICKS; t++)
+			slots.set(t & MASK, later.remove(t));
+		next = tick;
+	}
+
+	public boolean isEmpty(){
+		return size==0;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return a copy of the entries that were not fired yet, in no particular order
+	 */
+	public List<E> pending(){
+		ArrayList<E> pending = new ArrayList<E>(size);
+		for (ArrayList<E> slot : slots)
+			if (slot!=null)
+				pending.addAll(slot);
+		for (ArrayList<E> entries : later.values())
+			pending.addAll(entries);
+		return pending;
+	}
+}
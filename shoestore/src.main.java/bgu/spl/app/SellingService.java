@@ -1,12 +1,13 @@
 package bgu.spl.app;
 
+import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import bgu.spl.app.Store.BuyResult;
+import bgu.spl.mics.EventLog;
 import bgu.spl.mics.MicroService;
 
 /**
@@ -21,17 +22,43 @@ import bgu.spl.mics.MicroService;
  * request with null result 
  * 
  * @param curr_tick : the current time in the clock
+ * @param restocks : the restock requests that were not completed yet, each with the purchase that waits for it
  * 
  */
-public class SellingService extends MicroService{
+public class SellingService extends MicroService implements Checkpoint.Service {
 
 	private int curr_tick;
 	private ConcurrentHashMap<String,LinkedBlockingQueue<PurchaseOrderRequest>> restock_waiting_list;
+	private ConcurrentHashMap<RestockRequest,PurchaseOrderRequest> restocks;
+	private final Store store;
 	
 	public SellingService(String name, CountDownLatch c, CountDownLatch f){ 
-		super(name,c,f);
+		this(name,SimulationContext.getDefault(),c,f);
+	}
+	
+	public SellingService(String name, SimulationContext context, CountDownLatch c, CountDownLatch f){ 
+		super(name,context.getBus(),c,f);
+		store = context.getStore();
 		curr_tick = 0;
 		restock_waiting_list = new ConcurrentHashMap<String,LinkedBlockingQueue<PurchaseOrderRequest>>();
+		restocks = new ConcurrentHashMap<RestockRequest,PurchaseOrderRequest>();
+	}
+
+	/**
+	 * the constructor of a seller that is resumed from a checkpoint of the simulation {@code context} (see {@link #checkpoint}),
+	 * it waits again for the restock requests it sent
+	 */
+	public SellingService(Checkpoint.Reader in, SimulationContext context, CountDownLatch c, CountDownLatch f) throws IOException {
+		super(in.readString(),context.getBus(),c,f);
+		store = context.getStore();
+		curr_tick = in.readInt();
+		restock_waiting_list = new ConcurrentHashMap<String,LinkedBlockingQueue<PurchaseOrderRequest>>();
+		restocks = new ConcurrentHashMap<RestockRequest,PurchaseOrderRequest>();
+		for (int i=in.readInt(); i>0; i--){
+			RestockRequest restock = in.readRequest();
+			restocks.put(restock, in.readRequest());
+			restoreRequest(restock, result -> onRestocked(restock, result));
+		}
 	}
 
 	public void setTick(int t){
@@ -47,7 +74,7 @@ public class SellingService extends MicroService{
 		subscribeBroadcast(TickBroadcast.class, tick_msg -> { //subscribe to timer
 			if (!tick_msg.isRunning()){ //if reached duration time or minutes before termination=0
 				terminate();
-				Logger.getLogger("logger").log(Level.INFO, getName()+ " is terminating ");
+				EventLog.log(ShoeStoreEvent.TERMINATING, getName());
 			}
 			setTick(tick_msg.getTick());
 		});
@@ -55,8 +82,8 @@ public class SellingService extends MicroService{
 		
 		// SUBSCRIBE TO PURCHASE ORDER REQUEST
 		subscribeRequest(PurchaseOrderRequest.class, (purMsg)-> {
-			Logger.getLogger("logger").log(Level.INFO, getName()+" informed: "+ purMsg.getSenderName()+" wants to buy "+purMsg.getShoeType());
-            Store myStore = Store.storeGetInstance();
+			EventLog.log(ShoeStoreEvent.PURCHASE_RECEIVED, getName(), purMsg.getSenderName(), purMsg.getShoeType());
+            Store myStore = store;
             BuyResult purchase_result = myStore.take(purMsg.getShoeType(), purMsg.wantsDiscount()); // attempt to take
             
             //retreive data from the purchase message:	
@@ -96,24 +123,14 @@ public class SellingService extends MicroService{
             	case NOT_IN_STOCK:{          		
             		if (!purMsg.wantsDiscount()){ // not a wish list request
 	            		//send Restock Request to manager
-	            		@SuppressWarnings("unchecked")
-						boolean success = sendRequest(new RestockRequest<Boolean>(curr_tick, shoe ,1, getName()), (result) ->{ //manager will send (curr_tick%5)+1
-
-		            		if (((Boolean) result).booleanValue()==false) //not succeeded
-		            			Logger.getLogger("logger").log(Level.INFO, "Seller " +getName() +" notified that Restock request attempt for "+shoe+" had not succeeded");
-	            			else {
-	            				Logger.getLogger("logger").log(Level.INFO,getName()+" got informed that the ordered "+shoe+" for " +purMsg.getSenderName()+"  arrived!");
-		            			int newTick = curr_tick;
-		            			receipt.setIssuedTick(newTick); //put new finish time	            				
-		            			Store.storeGetInstance().file(receipt);
-		               			complete(purMsg,receipt);
-		            		}			
-	            		});
+	            		RestockRequest restock = new RestockRequest(curr_tick, shoe ,1, getName()); //manager will send (curr_tick%5)+1
+	            		restocks.put(restock, purMsg);
+						boolean success = sendRequest(restock, result -> onRestocked(restock, result));
 	            		
 	            		
 	            		// CHECKING IF THE REQUEST FOR PURCHASE HAS ARRIVED TO SOMEONE:
 	            		if (success) {
-	            			Logger.getLogger("logger").log(Level.INFO, "Sender "+getName()+" sent a restock request for "+shoe +" and waits for its completion");
+	            			EventLog.log(ShoeStoreEvent.RESTOCK_REQUESTED, getName(), shoe);
 	                           
 	                           if (!restock_waiting_list.containsKey(purMsg.getShoeType())){
 	                        	   LinkedBlockingQueue<PurchaseOrderRequest> newlist = new LinkedBlockingQueue<PurchaseOrderRequest>();
@@ -124,13 +141,14 @@ public class SellingService extends MicroService{
 	                        	   restock_waiting_list.get(purMsg.getShoeType()).add(purMsg);
 	            		}
 	                    else{ //success=false
-	                    	Logger.getLogger("logger").log(Level.INFO, "Sender " +getName()+ " tried to send a restock request for "+shoe+" but failed");
+	                    	EventLog.log(ShoeStoreEvent.RESTOCK_REQUEST_FAILED, getName(), shoe);
+	                    	restocks.remove(restock);
 	                            complete(purMsg,null);             
 	                            }
 	            		break;
             		}
             		else
-            			Logger.getLogger("logger").log(Level.INFO, sender+"'s wish: wanted to buy "+shoe+" but it's not in stock anymore");
+            			EventLog.log(ShoeStoreEvent.WISH_OUT_OF_STOCK, sender, shoe);
             	}
 
             }
@@ -139,4 +157,34 @@ public class SellingService extends MicroService{
 		latchObject.countDown();
 	}
 
+	/**
+	 * called when the manager completes {@code restock}: sells the shoe to the purchase that waited for it
+	 * with a receipt of the current tick, or gives up on it if the restock did not succeed
+	 */
+	private void onRestocked(RestockRequest restock, Boolean result){
+		PurchaseOrderRequest purMsg = restocks.remove(restock);
+		String shoe = purMsg.getShoeType();
+		if (result.booleanValue()==false) //not succeeded
+			EventLog.log(ShoeStoreEvent.RESTOCK_NOT_SUCCEEDED, getName(), shoe);
+		else {
+			EventLog.log(ShoeStoreEvent.RESTOCK_ARRIVED, getName(), shoe, purMsg.getSenderName());
+			Receipt receipt = new Receipt(getName(),purMsg.getSenderName(),shoe,false,curr_tick,purMsg.getTick(),purMsg.getAmount()); //put new finish time
+			store.file(receipt);
+			complete(purMsg,receipt);
+		}
+	}
+
+	/**
+	 * writes the tick and the restock requests that were not completed yet with the purchase each was sent for
+	 */
+	@Override
+	public void checkpoint(Checkpoint.Writer out) throws IOException {
+		out.writeInt(curr_tick);
+		out.writeInt(restocks.size());
+		for (Map.Entry<RestockRequest,PurchaseOrderRequest> e : restocks.entrySet()){
+			out.writeRequest(e.getKey());
+			out.writeRequest(e.getValue());
+		}
+	}
+
 }
\ No newline at end of file
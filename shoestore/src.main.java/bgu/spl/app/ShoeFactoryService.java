@@ -1,10 +1,10 @@
 package bgu.spl.app;
 
+import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
+import bgu.spl.mics.EventLog;
 import bgu.spl.mics.MicroService;
 
 /**
@@ -22,25 +22,43 @@ import bgu.spl.mics.MicroService;
  *@param curr_request : the current ManufacturingOrderRequest that the factory is working on
  *@param curr_amount : the current amount of shoes left to create in the curr_request order
  */
-public class ShoeFactoryService extends MicroService{
+public class ShoeFactoryService extends MicroService implements Checkpoint.Service {
 
-	private LinkedBlockingQueue<ManufacturingOrderRequest<Receipt>> restock_orders;
+	private LinkedBlockingQueue<ManufacturingOrderRequest> restock_orders;
 	private int curr_tick;
-	private ManufacturingOrderRequest<Receipt> curr_request;
+	private ManufacturingOrderRequest curr_request;
 	private int curr_amount;
 	
 	public ShoeFactoryService(String name, CountDownLatch c, CountDownLatch f){
-		super(name,c,f);
-		restock_orders = new LinkedBlockingQueue<ManufacturingOrderRequest<Receipt>>();
+		this(name,SimulationContext.getDefault(),c,f);
+	}
+	
+	public ShoeFactoryService(String name, SimulationContext context, CountDownLatch c, CountDownLatch f){
+		super(name,context.getBus(),c,f);
+		restock_orders = new LinkedBlockingQueue<ManufacturingOrderRequest>();
 		curr_tick=1;
 		curr_request=null;
 	}
 
+	/**
+	 * the constructor of a factory that is resumed from a checkpoint of the simulation {@code context} (see {@link #checkpoint}),
+	 * the manager waits for the orders it reads
+	 */
+	public ShoeFactoryService(Checkpoint.Reader in, SimulationContext context, CountDownLatch c, CountDownLatch f) throws IOException {
+		super(in.readString(),context.getBus(),c,f);
+		curr_tick = in.readInt();
+		curr_request = in.readRequest();
+		curr_amount = in.readInt();
+		restock_orders = new LinkedBlockingQueue<ManufacturingOrderRequest>();
+		for (int i=in.readInt(); i>0; i--)
+			restock_orders.add(in.readRequest());
+	}
+
 	public void setTick(int tick){
 		curr_tick=tick;
 	}
 	
-	public void setRequest(ManufacturingOrderRequest<Receipt> request){
+	public void setRequest(ManufacturingOrderRequest request){
 		curr_request=request;
 	}
 	/**
@@ -52,25 +70,25 @@ public class ShoeFactoryService extends MicroService{
 		
 		subscribeBroadcast(TickBroadcast.class, tick_msg -> { //subscribe to timer
 			if (!tick_msg.isRunning()){ //if reached duration time 
-				Logger.getLogger("logger").log(Level.INFO,getName()+ " is terminating ");
+				EventLog.log(ShoeStoreEvent.TERMINATING, getName());
 				terminate();
 			}
 			setTick(tick_msg.getTick());
 			
 			if (curr_request!=null){
 				if (curr_amount>0){
-					Logger.getLogger("logger").log(Level.INFO,getName()+ " created a pair of " +curr_request.getShoeType());
+					EventLog.log(ShoeStoreEvent.SHOE_CREATED, getName(), curr_request.getShoeType());
 					curr_amount--;
 				}
 				else if (curr_amount==0){
-					Logger.getLogger("logger").log(Level.INFO,getName()+ " finished producing the restock request for "+curr_request.getAmount()+" "+curr_request.getShoeType());
+					EventLog.log(ShoeStoreEvent.PRODUCTION_FINISHED, getName(), curr_request.getAmount(), curr_request.getShoeType());
 					Receipt r= new Receipt(getName(),"store",curr_request.getShoeType(),false,curr_tick,curr_request.getCurr_tick(),curr_request.getAmount());
 					complete(curr_request,r);
 					if (!restock_orders.isEmpty()){
 						curr_request = restock_orders.remove();
 						curr_amount = curr_request.getAmount();
 						if (curr_amount>0){
-							Logger.getLogger("logger").log(Level.INFO,getName()+ " created a pair of " +curr_request.getShoeType());
+							EventLog.log(ShoeStoreEvent.SHOE_CREATED, getName(), curr_request.getShoeType());
 							curr_amount--;
 						}
 					}
@@ -81,7 +99,7 @@ public class ShoeFactoryService extends MicroService{
 			else{
 				if (!restock_orders.isEmpty()){
 					setRequest(restock_orders.remove());
-					Logger.getLogger("logger").log(Level.INFO,getName()+ " created 1 pair of "+curr_request.getShoeType());
+					EventLog.log(ShoeStoreEvent.SHOE_CREATED, getName(), curr_request.getShoeType());
 					curr_request.setAmount(curr_request.getAmount()-1);
 				}
 			}
@@ -89,7 +107,7 @@ public class ShoeFactoryService extends MicroService{
 		});
 		
 		subscribeRequest(ManufacturingOrderRequest.class, man_req -> {
-			Logger.getLogger("logger").log(Level.INFO,getName()+ " was asked from the store to produce "+man_req.getAmount()+" "+man_req.getShoeType());
+			EventLog.log(ShoeStoreEvent.MANUFACTURING_ORDERED, getName(), man_req.getAmount(), man_req.getShoeType());
 			if (curr_request==null){
 				setRequest(man_req);
 				curr_amount=man_req.getAmount();
@@ -105,6 +123,19 @@ public class ShoeFactoryService extends MicroService{
 		
 		latchObject.countDown();
 	}
+
+	/**
+	 * writes the tick, the order in production with the amount left to make and the orders waiting for it
+	 */
+	@Override
+	public void checkpoint(Checkpoint.Writer out) throws IOException {
+		out.writeInt(curr_tick);
+		out.writeRequest(curr_request);
+		out.writeInt(curr_amount);
+		out.writeInt(restock_orders.size());
+		for (ManufacturingOrderRequest order : restock_orders)
+			out.writeRequest(order);
+	}
 //	public Receipt(String seller, String customer, String shoeType, boolean discount, int issuedTick, int requestTick, int amountS){
 
 	
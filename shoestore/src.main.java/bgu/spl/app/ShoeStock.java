@@ -0,0 +1,196 @@
+package bgu.spl.app;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bgu.spl.app.Store.BuyResult;
+
+/**
+ * the stock of a single shoe type in the store. the amount and the discounted amount are packed into a single long
+ * (amount in the high half, discounted amount in the low half) so both change together in one compare and set,
+ * and shoes of different types never wait for each other.
+ * <p>
+ * when many clients buy the same shoe on the same tick (a flash sale) their compare and sets keep failing on each
+ * other. a take that failed a few times stops retrying and joins a combining queue instead: one of the waiting
+ * takers becomes the combiner, applies all the queued takes in order to a private copy of the state and publishes
+ * them with a single compare and set, and the others just wait for their result. this way a hot shoe costs one
+ * successful compare and set per batch of buyers instead of many failed ones per buyer.
+ *
+ * @param shoeType : the name of the shoe
+ * @param state : the packed amount and discounted amount
+ * @param pending : takes that wait for a combiner
+ * @param combining : true while a taker combines the pending takes
+ * @param combined : the number of takes that went through the combining queue, a measure of the contention on the shoe
+ */
+class ShoeStock {
+
+	private static final int RETRIES_BEFORE_COMBINING = 2;
+	private static final long AMOUNT_UNIT = 1L<<32;
+
+	/**
+	 * a take waiting in the combining queue
+	 */
+	private static class PendingTake {
+		final boolean onlyDiscount;
+		volatile BuyResult result;
+
+		PendingTake(boolean onlyDiscount){
+			this.onlyDiscount = onlyDiscount;
+		}
+	}
+
+	private final String shoeType;
+	private final AtomicLong state;
+	private final ConcurrentLinkedQueue<PendingTake> pending;
+	private final AtomicBoolean combining;
+	private final AtomicLong combined;
+
+	ShoeStock(String shoeType, int amount, int discountedAmount){
+		this.shoeType = shoeType;
+		this.state = new AtomicLong(pack(amount, discountedAmount));
+		this.pending = new ConcurrentLinkedQueue<PendingTake>();
+		this.combining = new AtomicBoolean(false);
+		this.combined = new AtomicLong();
+	}
+
+	ShoeStock(String shoeType){
+		this(shoeType, 0, 0);
+	}
+
+	private static long pack(int amount, int discountedAmount){
+		return ((long)amount<<32) | (discountedAmount & 0xFFFFFFFFL);
+	}
+
+	private static int amount(long s){
+		return (int)(s>>>32);
+	}
+
+	private static int discountedAmount(long s){
+		return (int)s;
+	}
+
+	/**
+	 * the result of a take from a stock in state {@code s}, same rules as {@link Store#take}
+	 */
+	private static BuyResult result(long s, boolean onlyDiscount){
+		if (amount(s)==0)
+			return BuyResult.NOT_IN_STOCK;
+		if (discountedAmount(s)>0)
+			return BuyResult.DISCOUNTED_PRICE;
+		if (onlyDiscount)
+			return BuyResult.NOT_ON_DISCOUNT;
+		return BuyResult.REGULAR_PRICE;
+	}
+
+	// the state after a take with result r
+	private static long after(long s, BuyResult r){
+		switch(r){
+			case DISCOUNTED_PRICE:
+				return pack(amount(s)-1, discountedAmount(s)-1);
+			case REGULAR_PRICE:
+				return pack(amount(s)-1, discountedAmount(s));
+			default:
+				return s;
+		}
+	}
+
+	private static boolean changes(BuyResult r){
+		return r==BuyResult.DISCOUNTED_PRICE || r==BuyResult.REGULAR_PRICE;
+	}
+
+	/**
+	 * takes a single shoe, see {@link Store#take}
+	 */
+	BuyResult take(boolean onlyDiscount){
+		for (int i=0; i<RETRIES_BEFORE_COMBINING; i++){
+			long s = state.get();
+			BuyResult r = result(s, onlyDiscount);
+			if (!changes(r) || state.compareAndSet(s, after(s, r)))
+				return r;
+		}
+		return combine(onlyDiscount);
+	}
+
+	private BuyResult combine(boolean onlyDiscount){
+		PendingTake take = new PendingTake(onlyDiscount);
+		combined.incrementAndGet(); // only contended takes get here, so the counter is not contended by the rest
+		pending.add(take);
+		while (take.result==null){
+			if (combining.compareAndSet(false, true)){
+				try {
+					applyPending();
+				}
+				finally {
+					combining.set(false);
+				}
+			}
+			else
+				Thread.yield();
+		}
+		return take.result;
+	}
+
+	// only the combiner calls this
+	private void applyPending(){
+		ArrayList<PendingTake> batch = new ArrayList<PendingTake>();
+		PendingTake next;
+		while ((next = pending.poll())!=null)
+			batch.add(next);
+		if (batch.isEmpty())
+			return;
+		BuyResult[] results = new BuyResult[batch.size()];
+		long s, t;
+		do { // takes that did not combine may still change the state, so the whole batch is redone on a failure
+			s = state.get();
+			t = s;
+			for (int i=0; i<results.length; i++){
+				results[i] = result(t, batch.get(i).onlyDiscount);
+				t = after(t, results[i]);
+			}
+		} while (t!=s && !state.compareAndSet(s, t));
+		for (int i=0; i<results.length; i++)
+			batch.get(i).result = results[i];
+	}
+
+	/**
+	 * adds {@code amount} shoes that are not on discount
+	 */
+	void add(int amount){
+		state.addAndGet(amount*AMOUNT_UNIT);
+	}
+
+	/**
+	 * puts up to {@code amount} more shoes on discount, never more than there are in stock
+	 * @return how many shoes were put on discount
+	 */
+	int addDiscount(int amount){
+		long s, t;
+		int added;
+		do {
+			s = state.get();
+			added = Math.min(amount, amount(s)-discountedAmount(s));
+			if (added<=0)
+				return 0;
+			t = pack(amount(s), discountedAmount(s)+added);
+		} while (!state.compareAndSet(s, t));
+		return added;
+	}
+
+	int getAmount(){
+		return amount(state.get());
+	}
+
+	long getCombinedTakes(){
+		return combined.get();
+	}
+
+	/**
+	 * @return a consistent copy of this stock
+	 */
+	ShoeStorageInfo getInfo(){
+		long s = state.get();
+		return new ShoeStorageInfo(shoeType, amount(s), discountedAmount(s));
+	}
+}
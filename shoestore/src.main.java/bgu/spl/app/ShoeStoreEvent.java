@@ -0,0 +1,82 @@
+package bgu.spl.app;
+
+import java.util.logging.Level;
+
+import bgu.spl.mics.EventLog;
+import bgu.spl.mics.MicroService;
+
+/**
+ * the events the micro services of the store log through the EventLog, with the message each one is formatted to.
+ * the arguments are given as %s (names and shoe types) and %d (amounts and ticks), see EventLog.Event.
+ *
+ * @param source : the class that logs the event
+ * @param format : the message of the event
+ */
+public enum ShoeStoreEvent implements EventLog.Event {
+
+	TERMINATING(MicroService.class, "%s is terminating "),
+
+	// TimeService
+	TIMER_STARTED(TimeService.class, "Timer started"),
+	TICK(TimeService.class, "\n	################################## Tick %d ################################## \n"),
+	TIME_IS_UP(TimeService.class, "The program's running time has come to end"),
+	CHECKPOINT_WRITTEN(TimeService.class, "Checkpoint of tick %d written to %s"),
+
+	// WebsiteClientService
+	PURCHASE_SENT(WebsiteClientService.class, "%s sent a Purchase request for %s and waiting for its completion"),
+	PURCHASE_FAILED(WebsiteClientService.class, "%s tried to purchase %s but failed"),
+	PURCHASE_UNHANDLED(WebsiteClientService.class, "%s tried to send a Purchase request for %s but no one cares"),
+	WISH_DISCOUNTED(WebsiteClientService.class, "%s's wish has come true! %s is on discount! she will try to buy it"),
+	DISCOUNTED_PURCHASE_FAILED(WebsiteClientService.class, "%s tried to purchase with discounted price %s, but failed"),
+
+	// SellingService
+	PURCHASE_RECEIVED(SellingService.class, "%s informed: %s wants to buy %s"),
+	RESTOCK_REQUESTED(SellingService.class, "Sender %s sent a restock request for %s and waits for its completion"),
+	RESTOCK_REQUEST_FAILED(SellingService.class, "Sender %s tried to send a restock request for %s but failed"),
+	RESTOCK_NOT_SUCCEEDED(SellingService.class, "Seller %s notified that Restock request attempt for %s had not succeeded"),
+	RESTOCK_ARRIVED(SellingService.class, "%s got informed that the ordered %s for %s  arrived!"),
+	WISH_OUT_OF_STOCK(SellingService.class, "%s's wish: wanted to buy %s but it's not in stock anymore"),
+
+	// ManagementService
+	RESTOCK_SENT(ManagementService.class, "the Manager sent a Restock request to factory for %d %s and waits for arrival"),
+	RESTOCK_UNHANDLED(ManagementService.class, "the Manager tried to send a restock request for %d %s but no one cares"),
+	RESTOCK_NO_FACTORY(ManagementService.class, "Restock attempt for :%s failed - no factory available"),
+	RESTOCK_ON_ITS_WAY(ManagementService.class, "Manager respondes to %s: No need for Restock for %s, it's on it's way"),
+
+	// ShoeFactoryService
+	MANUFACTURING_ORDERED(ShoeFactoryService.class, "%s was asked from the store to produce %d %s"),
+	SHOE_CREATED(ShoeFactoryService.class, "%s created a pair of %s"),
+	PRODUCTION_FINISHED(ShoeFactoryService.class, "%s finished producing the restock request for %d %s"),
+
+	// Receipt
+	DISCOUNTED_RECEIPT(Receipt.class, "\n	 ================================   DISCOUNTED purchase receipt   ================================= \n		Customer: %s, Amount: %d, Shoe Type: %s, Seller: %s\n		Order Tick: %d, Issued Tick: %d \n	 ================================================================================================== \n"),
+	REGULAR_RECEIPT(Receipt.class, "\n	==================================   REGULAR purchase receipt   ================================== \n	 	Customer: %s, Amount: %d, Shoe Type: %s, Seller: %s\n		Order Tick: %d, Issued Tick: %d \n	================================================================================================== \n"),
+
+	// Store
+	DISCOUNT_ADDED(Store.class, "the manager announced of a discount for %d %s!!"),
+	ALL_DISCOUNTED(Store.class, "Manager announces: all %s are discounted"),
+	DISCOUNT_NOT_IN_STORAGE(Store.class, "Manager sent a discount broadcast for %s but it doesn't exist in storage, sneaky guy");
+
+	private final String source;
+	private final String format;
+
+	private ShoeStoreEvent(Class<?> source, String format){
+		this.source = source.getName();
+		this.format = format;
+	}
+
+	@Override
+	public Level getLevel(){
+		return Level.INFO;
+	}
+
+	@Override
+	public String getSource(){
+		return source;
+	}
+
+	@Override
+	public String getFormat(){
+		return format;
+	}
+}
@@ -1,25 +1,71 @@
 package bgu.spl.app;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.*;
 
-import com.google.gson.Gson;
+import bgu.spl.mics.DeterministicRuntime;
+import bgu.spl.mics.EventLog;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.MicroServiceRuntime;
+import bgu.spl.mics.PooledRuntime;
+import bgu.spl.mics.ThreadRuntime;
+import bgu.spl.mics.Request;
+import bgu.spl.mics.impl.BusMetrics;
+import bgu.spl.mics.impl.DispatchPolicy;
+import bgu.spl.mics.impl.KeyHashDispatch;
+import bgu.spl.mics.impl.LatencyRecorder;
+import bgu.spl.mics.impl.LeastLoadedDispatch;
+import bgu.spl.mics.impl.Mailbox;
+import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.impl.MetricsServer;
+import bgu.spl.mics.impl.RoundRobinDispatch;
 
 /**
  * When started, it should accept as argument (command line argument) the name of the json input file to read - there
 	are some example input files in the files attched to this work and you can create more yourself).
-	The ShoeStoreRunner should read the input file (using Gson), it then should add the initial storage to
+	The ShoeStoreRunner should read the input file (streaming it with Gson's JsonReader, see ScenarioLoader), it then should add the initial storage to
 	the store and create and start the micro-services. When the current tick number is larger than the
 	duration given to the TimeService in the input file all the micro-services should gracefully terminate
 	themselves. You must make sure that micro-services will not miss the first TickBroadcast (because they was not started yet).
 	After all the micro-services terminate themselves the ShoeStoreRunner should call the Store’s
 	print function and exit. Important: all the threads in the system should be terminated gracefully.
  *
+ *	Usage: ShoeStoreRunner input.json|input.bin|checkpoint.ckpt [-runtime=threads|pool|deterministic] [-workers=N] [-mailbox=service:capacity:overflow ...] [-dispatch=request:policy ...] [-clock=wall|afap] [-latency=latency.csv] [-metrics=port] [-wal=dir[:snapshotSeconds]] [-checkpoint=tick:file[:stop]]
+ *	-runtime=threads (default) runs every micro-service on its own thread, -runtime=pool multiplexes the clients,
+ *	sellers, factories and the manager over N worker threads (default: the number of available processors).
+ *	The timer always runs on its own thread since it blocks until all the other micro-services are done.
+ *	-runtime=deterministic runs all the micro-services, the timer included, on the main thread in a fixed order
+ *	and sends every tick as soon as the previous one was handled (the -clock flag is ignored), so the same input
+ *	always gives the same receipts.
+ *	-mailbox bounds the number of requests waiting for a service type (client, seller, factory or manager), the
+ *	overflow is block, reject or spill (see Mailbox.Overflow). The flag may be repeated, one per service type. block
+ *	needs -runtime=threads: with the other runtimes a blocked sender would hold the thread the receiver runs on.
+ *	-dispatch=request:policy chooses how a request type (purchase, restock or manufacturing) picks its handler:
+ *	roundrobin (default), leastloaded or shoetype (requests for the same shoe type go to the same handler).
+ *	-clock=wall (default) sends a tick every speed milliseconds, -clock=afap ignores the speed and sends every tick as
+ *	soon as all the messages of the previous tick were handled.
+ *	-latency records where the time of every request goes on its way through the message bus (see LatencyRecorder),
+ *	logs the median and 99th percentile of each stage per request type and writes all the percentiles, per request
+ *	type and per tick, to the given csv file. the timestamps cost a little, so the flag is off by default.
+ *	-metrics keeps counters per micro-service and message type while the simulation runs (mailbox depth, messages
+ *	handled, time in callbacks, idle and blocked time), serves them at http://localhost:port/metrics in the
+ *	Prometheus text format (port 0 picks a free port, which is logged) and registers a ServiceMetricsMXBean per
+ *	micro-service for jconsole. the server stops when the simulation ends.
+ *	-wal appends every change of the store to a write ahead log in the given directory, which must not hold a log
+ *	yet, and snapshots the store every snapshotSeconds (default 60, see StoreLog). the store of a run that crashed
+ *	is recovered and printed with: ShoeStoreRunner -recover dir
+ *	-checkpoint writes a checkpoint of the whole simulation to the file once the given tick was handled (see Checkpoint)
+ *	and goes on, or ends the simulation there with :stop. the checkpoint is given instead of the input to resume from
+ *	the tick after it, in this JVM or another one, with any of the other flags. a simulation whose checkpoint could
+ *	not be written ends at the checkpoint tick and fails.
+ *	The input may also be a compiled scenario (see CompiledScenario), which is memory mapped instead of parsed:
+ *	ShoeStoreRunner -compile input.json input.bin
+ *
  *@param logger : prints all methods to the console with relevant info
  *
  */
@@ -28,57 +74,352 @@ public class ShoeStoreRunner {
 	
 	public static Logger logger=Logger.getLogger("logger");
 	public static void main(String[] args) {
+		try {
+			if (args.length==3 && args[0].equals("-compile"))
+				CompiledScenario.compile(args[1], args[2]);
+			else if (args.length==2 && args[0].equals("-recover"))
+				StoreLog.recover(new File(args[1])).print();
+			else
+				run(args);
+			EventLog.flush(); // the events logged after the store was printed (the services unregistering)
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
 	
-		Scanner sc = new Scanner(System.in);
-		String input = sc.nextLine(); // enter the name of the json file
-		CountDownLatch readyForTimer;
-		CountDownLatch finishProgram;
-		int numOfThreads;
-		List<SellingService> sellers=new LinkedList<SellingService>();
-		List<ShoeFactoryService> factorys=new LinkedList<ShoeFactoryService>();
-		Gson gson=new Gson();
+	/**
+	 * runs a whole simulation in a context of its own and waits until it ends, so many simulations can run in the
+	 * same JVM (see ScenarioSweep)
+	 * @param args the input file name followed by the flags described above
+	 * @return the context of the finished simulation
+	 */
+	public static SimulationContext run(String[] args) throws IOException, InterruptedException {
+		SimulationContext context = new SimulationContext(createRuntime(args));
+		configureMailboxes(args, context);
+		if (waitsForQuiescence(args))
+			context.getBus().countInFlight(); // before any micro service registers
+		configureDispatch(args, context.getBus());
+		String latencyFile = configureLatency(args, context.getBus());
+		MetricsServer metrics = configureMetrics(args, context.getBus());
+		StoreLog log = configureLog(args, context.getStore());
 		try {
-			//"/users/studs/bsc/2016/sdanie/workspace/assignment2/src.main.java/"+input+".json"
-			BufferedReader reader = new BufferedReader(new FileReader(args[0]));
-			JsonData data = gson.fromJson(reader,JsonData.class);
-			Store.storeGetInstance().load(data.initialStorage);
-				
-			numOfThreads= data.services.factories+data.services.sellers+ data.services.customers.length+1; //1= manager
-			readyForTimer = new CountDownLatch(numOfThreads); 
-			finishProgram = new CountDownLatch(numOfThreads-1); // only the timer
-			for(int i=1;i<= data.services.factories;i++){
-				factorys.add(new ShoeFactoryService("factory "+i,readyForTimer,finishProgram));
-		
-			}
-				
+			runServices(args, context, latencyFile);
+		} finally {
+			if (metrics!=null)
+				metrics.stop();
+			if (log!=null)
+				log.close();
+		}
+		return context;
+	}
+	
+	// loads the scenario, runs its micro services and waits until they all terminate
+	private static void runServices(String[] args, SimulationContext context, String latencyFile) throws IOException, InterruptedException {
+		if (Checkpoint.isCheckpoint(args[0])){
+			resumeServices(args, context, latencyFile);
+			return;
+		}
+		Scenario loader = CompiledScenario.isCompiled(args[0]) ? new CompiledScenario(args[0]) : new ScenarioLoader(args[0]); // counts the micro services
 			
-			for(int i=1;i<= data.services.sellers;i++){
-				sellers.add(new SellingService("seller "+i,readyForTimer,finishProgram));
+		int numOfThreads= loader.getFactories()+loader.getSellers()+ loader.getCustomers()+(loader.hasManager() ? 1 : 0);
+		CountDownLatch readyForTimer = new CountDownLatch(numOfThreads); 
+		CountDownLatch finishProgram = new CountDownLatch(numOfThreads-1); // only the timer
+		// every micro service is started as soon as it is read
+		loader.load(new Scenario.Handler(){
+			public void storage(ShoeStorageInfo shoe){
+				context.getStore().load(shoe);
 			}
-			ManagementService manager=new ManagementService( data.services.manager,readyForTimer, finishProgram);
-			
-			Thread t = new Thread(manager);
-			t.start();
-			
-			WebsiteClientService webclient;
-			for(WebsiteClientService client : data.services.customers){
-				webclient = new WebsiteClientService(client,readyForTimer, finishProgram);
-				new Thread(webclient).start();
-			
+			public void manager(List<DiscountSchedule> discountSchedule){
+				context.start(new ManagementService(discountSchedule,context,readyForTimer,finishProgram));
 			}
-			
-			for(SellingService s : sellers)
-				new Thread(s).start();
-			
-			for(ShoeFactoryService s : factorys)
-				new Thread(s).start();
-				
-			new Thread(new TimeService( data.services.time.getDuration(), data.services.time.getSpeed(),readyForTimer,finishProgram)).start();
-			
-			} catch (IOException e) {
-				e.printStackTrace();
+			public void customer(String name, List<PurchaseSchedule> purchaseSchedule, Set<String> wishList){
+				context.start(new WebsiteClientService(name,purchaseSchedule,wishList,context,readyForTimer,finishProgram));
+			}
+			public void factories(int count){
+				for(int i=1;i<= count;i++)
+					context.start(new ShoeFactoryService("factory "+i,context,readyForTimer,finishProgram));
 			}
+			public void sellers(int count){
+				for(int i=1;i<= count;i++)
+					context.start(new SellingService("seller "+i,context,readyForTimer,finishProgram));
+			}
+		});
+		
+		runTimer(args, context, loader.getDuration(), loader.getSpeed(), 1, readyForTimer, finishProgram, latencyFile);
+	}
+	
+	// restores the micro services of a checkpoint and runs them from the tick after it until they all terminate
+	private static void resumeServices(String[] args, SimulationContext context, String latencyFile) throws IOException, InterruptedException {
+		Checkpoint image = new Checkpoint(args[0]);
+		CountDownLatch readyForTimer = new CountDownLatch(image.getServices());
+		CountDownLatch finishProgram = new CountDownLatch(Math.max(image.getServices()-1,0)); // what is left of the latch of the checkpointed run
+		logger.log(Level.INFO, "resuming "+image.getServices()+" micro-services from tick "+image.getTick());
+		image.restore(context, readyForTimer, finishProgram);
+		runTimer(args, context, image.getDuration(), image.getSpeed(), image.getTick(), readyForTimer, finishProgram, latencyFile);
+	}
+	
+	// starts the timer from firstTick once the micro services were started and waits until it terminates
+	private static void runTimer(String[] args, SimulationContext context, int duration, int speed, int firstTick, CountDownLatch readyForTimer, CountDownLatch finishProgram, String latencyFile) throws IOException, InterruptedException {
+		if (context.getRuntime() instanceof DeterministicRuntime){ // the timer runs last on the same thread, ticks are sent whenever everyone is idle
+			TimeService timer = new TimeService(duration,speed,true,context,readyForTimer,finishProgram);
+			timer.setCurrTick(firstTick);
+			configureCheckpoint(args, timer, firstTick);
+			context.start(timer);
+			context.getRuntime().shutdown(); // runs the whole simulation
+			reportLatency(latencyFile, context.getBus());
+			checkCheckpoint(timer);
+			return;
+		}
+		context.getRuntime().shutdown(); // all services were started
+		
+		TimeService timeService = new TimeService(duration,speed,isAsFastAsPossible(args),context,readyForTimer,finishProgram);
+		timeService.setCurrTick(firstTick);
+		configureCheckpoint(args, timeService, firstTick);
+		Thread timer = new Thread(timeService, "timer");
+		timer.start();
+		timer.join(); // the timer terminates last, after printing the store
+		reportLatency(latencyFile, context.getBus());
+		checkCheckpoint(timeService);
+	}
 
+	// a simulation whose checkpoint could not be written ended at the checkpoint tick, it did not succeed
+	private static void checkCheckpoint(TimeService timer) throws IOException {
+		IOException failure = timer.getCheckpointFailure();
+		if (failure!=null)
+			throw new IOException("the simulation ended early, its checkpoint could not be written", failure);
+	}
+	
+	/**
+	 * reads the runtime flags that follow the input file name
+	 * @param args the command line arguments
+	 * @return the runtime that runs all the micro-services except the timer
+	 */
+	private static MicroServiceRuntime createRuntime(String[] args){
+		String mode = "threads";
+		int workers = Runtime.getRuntime().availableProcessors();
+		for(int i=1; i<args.length; i++){
+			if (args[i].startsWith("-runtime="))
+				mode = args[i].substring("-runtime=".length());
+			else if (args[i].startsWith("-workers="))
+				workers = Integer.parseInt(args[i].substring("-workers=".length()));
+		}
+		switch(mode){
+			case "threads":
+				return new ThreadRuntime();
+			case "pool":
+				logger.log(Level.INFO, "running the micro-services on "+workers+" workers");
+				return new PooledRuntime(workers);
+			case "deterministic":
+				return new DeterministicRuntime();
+			default:
+				throw new IllegalArgumentException("unknown runtime "+mode+", supported runtimes: threads, pool, deterministic");
+		}
+	}
+	
+	/**
+	 * reads the -clock flag that follows the input file name
+	 * @param args the command line arguments
+	 * @return true if the ticks should be sent as fast as possible
+	 */
+	private static boolean isAsFastAsPossible(String[] args){
+		String clock = "wall";
+		for(int i=1; i<args.length; i++)
+			if (args[i].startsWith("-clock="))
+				clock = args[i].substring("-clock=".length());
+		switch(clock){
+			case "wall":
+				return false;
+			case "afap":
+				logger.log(Level.INFO, "sending the ticks as fast as possible");
+				return true;
+			default:
+				throw new IllegalArgumentException("unknown clock "+clock+", supported clocks: wall, afap");
+		}
+	}
+	
+	/**
+	 * @param args the command line arguments
+	 * @return true if the timer waits for the messages in flight to be handled: the ticks are sent as fast as possible
+	 *         or a checkpoint is written between two ticks
+	 */
+	private static boolean waitsForQuiescence(String[] args){
+		for(int i=1; i<args.length; i++)
+			if (args[i].equals("-clock=afap") || args[i].startsWith("-checkpoint="))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * reads the -mailbox flags that follow the input file name and sets the matching mailbox policies in the message bus
+	 * @param args the command line arguments
+	 * @param context the simulation whose message bus gets the policies
+	 */
+	private static void configureMailboxes(String[] args, SimulationContext context){
+		HashMap<String,Class<? extends MicroService>> types = new HashMap<String,Class<? extends MicroService>>();
+		types.put("client", WebsiteClientService.class);
+		types.put("seller", SellingService.class);
+		types.put("factory", ShoeFactoryService.class);
+		types.put("manager", ManagementService.class);
+		for(int i=1; i<args.length; i++){
+			if (!args[i].startsWith("-mailbox="))
+				continue;
+			String[] params = args[i].substring("-mailbox=".length()).split(":");
+			if (params.length!=3 || !types.containsKey(params[0]))
+				throw new IllegalArgumentException("Expecting -mailbox=service:capacity:overflow, supported services: "+types.keySet());
+			Mailbox.Policy policy = new Mailbox.Policy(Integer.parseInt(params[1]), Mailbox.Overflow.valueOf(params[2].toUpperCase()));
+			// a sender blocked on a full mailbox holds the thread its owner needs to make room
+			if (policy.getOverflow()==Mailbox.Overflow.BLOCK && !(context.getRuntime() instanceof ThreadRuntime))
+				throw new IllegalArgumentException("the block overflow needs -runtime=threads, use reject or spill with the other runtimes");
+			context.getBus().setMailboxPolicy(types.get(params[0]), policy);
+			logger.log(Level.INFO, params[0]+" mailboxes hold up to "+params[1]+" requests, overflow: "+params[2]);
+		}
+	}
+	
+	/**
+	 * reads the -latency flag that follows the input file name and sets a latency recorder in the message bus
+	 * @param args the command line arguments
+	 * @param bus the message bus of the simulation
+	 * @return the csv file the latencies are written to, null if they are not recorded
+	 */
+	private static String configureLatency(String[] args, MessageBusImpl bus){
+		String file = null;
+		for(int i=1; i<args.length; i++)
+			if (args[i].startsWith("-latency="))
+				file = args[i].substring("-latency=".length());
+		if (file!=null){
+			bus.setLatencyRecorder(new LatencyRecorder());
+			logger.log(Level.INFO, "recording the request latencies to "+file);
+		}
+		return file;
+	}
+	
+	/**
+	 * reads the -metrics flag that follows the input file name, sets the metrics in the message bus and serves them
+	 * @param args the command line arguments
+	 * @param bus the message bus of the simulation
+	 * @return the server of the metrics, null if they are not kept
+	 */
+	private static MetricsServer configureMetrics(String[] args, MessageBusImpl bus) throws IOException {
+		Integer port = null;
+		for(int i=1; i<args.length; i++)
+			if (args[i].startsWith("-metrics="))
+				port = Integer.parseInt(args[i].substring("-metrics=".length()));
+		if (port==null)
+			return null;
+		BusMetrics metrics = new BusMetrics(bus, true);
+		bus.setMetrics(metrics);
+		MetricsServer server = new MetricsServer(metrics, port);
+		logger.log(Level.INFO, "serving the metrics at http://localhost:"+server.getPort()+"/metrics");
+		return server;
+	}
+	
+	/**
+	 * reads the -wal flag that follows the input file name and starts logging the store
+	 * @param args the command line arguments
+	 * @param store the store of the simulation
+	 * @return the log of the store, null if it is not logged
+	 */
+	private static StoreLog configureLog(String[] args, Store store) throws IOException {
+		String[] params = null;
+		for(int i=1; i<args.length; i++)
+			if (args[i].startsWith("-wal="))
+				params = args[i].substring("-wal=".length()).split(":");
+		if (params==null)
+			return null;
+		if (params.length>2)
+			throw new IllegalArgumentException("Expecting -wal=dir[:snapshotSeconds]");
+		File dir = new File(params[0]);
+		if (StoreLog.exists(dir)) // the services would start over from the first tick with the store of another run
+			throw new IllegalArgumentException(dir+" already holds a store log, see it with ShoeStoreRunner -recover "+dir);
+		long snapshotMillis = params.length==2 ? Long.parseLong(params[1])*1000 : StoreLog.DEFAULT_SNAPSHOT_MILLIS;
+		logger.log(Level.INFO, "logging the store to "+dir+", a snapshot every "+snapshotMillis/1000+" seconds");
+		return StoreLog.open(dir, store, snapshotMillis);
+	}
+	
+	/**
+	 * reads the -checkpoint flag that follows the input file name and tells the timer when to write the checkpoint
+	 * @param args the command line arguments
+	 * @param timer the timer of the simulation
+	 * @param firstTick the first tick the timer sends
+	 */
+	private static void configureCheckpoint(String[] args, TimeService timer, int firstTick){
+		String[] params = null;
+		for(int i=1; i<args.length; i++)
+			if (args[i].startsWith("-checkpoint="))
+				params = args[i].substring("-checkpoint=".length()).split(":");
+		if (params==null)
+			return;
+		if (params.length<2 || params.length>3 || (params.length==3 && !params[2].equals("stop")))
+			throw new IllegalArgumentException("Expecting -checkpoint=tick:file[:stop]");
+		int tick = Integer.parseInt(params[0]);
+		if (tick<firstTick)
+			throw new IllegalArgumentException("cannot checkpoint tick "+tick+", the simulation starts at tick "+firstTick);
+		timer.setCheckpoint(tick, params[1], params.length==3);
+		logger.log(Level.INFO, "writing a checkpoint of tick "+tick+" to "+params[1]+(params.length==3 ? " and stopping" : ""));
+	}
+	
+	/**
+	 * logs and writes the latencies recorded during the simulation
+	 * @param file the csv file, null if the latencies were not recorded
+	 * @param bus the message bus of the simulation
+	 */
+	private static void reportLatency(String file, MessageBusImpl bus) throws IOException {
+		LatencyRecorder latency = bus.getLatencyRecorder();
+		if (file==null || latency==null)
+			return;
+		latency.print();
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			latency.write(out);
+		}
+	}
+	
+	/**
+	 * reads the -dispatch flags that follow the input file name and sets the matching dispatch policies in the message bus
+	 * @param args the command line arguments
+	 * @param bus the message bus of the simulation
+	 */
+	private static void configureDispatch(String[] args, MessageBusImpl bus){
+		HashMap<String,Class<? extends Request<?>>> types = new HashMap<String,Class<? extends Request<?>>>();
+		types.put("purchase", PurchaseOrderRequest.class);
+		types.put("restock", RestockRequest.class);
+		types.put("manufacturing", ManufacturingOrderRequest.class);
+		for(int i=1; i<args.length; i++){
+			if (!args[i].startsWith("-dispatch="))
+				continue;
+			String[] params = args[i].substring("-dispatch=".length()).split(":");
+			if (params.length!=2 || !types.containsKey(params[0]))
+				throw new IllegalArgumentException("Expecting -dispatch=request:policy, supported requests: "+types.keySet());
+			DispatchPolicy policy;
+			switch(params[1]){
+				case "roundrobin":
+					policy = RoundRobinDispatch.INSTANCE;
+					break;
+				case "leastloaded":
+					policy = new LeastLoadedDispatch();
+					break;
+				case "shoetype":
+					policy = shoeTypeDispatch(params[0]);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown dispatch policy "+params[1]+", supported policies: roundrobin, leastloaded, shoetype");
+			}
+			bus.setDispatchPolicy(types.get(params[0]), policy);
+			logger.log(Level.INFO, params[0]+" requests are dispatched by "+params[1]);
+		}
+	}
+	
+	// all three request types carry the shoe type they are about
+	private static DispatchPolicy shoeTypeDispatch(String request){
+		switch(request){
+			case "purchase":
+				return new KeyHashDispatch<PurchaseOrderRequest>(PurchaseOrderRequest::getShoeType);
+			case "restock":
+				return new KeyHashDispatch<RestockRequest>(RestockRequest::getShoeType);
+			default:
+				return new KeyHashDispatch<ManufacturingOrderRequest>(ManufacturingOrderRequest::getShoeType);
 		}
+	}
 		
-	}
\ No newline at end of file
+	}
@@ -0,0 +1,79 @@
+package bgu.spl.app;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.MicroServiceRuntime;
+import bgu.spl.mics.ThreadRuntime;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * a simulation context owns everything a single simulation shares: its message bus, its store and the runtime that
+ * runs its micro services. micro services get the context in their constructor and never use the singletons, so
+ * several simulations can run in the same JVM side by side (see ScenarioSweep).
+ * the default context wraps the singleton message bus and store, for code that was written before contexts existed.
+ *
+ * @param bus : the message bus the micro services of this simulation communicate through
+ * @param store : the store of this simulation
+ * @param runtime : runs the micro services started through this context
+ * @param services : every micro service that was started through this context
+ */
+public class SimulationContext {
+
+	private final MessageBusImpl bus;
+	private final Store store;
+	private final MicroServiceRuntime runtime;
+	private final ConcurrentLinkedQueue<MicroService> services;
+
+	/**
+	 * creates a new simulation with its own message bus and store
+	 * @param runtime runs the micro services of the new simulation
+	 */
+	public SimulationContext(MicroServiceRuntime runtime){
+		this(new MessageBusImpl(), new Store(), runtime);
+	}
+
+	private SimulationContext(MessageBusImpl bus, Store store, MicroServiceRuntime runtime){
+		this.bus = bus;
+		this.store = store;
+		this.runtime = runtime;
+		this.services = new ConcurrentLinkedQueue<MicroService>();
+	}
+
+	//singleton for the default context
+	private static class defaultHolder{
+		private static SimulationContext context = new SimulationContext(MessageBusImpl.MsgBusGetInstance(), Store.storeGetInstance(), new ThreadRuntime());
+	}
+
+	/**
+	 * @return the context of the singleton message bus and store
+	 */
+	public static SimulationContext getDefault(){
+		return defaultHolder.context;
+	}
+
+	/**
+	 * starts {@code m} on the runtime of this simulation
+	 * @param m a micro service that was created with this context
+	 */
+	public void start(MicroService m){
+		services.add(m);
+		runtime.start(m);
+	}
+
+	public MessageBusImpl getBus(){
+		return bus;
+	}
+
+	public Store getStore(){
+		return store;
+	}
+
+	public MicroServiceRuntime getRuntime(){
+		return runtime;
+	}
+
+	public Iterable<MicroService> getServices(){
+		return services;
+	}
+}
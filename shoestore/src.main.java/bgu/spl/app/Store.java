@@ -2,28 +2,36 @@ package bgu.spl.app;
 import bgu.spl.app.ShoeStorageInfo;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import bgu.spl.mics.EventLog;
+
 /**
  * the Store contains all information about the shoes in the store and the receipts of purchasing and ordering shoes
- * @param storage : a list of ShoeStorageInfo objects- each shoe has an amount and a discounted amount
- * @param receipt_list : a list of receipts of clients that purchased shoes and shoe orders of the manager from the factory 
+ * @param storage : the stock of every shoe type- each shoe has an amount and a discounted amount that change together
+ *                  without locking (see ShoeStock), so buying one shoe type never waits for another
+ * @param receipt_list : a journal of receipts of clients that purchased shoes and shoe orders of the manager from the factory,
+ *                       kept off the heap (see ReceiptJournal)
+ * @param sales : live sales figures, updated on every filed receipt
+ * @param log : the write ahead log every change is appended to, null unless the store is logged (see StoreLog)
  *
  */
 
 public class Store {
 	
-	private ConcurrentHashMap<String, ShoeStorageInfo> storage; 
-	private LinkedBlockingQueue<Receipt> receipt_list;	
+	private ConcurrentHashMap<String, ShoeStock> storage; 
+	private ReceiptJournal receipt_list;	
+	private SalesAggregates sales;
+	private volatile StoreLog log;
 	
-	private Store(){
-		storage = new ConcurrentHashMap<String, ShoeStorageInfo>();
-		receipt_list = new LinkedBlockingQueue<Receipt>();
+	public Store(){
+		storage = new ConcurrentHashMap<String, ShoeStock>();
+		receipt_list = new ReceiptJournal();
+		sales = new SalesAggregates();
 	}
 	
-	//singleton for constructor
+	//singleton for constructor (the store of the default simulation, see SimulationContext)
 	private static class storeSingletonHolder{
 		private static Store store = new Store();
 	}
@@ -48,7 +56,23 @@ public class Store {
 	//adds all items to the hash map for initialization 
 	public void load(ShoeStorageInfo[] storage){
 		for(int i=0; i<storage.length; i++)
-			this.storage.put(storage[i].getName(), storage[i]);
+			load(storage[i]);
+	}
+	
+	/**
+	 * adds a single shoe type to the store storage, like {@link #load(ShoeStorageInfo[])} (used while the storage is streamed from a file)
+	 * @param shoe the shoe type and its amounts
+	 */
+	public void load(ShoeStorageInfo shoe){
+		StoreLog l = log;
+		if (l==null){
+			storage.put(shoe.getName(), new ShoeStock(shoe.getName(), shoe.getAmount(), shoe.getDiscountAmount()));
+			return;
+		}
+		int id = l.intern(shoe.getName());
+		long index = l.claim();
+		storage.put(shoe.getName(), new ShoeStock(shoe.getName(), shoe.getAmount(), shoe.getDiscountAmount()));
+		l.loaded(index, id, shoe.getAmount(), shoe.getDiscountAmount());
 	}
 	
 	/**
@@ -66,36 +90,18 @@ public class Store {
 	*@return BuyResult: NOT_IN_STOCK/ NOT_ON_DISCOUNT/ REGULAR_PRICE/ DISCOUNTED_PRICE
 	 */
 	// attempts to take a shoe from storage, returns an ENUM result
-	public synchronized BuyResult take(String shoeType, boolean onlyDiscount){
-		if(!storage.containsKey(shoeType)) // shoe doesnt exist in hash map
+	public BuyResult take(String shoeType, boolean onlyDiscount){
+		ShoeStock shoe = storage.get(shoeType);
+		if(shoe==null) // shoe doesnt exist in hash map
 			return BuyResult.NOT_IN_STOCK;
-		
-		ShoeStorageInfo shoe = storage.get(shoeType); 
-		
-		if (shoe.getAmount()==0) // shoe amount = 0 
-			return BuyResult.NOT_IN_STOCK;
-		
-		if(shoe.getDiscountAmount()==0 && onlyDiscount) // client wants discount but not possible 
-			return BuyResult.NOT_ON_DISCOUNT;
-		
-		if(shoe.getDiscountAmount()>0){  // client gets discounted shoe 
-			int new_amount = storage.get(shoeType).getAmount()-1;
-			int new_discountAmount = storage.get(shoeType).getDiscountAmount()-1;
-			storage.get(shoeType).setAmount(new_amount);
-			storage.get(shoeType).setDiscounts(new_discountAmount);
-			if (storage.get(shoeType).getAmount()==0)
-				storage.remove(shoeType);
-			return BuyResult.DISCOUNTED_PRICE;
-		}
-		
-		else {				// client gets regular price shoe
-			int new_amount = storage.get(shoeType).getAmount()-1;
-			storage.get(shoeType).setAmount(new_amount);
-			if (storage.get(shoeType).getAmount()==0)
-				storage.remove(shoeType);
-			return BuyResult.REGULAR_PRICE;
-		}
-		
+		StoreLog l = log;
+		if (l==null)
+			return shoe.take(onlyDiscount);
+		int id = l.intern(shoeType);
+		long index = l.claim();
+		BuyResult result = shoe.take(onlyDiscount);
+		l.taken(index, id, result);
+		return result;
 	}
 	
 	/**
@@ -105,15 +111,15 @@ public class Store {
 	 */
 	// adds an amount of a single shoe type to storage
 	public void add(String shoeType, int amount){
-		if(!storage.containsKey(shoeType)){
-			ShoeStorageInfo new_shoe = new ShoeStorageInfo(shoeType, amount,0); 
-			storage.putIfAbsent(shoeType, new_shoe);
-		}
-		else{
-			int newamount = storage.get(shoeType).getAmount()+amount;
-			storage.get(shoeType).setAmount(newamount);
+		StoreLog l = log;
+		if (l==null){
+			storage.computeIfAbsent(shoeType, ShoeStock::new).add(amount);
+			return;
 		}
-			
+		int id = l.intern(shoeType);
+		long index = l.claim();
+		storage.computeIfAbsent(shoeType, ShoeStock::new).add(amount);
+		l.added(index, id, amount);
 	}
 	
 	/**
@@ -122,27 +128,27 @@ public class Store {
 	 * @param amount : how much to add
 	 */
 	public void addDiscount(String shoeType, int amount){
-		if (storage.containsKey(shoeType)){
-			int currAmount = storage.get(shoeType).getAmount();
-			int oldDiscount = storage.get(shoeType).getDiscountAmount();
-			int amountnotDiscounted = currAmount-oldDiscount;
-			if (amountnotDiscounted>=amount){
-				int finalAmount = oldDiscount+amount;
-				Logger.getLogger("logger").log(Level.INFO,"the manager announced of a discount for "+amount+" "+shoeType+"!!");
-				storage.get(shoeType).setDiscounts(finalAmount);
-			}
-			else if (amountnotDiscounted==0)
-				Logger.getLogger("logger").log(Level.INFO,"Manager announces: all "+shoeType+" are discounted");
-			else if (amountnotDiscounted!=0){ // the amount of shoes to discount is the rest of the shoes left that are not on discount
-				Logger.getLogger("logger").log(Level.INFO,"the manager announced of a discount for "+amountnotDiscounted+" "+shoeType+"!!");
-				storage.get(shoeType).setDiscounts(currAmount);
-			}
-			else if (currAmount==0){
-				Logger.getLogger("logger").log(Level.INFO,"Manager wanted to discount "+ shoeType+ " but it doesn't exist in storage");
-			}
+		ShoeStock shoe = storage.get(shoeType);
+		if (shoe==null || shoe.getAmount()==0){
+			EventLog.log(ShoeStoreEvent.DISCOUNT_NOT_IN_STORAGE, shoeType);
+			return;
+		}
+		int added;
+		StoreLog l = log;
+		if (l==null)
+			added = shoe.addDiscount(amount);
+		else {
+			int id = l.intern(shoeType);
+			long index = l.claim();
+			added = shoe.addDiscount(amount);
+			l.discounted(index, id, added);
 		}
-		else 
-			Logger.getLogger("logger").log(Level.INFO,"Manager sent a discount broadcast for "+ shoeType+ " but it doesn't exist in storage, sneaky guy");
+		if (added==amount)
+			EventLog.log(ShoeStoreEvent.DISCOUNT_ADDED, amount, shoeType);
+		else if (added==0)
+			EventLog.log(ShoeStoreEvent.ALL_DISCOUNTED, shoeType);
+		else // the amount of shoes to discount is the rest of the shoes left that are not on discount
+			EventLog.log(ShoeStoreEvent.DISCOUNT_ADDED, added, shoeType);
 	}
 	
 	/**
@@ -150,7 +156,65 @@ public class Store {
 	 * @param receipt : the receipt to add to the receipt_list
 	 */
 	public void file(Receipt receipt){
-		receipt_list.add(receipt);
+		StoreLog l = log;
+		if (l==null)
+			receipt_list.append(receipt);
+		else {
+			int seller = l.intern(receipt.getSeller());
+			int customer = l.intern(receipt.getSender());
+			int shoe = l.intern(receipt.getShoeType());
+			long index = l.claim();
+			receipt_list.append(receipt);
+			l.filed(index, seller, customer, shoe, receipt);
+		}
+		sales.record(receipt);
+	}
+	
+	/**
+	 * files a receipt that was read back from a store log, without logging it again
+	 */
+	void restore(Receipt receipt){
+		receipt_list.append(receipt);
+		sales.record(receipt);
+	}
+	
+	// every change of the store is logged to l from now on, or nothing if l is null (see StoreLog)
+	void setLog(StoreLog l){
+		log = l;
+	}
+	
+	Iterable<ShoeStock> getStocks(){
+		return storage.values();
+	}
+	
+	ReceiptJournal getJournal(){
+		return receipt_list;
+	}
+	
+	/**
+	 * @return the number of takes so far that lost the race for their shoe too many times and were combined with
+	 *         other takes of the same shoe (see ShoeStock), the contention on the storage
+	 */
+	public long getContendedTakes(){
+		long contended = 0;
+		for (ShoeStock stock : storage.values())
+			contended += stock.getCombinedTakes();
+		return contended;
+	}
+	
+	/**
+	 * @return the live sales figures of the store, they can be read while receipts are still filed
+	 */
+	public SalesAggregates getSales(){
+		return sales;
+	}
+	
+	/**
+	 * @return the receipts filed so far, in the order they were filed. the receipts are read back from the journal
+	 *         one at a time, so they should not be kept
+	 */
+	public Iterable<Receipt> getReceipts(){
+		return receipt_list;
 	}
 	
 	/**
@@ -159,17 +223,20 @@ public class Store {
 	• For each receipt filed in the store - all its fields Please print this information in a comperhansive and easy to follow format.
 	 */
 	public void print(){
+		EventLog.flush(); // the events logged so far come before the store
 		synchronized(System.out){
 			Logger.getLogger("logger").log(Level.INFO,"\n 			################################## Store storage ################################## \n");
-			for ( String shoeType : storage.keySet()){
-				ShoeStorageInfo shoe = storage.get(shoeType);
-				shoe.printInfo();
+			for (ShoeStock stock : storage.values()){
+				ShoeStorageInfo shoe = stock.getInfo();
+				if (shoe.getAmount()>0) // sold out shoes are kept (so take and add never race on removing them) but not shown
+					shoe.printInfo();
 			}
 			Logger.getLogger("logger").log(Level.INFO,"\n 			################################## Store Receipts ################################## \n");
 					Logger.getLogger("logger").log(Level.INFO,"			#######################       NUMBER OF RECEIPTS = "+receipt_list.size()+"       ########################");
 			for (Receipt curr_receipt : receipt_list){
 				 curr_receipt.printReceipt();
 			}
+			EventLog.flush(); // the receipts are logged through the event log too
 		}
 	}
 }
\ No newline at end of file
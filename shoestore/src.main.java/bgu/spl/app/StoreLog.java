@@ -0,0 +1,772 @@
+package bgu.spl.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import bgu.spl.app.Store.BuyResult;
+
+/**
+ * a write ahead log of a store, so its storage and receipts survive a crash (see {@link #open} and {@link #recover}).
+ * <p>
+ * every take, add, addDiscount and file of the store appends a compact binary record to an in memory ring, the same
+ * way receipts are appended to the ReceiptJournal: the caller claims the next record number with one compare and
+ * set, changes the store, writes its record and stamps its slot with the record number. unlike the journal a caller
+ * never waits for the callers before it, a single committer thread reads the slots in order up to the first one
+ * that is not stamped yet, writes those records to the current log file as one batch and forces it to the disk
+ * once per batch (group commit), so callers never wait for the disk unless the ring is full. a crash loses at most the records of the batch that
+ * was being written, a few milliseconds of work. a batch is written with its length and checksum, so a batch torn
+ * by the crash is recognized and dropped on recovery.
+ * <p>
+ * the storage records hold changes (one shoe less, n shoes more, n more on discount), not amounts, so records of
+ * the same shoe that raced each other give the same amounts in whatever order they are replayed.
+ * <p>
+ * every snapshotMillis the committer takes a snapshot: it stops new records for a moment, waits for the records
+ * that were claimed to be written, copies the storage table and the number of receipts, and lets the callers go
+ * on. it then starts a new log file and writes the names, the storage and the receipts filed so far into a
+ * snapshot file next to it. once the snapshot is on the disk the older files are deleted, so recovery reads the
+ * latest snapshot and the log files written after it. the batches of the log are checked and decoded in parallel,
+ * then applied in order.
+ * <p>
+ * shoe, seller and customer names are interned to int ids, a new name is logged once with its id.
+ *
+ * @param dir : the directory of the log files and snapshots
+ * @param store : the store that is logged
+ * @param snapshotMillis : the time between snapshots
+ * @param types, ints, strings : the ring of records that were not written to the log file yet
+ * @param claimed : the number of records callers started to write, the FROZEN bit is set while a snapshot is taken
+ *                  and the CLOSED bit once the log is closed
+ * @param stamps : the number of the record in every slot of the ring plus one, once the record is written
+ * @param committed : the number of records that are written to the log file and forced to the disk
+ * @param ids : the id of every interned name
+ * @param names : the name of every id
+ * @param nameCount : the number of interned names
+ * @param segment : the number of the current log file, the snapshot with the same number holds the state before it
+ * @param failure : the error that stopped the committer, if any
+ */
+public class StoreLog {
+
+	public static final long DEFAULT_SNAPSHOT_MILLIS = 60000;
+
+	private static final int RING_SHIFT = 16;
+	private static final int RING_RECORDS = 1<<RING_SHIFT;
+	private static final int RECORD_INTS = 6;
+	private static final long FROZEN = 1L<<62;
+	private static final long CLOSED = 1L<<61;
+	private static final long COUNT = ~(FROZEN|CLOSED);
+	private static final int MAGIC = 0x53544f52; // "STOR"
+	private static final int BATCH_HEADER = 8; // length and checksum
+
+	// record types
+	private static final byte NOOP = 0; // a take or discount that changed nothing, never written to the file
+	private static final byte NAME = 1; // id, name
+	private static final byte LOAD = 2; // shoe, amount, discounted amount
+	private static final byte TAKE = 3; // shoe, 1 if discounted
+	private static final byte ADD = 4; // shoe, amount
+	private static final byte DISCOUNT = 5; // shoe, amount
+	private static final byte FILE = 6; // seller, customer, shoe, issued tick, request tick, amount<<1 | discount
+
+	private final File dir;
+	private final Store store;
+	private final long snapshotMillis;
+	private final byte[] types;
+	private final int[] ints;
+	private final String[] strings;
+	private final AtomicLong claimed;
+	private final AtomicLongArray stamps;
+	private volatile long committed;
+	private final ConcurrentHashMap<String,Integer> ids;
+	private volatile String[] names;
+	private volatile int nameCount;
+	private int segment;
+	private FileChannel channel;
+	private ByteBuffer batch;
+	private final CRC32 crc;
+	private final Thread committer;
+	private volatile boolean closed;
+	private volatile IOException failure;
+
+	private StoreLog(File dir, Store store, long snapshotMillis){
+		this.dir = dir;
+		this.store = store;
+		this.snapshotMillis = snapshotMillis;
+		types = new byte[RING_RECORDS];
+		ints = new int[RING_RECORDS*RECORD_INTS];
+		strings = new String[RING_RECORDS];
+		claimed = new AtomicLong(0);
+		stamps = new AtomicLongArray(RING_RECORDS);
+		committed = 0;
+		ids = new ConcurrentHashMap<String,Integer>();
+		names = new String[16];
+		batch = ByteBuffer.allocate(1<<20);
+		crc = new CRC32();
+		committer = new Thread(this::commitLoop, "store-log");
+		committer.setDaemon(true);
+	}
+
+	/**
+	 * starts logging {@code store} to {@code dir}. if the directory holds the log of an earlier run, the store is
+	 * recovered from it first, so a crashed run can go on where it stopped.
+	 * @param dir the directory of the log, created if needed
+	 * @param store an empty store, or one that was only loaded with its initial storage
+	 * @param snapshotMillis the time between snapshots
+	 * @return the log, {@link #close()} it when the store is done
+	 */
+	public static StoreLog open(File dir, Store store, long snapshotMillis) throws IOException {
+		if (snapshotMillis<=0)
+			throw new IllegalArgumentException("expecting a snapshot interval > 0, instead received: "+snapshotMillis);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("cannot create the log directory "+dir);
+		TreeMap<Integer,File> logs = files(dir, "wal-", ".log");
+		TreeMap<Integer,File> snapshots = files(dir, "snapshot-", ".bin");
+		if (exists(dir))
+			recover(dir, store);
+		int last = Math.max(logs.isEmpty() ? 0 : logs.lastKey(), snapshots.isEmpty() ? 0 : snapshots.lastKey());
+
+		StoreLog log = new StoreLog(dir, store, snapshotMillis);
+		// nobody logs yet, so the whole store goes into the first snapshot
+		List<ShoeStorageInfo> stock = new ArrayList<ShoeStorageInfo>();
+		for (ShoeStock s : store.getStocks())
+			stock.add(s.getInfo());
+		long receipts = store.getJournal().size();
+		for (Receipt r : store.getReceipts()){
+			log.internQuietly(r.getSeller());
+			log.internQuietly(r.getSender());
+			log.internQuietly(r.getShoeType());
+		}
+		log.segment = last+1;
+		log.channel = log.openSegment(log.segment);
+		log.writeSnapshot(log.segment, log.names, log.nameCount, stock, receipts);
+		log.deleteBefore(log.segment);
+		store.setLog(log);
+		log.committer.start();
+		return log;
+	}
+
+	/**
+	 * @return true if {@code dir} holds a store log
+	 */
+	public static boolean exists(File dir){
+		return !files(dir, "wal-", ".log").isEmpty() || !files(dir, "snapshot-", ".bin").isEmpty();
+	}
+
+	/**
+	 * reads the latest snapshot in {@code dir} and the log written after it into a new store
+	 * @param dir a directory that holds a store log
+	 * @return the store as it was when the last complete batch was written
+	 */
+	public static Store recover(File dir) throws IOException {
+		Store store = new Store();
+		recover(dir, store);
+		return store;
+	}
+
+	/**
+	 * waits until everything that was logged before this call is on the disk
+	 */
+	public void sync() throws IOException {
+		long end = claimed.get() & COUNT;
+		while (committed<end){
+			checkFailure();
+			LockSupport.unpark(committer);
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	/**
+	 * stops logging the store, after everything that was logged is on the disk. a change that races with the close
+	 * is either logged or not logged at all
+	 */
+	public void close() throws IOException {
+		long c;
+		do {
+			c = claimed.get();
+		} while (!claimed.compareAndSet(c, c|CLOSED)); // no record is claimed after this
+		store.setLog(null);
+		awaitWritten(committed, c & COUNT); // callers that claimed their record before the log was closed
+		closed = true;
+		LockSupport.unpark(committer);
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		checkFailure();
+	}
+
+	// ---------------------------------------------------------------- appending, called by the store
+
+	/**
+	 * @return the id of {@code name}, logging it if it is new. call before {@link #claim()}, since a new name claims
+	 *         a record of its own
+	 */
+	int intern(String name){
+		Integer id = ids.get(name);
+		if (id!=null)
+			return id;
+		return ids.computeIfAbsent(name, n->newId(n, true));
+	}
+
+	private int internQuietly(String name){
+		return ids.computeIfAbsent(name, n->newId(n, false));
+	}
+
+	// called once per name, under the lock of the map bin. the name is counted before its record is claimed, so a
+	// snapshot never misses a name that a record before it uses
+	private int newId(String name, boolean logged){
+		int id;
+		synchronized(this){
+			id = nameCount;
+			String[] curr = names;
+			if (id==curr.length){
+				String[] next = new String[curr.length*2];
+				System.arraycopy(curr, 0, next, 0, curr.length);
+				curr = next;
+			}
+			curr[id] = name;
+			names = curr;
+			nameCount = id+1;
+		}
+		if (logged){
+			long index = claim();
+			if (index>=0)
+				strings[slot(index)] = name;
+			put(index, NAME, id, 0, 0, 0, 0, 0);
+		}
+		return id;
+	}
+
+	/**
+	 * claims the next record, waiting while a snapshot is taken or the ring is full
+	 * @return the number of the record, to be given to exactly one of the methods that write a record, or -1 if the
+	 *         log was closed since the caller got it, the change is then not logged
+	 */
+	long claim(){
+		while (true){
+			long c = claimed.get();
+			if ((c & CLOSED)!=0)
+				return -1;
+			if ((c & FROZEN)==0 && c-committed<RING_RECORDS){
+				if (claimed.compareAndSet(c, c+1))
+					return c;
+			}
+			else {
+				if (failure!=null)
+					throw new IllegalStateException("the store log failed", failure);
+				LockSupport.unpark(committer);
+				Thread.yield();
+			}
+		}
+	}
+
+	void loaded(long index, int shoe, int amount, int discountedAmount){
+		put(index, LOAD, shoe, amount, discountedAmount, 0, 0, 0);
+	}
+
+	void taken(long index, int shoe, BuyResult result){
+		switch(result){
+			case DISCOUNTED_PRICE:
+				put(index, TAKE, shoe, 1, 0, 0, 0, 0);
+				break;
+			case REGULAR_PRICE:
+				put(index, TAKE, shoe, 0, 0, 0, 0, 0);
+				break;
+			default:
+				put(index, NOOP, 0, 0, 0, 0, 0, 0);
+		}
+	}
+
+	void added(long index, int shoe, int amount){
+		put(index, ADD, shoe, amount, 0, 0, 0, 0);
+	}
+
+	void discounted(long index, int shoe, int amount){
+		put(index, amount>0 ? DISCOUNT : NOOP, shoe, amount, 0, 0, 0, 0);
+	}
+
+	void filed(long index, int seller, int customer, int shoe, Receipt r){
+		put(index, FILE, seller, customer, shoe, r.getIssuedTick(), r.getRequestTick(),
+				r.getAmountSold()<<1 | (r.isDiscount() ? 1 : 0));
+	}
+
+	private static int slot(long index){
+		return (int)index & (RING_RECORDS-1);
+	}
+
+	// writes the record and publishes it to the committer
+	private void put(long index, byte type, int a, int b, int c, int d, int e, int f){
+		if (index<0) // claimed after the log was closed
+			return;
+		int slot = slot(index);
+		types[slot] = type;
+		int i = slot*RECORD_INTS;
+		ints[i] = a;
+		ints[i+1] = b;
+		ints[i+2] = c;
+		ints[i+3] = d;
+		ints[i+4] = e;
+		ints[i+5] = f;
+		stamps.lazySet(slot, index+1); // publishes the record
+	}
+
+	private boolean isWritten(long index){
+		return stamps.get(slot(index))==index+1;
+	}
+
+	// the end of the written records from index on
+	private long written(long index){
+		while (isWritten(index))
+			index++;
+		return index;
+	}
+
+	// waits until the records [from, end) are written
+	private void awaitWritten(long from, long end){
+		for (long index=from; index<end; index++)
+			while (!isWritten(index))
+				Thread.yield();
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure!=null)
+			throw new IOException("the store log failed", failure);
+	}
+
+	// ---------------------------------------------------------------- the committer
+
+	private void commitLoop(){
+		long nextSnapshot = System.currentTimeMillis()+snapshotMillis;
+		try {
+			while (!closed){
+				long end = written(committed);
+				if (end>committed)
+					commit(end);
+				else
+					LockSupport.parkNanos(1000000);
+				if (System.currentTimeMillis()>=nextSnapshot){
+					snapshot();
+					nextSnapshot = System.currentTimeMillis()+snapshotMillis;
+				}
+			}
+			commit(written(committed));
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	// writes the records [committed, end) as one batch and forces them to the disk
+	private void commit(long end) throws IOException {
+		if (end<=committed)
+			return;
+		batch.clear();
+		batch.position(BATCH_HEADER);
+		for (long index=committed; index<end; index++){
+			int slot = slot(index);
+			int i = slot*RECORD_INTS;
+			byte type = types[slot];
+			switch(type){
+				case NAME:
+					byte[] name = strings[slot].getBytes(StandardCharsets.UTF_8);
+					strings[slot] = null;
+					ensure(9+name.length);
+					batch.put(type).putInt(ints[i]).putInt(name.length).put(name);
+					break;
+				case LOAD:
+					ensure(13);
+					batch.put(type).putInt(ints[i]).putInt(ints[i+1]).putInt(ints[i+2]);
+					break;
+				case TAKE:
+					ensure(6);
+					batch.put(type).putInt(ints[i]).put((byte)ints[i+1]);
+					break;
+				case ADD:
+				case DISCOUNT:
+					ensure(9);
+					batch.put(type).putInt(ints[i]).putInt(ints[i+1]);
+					break;
+				case FILE:
+					ensure(1+RECORD_INTS*4);
+					batch.put(type);
+					for (int k=0; k<RECORD_INTS; k++)
+						batch.putInt(ints[i+k]);
+					break;
+				default: // NOOP
+			}
+		}
+		int length = batch.position()-BATCH_HEADER;
+		if (length>0){
+			crc.reset();
+			crc.update(batch.array(), BATCH_HEADER, length);
+			batch.putInt(0, length);
+			batch.putInt(4, (int)crc.getValue());
+			batch.flip();
+			while (batch.hasRemaining())
+				channel.write(batch);
+			channel.force(false);
+		}
+		committed = end; // frees the slots of the ring
+	}
+
+	private void ensure(int bytes){
+		if (batch.remaining()>=bytes)
+			return;
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(batch.capacity()*2, batch.position()+bytes));
+		batch.flip();
+		bigger.put(batch);
+		batch = bigger;
+	}
+
+	// stops new records until the claimed ones are written, copies the state they led to and starts a new segment
+	private void snapshot() throws IOException {
+		long c;
+		do {
+			c = claimed.get();
+		} while (!claimed.compareAndSet(c, c|FROZEN));
+		long end = c & COUNT; // the log may be closed while the snapshot is taken
+		List<ShoeStorageInfo> stock = new ArrayList<ShoeStorageInfo>();
+		long receipts;
+		String[] n;
+		int count;
+		try {
+			awaitWritten(committed, end);
+			for (ShoeStock s : store.getStocks())
+				stock.add(s.getInfo());
+			receipts = store.getJournal().size();
+			count = nameCount; // before the array, which has room for every name counted
+			n = names;
+		}
+		finally {
+			claimed.getAndAdd(-FROZEN); // the callers go on while the snapshot is written, a CLOSED bit set meanwhile stays
+		}
+		commit(end);
+		channel.close();
+		segment++;
+		channel = openSegment(segment);
+		writeSnapshot(segment, n, count, stock, receipts);
+		deleteBefore(segment);
+	}
+
+	private FileChannel openSegment(int number) throws IOException {
+		@SuppressWarnings("resource") // closed with the channel
+		FileChannel ch = new RandomAccessFile(new File(dir, "wal-"+number+".log"), "rw").getChannel();
+		ch.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(MAGIC).putInt(number).flip();
+		while (header.hasRemaining())
+			ch.write(header);
+		ch.force(true);
+		return ch;
+	}
+
+	// the snapshot is written to a temporary file and renamed once it is on the disk, so it is complete or missing
+	private void writeSnapshot(int number, String[] n, int count, List<ShoeStorageInfo> stock, long receipts) throws IOException {
+		File tmp = new File(dir, "snapshot-"+number+".tmp");
+		try (FileOutputStream file = new FileOutputStream(tmp);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1<<16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(number);
+			out.writeInt(count);
+			for (int i=0; i<count; i++)
+				out.writeUTF(n[i]);
+			out.writeInt(stock.size());
+			for (ShoeStorageInfo shoe : stock){
+				out.writeUTF(shoe.getName());
+				out.writeInt(shoe.getAmount());
+				out.writeInt(shoe.getDiscountAmount());
+			}
+			out.writeLong(receipts);
+			ReceiptJournal journal = store.getJournal();
+			for (long i=0; i<receipts; i++){
+				Receipt r = journal.get(i);
+				out.writeInt(ids.get(r.getSeller()));
+				out.writeInt(ids.get(r.getSender()));
+				out.writeInt(ids.get(r.getShoeType()));
+				out.writeInt(r.getIssuedTick());
+				out.writeInt(r.getRequestTick());
+				out.writeInt(r.getAmountSold()<<1 | (r.isDiscount() ? 1 : 0));
+			}
+			out.writeInt(MAGIC);
+			out.flush();
+			file.getFD().sync();
+		}
+		File snapshot = new File(dir, "snapshot-"+number+".bin");
+		if (!tmp.renameTo(snapshot))
+			throw new IOException("cannot rename "+tmp+" to "+snapshot);
+	}
+
+	private void deleteBefore(int number){
+		for (File f : files(dir, "wal-", ".log").headMap(number).values())
+			f.delete();
+		for (File f : files(dir, "snapshot-", ".bin").headMap(number).values())
+			f.delete();
+		for (File f : files(dir, "snapshot-", ".tmp").headMap(number).values()) // a crash during a snapshot
+			f.delete();
+	}
+
+	// the files named prefix<number>suffix, by number
+	private static TreeMap<Integer,File> files(File dir, String prefix, String suffix){
+		TreeMap<Integer,File> files = new TreeMap<Integer,File>();
+		File[] all = dir.listFiles();
+		if (all==null)
+			return files;
+		for (File f : all){
+			String name = f.getName();
+			if (!name.startsWith(prefix) || !name.endsWith(suffix))
+				continue;
+			try {
+				files.put(Integer.parseInt(name.substring(prefix.length(), name.length()-suffix.length())), f);
+			} catch (NumberFormatException e) { // not ours
+			}
+		}
+		return files;
+	}
+
+	// ---------------------------------------------------------------- recovery
+
+	/**
+	 * the changes a batch makes to a single shoe: loaded is set if the batch loads the shoe, then amount and
+	 * discount are the amounts after the last load plus the changes after it
+	 */
+	private static class ShoeChange {
+		boolean loaded;
+		long amount;
+		long discount;
+	}
+
+	/**
+	 * a batch of the log, decoded on its own: the ids it refers to are resolved when it is applied
+	 */
+	private static class Batch {
+		final ByteBuffer bytes;
+		final int checksum;
+		boolean valid;
+		final HashMap<Integer,String> names = new HashMap<Integer,String>();
+		final HashMap<Integer,ShoeChange> shoes = new HashMap<Integer,ShoeChange>();
+		int[] receipts = new int[RECORD_INTS*16];
+		int receiptInts;
+
+		Batch(ByteBuffer bytes, int checksum){
+			this.bytes = bytes;
+			this.checksum = checksum;
+		}
+
+		ShoeChange shoe(int id){
+			ShoeChange change = shoes.get(id);
+			if (change==null){
+				change = new ShoeChange();
+				shoes.put(id, change);
+			}
+			return change;
+		}
+
+		// checks the batch and decodes its records, a torn or corrupt batch is left invalid
+		Batch decode(){
+			CRC32 crc = new CRC32();
+			crc.update(bytes.duplicate());
+			if ((int)crc.getValue()!=checksum)
+				return this;
+			ByteBuffer b = bytes.duplicate();
+			while (b.hasRemaining()){
+				byte type = b.get();
+				switch(type){
+					case NAME:
+						int id = b.getInt();
+						byte[] name = new byte[b.getInt()];
+						b.get(name);
+						names.put(id, new String(name, StandardCharsets.UTF_8));
+						break;
+					case LOAD:
+						ShoeChange loaded = shoe(b.getInt());
+						loaded.loaded = true;
+						loaded.amount = b.getInt();
+						loaded.discount = b.getInt();
+						break;
+					case TAKE:
+						ShoeChange taken = shoe(b.getInt());
+						taken.amount--;
+						if (b.get()==1)
+							taken.discount--;
+						break;
+					case ADD:
+						ShoeChange added = shoe(b.getInt());
+						added.amount += b.getInt();
+						break;
+					case DISCOUNT:
+						ShoeChange discounted = shoe(b.getInt());
+						discounted.discount += b.getInt();
+						break;
+					case FILE:
+						if (receiptInts==receipts.length){
+							int[] bigger = new int[receipts.length*2];
+							System.arraycopy(receipts, 0, bigger, 0, receiptInts);
+							receipts = bigger;
+						}
+						for (int k=0; k<RECORD_INTS; k++)
+							receipts[receiptInts++] = b.getInt();
+						break;
+					default:
+						return this; // not a record, the batch is not used
+				}
+			}
+			valid = true;
+			return this;
+		}
+	}
+
+	// recovers the log in dir into store
+	private static void recover(File dir, Store store) throws IOException {
+		TreeMap<Integer,File> snapshots = files(dir, "snapshot-", ".bin");
+		ArrayList<String> names = new ArrayList<String>();
+		HashMap<String,long[]> stock = new HashMap<String,long[]>(); // amount and discounted amount
+		int first = 0;
+		for (Map.Entry<Integer,File> snapshot : snapshots.descendingMap().entrySet()){
+			names.clear();
+			stock.clear();
+			Store candidate = new Store();
+			if (readSnapshot(snapshot.getValue(), snapshot.getKey(), names, stock, candidate)){
+				for (Receipt r : candidate.getReceipts())
+					store.restore(r);
+				first = snapshot.getKey();
+				break;
+			}
+		}
+
+		// the batches of every log file from the snapshot on, until the first torn one
+		List<Batch> batches = new ArrayList<Batch>();
+		List<FileChannel> open = new ArrayList<FileChannel>();
+		try {
+			for (File f : files(dir, "wal-", ".log").tailMap(first).values()){
+				@SuppressWarnings("resource") // closed below
+				FileChannel ch = new RandomAccessFile(f, "r").getChannel();
+				open.add(ch);
+				ByteBuffer log = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+				if (log.remaining()<8 || log.getInt()!=MAGIC)
+					break;
+				log.getInt(); // the segment number
+				boolean torn = false;
+				while (log.remaining()>=BATCH_HEADER){
+					int length = log.getInt();
+					int checksum = log.getInt();
+					if (length<=0 || length>log.remaining()){
+						torn = true;
+						break;
+					}
+					ByteBuffer bytes = log.slice();
+					bytes.limit(length);
+					log.position(log.position()+length);
+					batches.add(new Batch(bytes, checksum));
+				}
+				if (torn || log.hasRemaining())
+					break;
+			}
+
+			List<Callable<Batch>> tasks = new ArrayList<Callable<Batch>>();
+			for (Batch b : batches)
+				tasks.add(b::decode);
+			// invokeAll keeps the order of the batches, whatever order they are decoded in
+			for (Future<Batch> decoded : ForkJoinPool.commonPool().invokeAll(tasks)){
+				Batch b;
+				try {
+					b = decoded.get();
+				} catch (ExecutionException e) {
+					throw new IOException("cannot decode the store log", e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while recovering the store log");
+				}
+				if (!b.valid)
+					break; // the crash tore this batch, nothing after it was written completely
+				apply(b, names, stock, store);
+			}
+		} finally {
+			for (FileChannel ch : open)
+				ch.close();
+		}
+
+		for (Map.Entry<String,long[]> shoe : stock.entrySet())
+			store.load(new ShoeStorageInfo(shoe.getKey(), (int)shoe.getValue()[0], (int)shoe.getValue()[1]));
+	}
+
+	private static void apply(Batch b, ArrayList<String> names, HashMap<String,long[]> stock, Store store){
+		for (Map.Entry<Integer,String> name : b.names.entrySet()){
+			while (names.size()<=name.getKey())
+				names.add(null);
+			names.set(name.getKey(), name.getValue());
+		}
+		for (Map.Entry<Integer,ShoeChange> shoe : b.shoes.entrySet()){
+			ShoeChange change = shoe.getValue();
+			long[] amounts = stock.get(names.get(shoe.getKey()));
+			if (amounts==null){
+				amounts = new long[2];
+				stock.put(names.get(shoe.getKey()), amounts);
+			}
+			if (change.loaded){
+				amounts[0] = change.amount;
+				amounts[1] = change.discount;
+			}
+			else {
+				amounts[0] += change.amount;
+				amounts[1] += change.discount;
+			}
+		}
+		int[] r = b.receipts;
+		for (int i=0; i<b.receiptInts; i+=RECORD_INTS)
+			store.restore(new Receipt(names.get(r[i]), names.get(r[i+1]), names.get(r[i+2]), (r[i+5] & 1)==1,
+					r[i+3], r[i+4], r[i+5]>>1));
+	}
+
+	// reads a snapshot into names, stock and the receipts of store, returns false if it is not a complete snapshot
+	private static boolean readSnapshot(File f, int number, ArrayList<String> names, HashMap<String,long[]> stock, Store store) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1<<16))) {
+			if (in.readInt()!=MAGIC || in.readInt()!=number)
+				return false;
+			int count = in.readInt();
+			for (int i=0; i<count; i++)
+				names.add(in.readUTF());
+			int shoes = in.readInt();
+			for (int i=0; i<shoes; i++){
+				String name = in.readUTF();
+				stock.put(name, new long[]{in.readInt(), in.readInt()});
+			}
+			long receipts = in.readLong();
+			for (long i=0; i<receipts; i++){
+				String seller = names.get(in.readInt());
+				String customer = names.get(in.readInt());
+				String shoe = names.get(in.readInt());
+				int issued = in.readInt();
+				int requested = in.readInt();
+				int amountAndDiscount = in.readInt();
+				store.restore(new Receipt(seller, customer, shoe, (amountAndDiscount & 1)==1, issued, requested, amountAndDiscount>>1));
+			}
+			return in.readInt()==MAGIC;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+}
@@ -1,6 +1,11 @@
 package bgu.spl.app;
 
+import bgu.spl.mics.EventLog;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.MicroServiceRuntime;
+import bgu.spl.mics.impl.LatencyRecorder;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CountDownLatch;
@@ -19,17 +24,46 @@ import java.util.logging.Logger;
  *@param speed : the time between each interval of the timer task (which sends a tick broadcast)
  *@param duration : tick when program will terminate
  *@param current_tick : the current tick in the clock
+ *@param asFastAsPossible : if true the speed is ignored and every tick is sent as soon as all the messages of the
+ *							previous tick were handled (see MessageBusImpl.awaitQuiescence), so a run takes as long as
+ *							its work and the tick boundaries do not depend on the machine. a runtime that runs everything
+ *							on one thread sends the ticks itself whenever it is idle (see MicroServiceRuntime.whenIdle)
+ *@param checkpointTick, checkpointFile : a checkpoint of the simulation is written to the file once the tick was handled
+ *							(see Checkpoint), no checkpoint is written when the file is null
+ *@param stopAtCheckpoint : if true the simulation ends after the checkpoint is written, to be resumed from it later
+ *@param checkpointFailure : why the checkpoint could not be written, the simulation then ends at the checkpoint tick
  */
 
 public class TimeService extends MicroService {
 	private int speed;
 	private int duration;
 	private int current_tick;
+	private final boolean asFastAsPossible;
+	private final Store store;
+	private final MicroServiceRuntime runtime;
+	private final SimulationContext context;
+	private int checkpointTick;
+	private String checkpointFile;
+	private boolean stopAtCheckpoint;
+	private volatile IOException checkpointFailure;
+	private boolean tickedByRuntime;
 	
 	public TimeService(int duration, int speed, CountDownLatch c, CountDownLatch f){
-		super("timer",c,f);
+		this(duration,speed,SimulationContext.getDefault(),c,f);
+	}
+	
+	public TimeService(int duration, int speed, SimulationContext context, CountDownLatch c, CountDownLatch f){
+		this(duration,speed,false,context,c,f);
+	}
+	
+	public TimeService(int duration, int speed, boolean asFastAsPossible, SimulationContext context, CountDownLatch c, CountDownLatch f){
+		super("timer",context.getBus(),c,f);
+		this.store = context.getStore();
+		this.runtime = context.getRuntime();
+		this.context = context;
 		this.duration = duration;
 		this.speed=speed;
+		this.asFastAsPossible = asFastAsPossible;
 		current_tick=1;
 	}
 
@@ -45,6 +79,25 @@ public class TimeService extends MicroService {
 	public void setCurrTick(int t){
 		current_tick=t;
 	}
+
+	/**
+	 * writes a checkpoint of the simulation to {@code file} between {@code tick} and the tick after it, once every
+	 * message sent until then was handled
+	 * @param stop if true the simulation ends after the checkpoint instead of going on to its duration
+	 */
+	public void setCheckpoint(int tick, String file, boolean stop){
+		checkpointTick = tick;
+		checkpointFile = file;
+		stopAtCheckpoint = stop;
+	}
+
+	/**
+	 * @return why the checkpoint could not be written, or null if it was written or none was asked for. the
+	 *         simulation ended at the checkpoint tick instead of going on as if it was written
+	 */
+	public IOException getCheckpointFailure(){
+		return checkpointFailure;
+	}
 	
 	/**
 	 * initializing he will subscribe to its own ticks and when receives a tick thats bigger than the program duration he will terminate himself
@@ -57,33 +110,51 @@ public class TimeService extends MicroService {
 	protected void initialize(){
 		subscribeBroadcast(TickBroadcast.class,(tick_msg)->{
 			if (tick_msg.getTick()>duration){
+				// on a runtime that sends the ticks itself the timer shares the thread of everyone else and waiting
+				// would never end. it does not have to: the last tick was sent when every mailbox was empty and the
+				// timer was started last, so the others handled it and terminated before the timer got its turn
+				if (tickedByRuntime && finish.getCount()!=0)
+					throw new IllegalStateException(finish.getCount()+" micro-services did not terminate before the timer handled the last tick");
 				try {
 					finish.await();
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
 				terminate();
-				Store.storeGetInstance().print();
+				store.print();
+				getBus().printMailboxStats();
 			}
 		});
-		Logger.getLogger("logger").log(Level.INFO,"Timer started");
+		EventLog.log(ShoeStoreEvent.TIMER_STARTED);
 		try {
 			latchObject.await();
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
+		if (asFastAsPossible){
+			tickedByRuntime = runtime.whenIdle(this::sendNextTick); // a runtime that knows when everyone is idle sends the ticks itself
+			if (!tickedByRuntime)
+				new Thread(this::tickAsFastAsPossible, "clock").start(); // the event loop must stay free to handle our own ticks
+			return;
+		}
 		Timer time = new Timer();
 		time.scheduleAtFixedRate(new TimerTask(){  //NOTICE: scheduler receives 3 variables: timetask,time to begin, and interval time to perform the timetask
+			private long resumedAt; // when the last checkpoint was written
 			
 			//overriding the run for timetask to 
 			public void run(){
+				if (scheduledExecutionTime()<resumedAt)
+					return; // missed while the checkpoint was written, a fixed rate timer would send them in a burst
+				if (checkpointIfDue())
+					resumedAt = System.currentTimeMillis();
 				if (current_tick>duration){
-					Logger.getLogger("logger").log(Level.INFO,"The program's running time has come to end");
+					EventLog.log(ShoeStoreEvent.TIME_IS_UP);
 					sendBroadcast(new TickBroadcast(current_tick, false));
 					time.cancel();
 				}
 				else{
-					Logger.getLogger("logger").log(Level.INFO,"\n	################################## Tick "+current_tick+" ################################## \n");
+					EventLog.log(ShoeStoreEvent.TICK, current_tick);
+					latencyTick();
 					sendBroadcast(new TickBroadcast(current_tick, current_tick<=duration ));
 					setCurrTick(current_tick+1);
 				}
@@ -91,4 +162,72 @@ public class TimeService extends MicroService {
 			
 		},0,speed);  //END OF SCHEULER FUNCTION (0 = delay befor start, speed= interval time to perform the timetask
 	}
+	
+	/**
+	 * sends the ticks one after the other, each one once the micro services are done with the previous one
+	 */
+	private void tickAsFastAsPossible(){
+		try {
+			while (current_tick<=duration){
+				sendNextTick();
+				getBus().awaitQuiescence();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		sendNextTick(); // the last one is not waited for, the timer waits for everyone to terminate when it gets it
+	}
+	
+	// sends the next tick, the tick after the duration tells everyone to terminate and nothing is sent after it
+	private void sendNextTick(){
+		checkpointIfDue();
+		if (current_tick>duration+1)
+			return;
+		if (current_tick>duration){
+			EventLog.log(ShoeStoreEvent.TIME_IS_UP);
+			sendBroadcast(new TickBroadcast(current_tick, false));
+		}
+		else{
+			EventLog.log(ShoeStoreEvent.TICK, current_tick);
+			latencyTick();
+			sendBroadcast(new TickBroadcast(current_tick, true));
+		}
+		setCurrTick(current_tick+1);
+	}
+	
+	// writes the checkpoint before the tick after the checkpoint tick is sent, the tick waits for it. returns true
+	// if it was due
+	private boolean checkpointIfDue(){
+		if (checkpointFile==null || current_tick!=checkpointTick+1)
+			return false;
+		try {
+			getBus().awaitQuiescence();
+			Checkpoint.write(checkpointFile, context, current_tick, duration, speed);
+			EventLog.log(ShoeStoreEvent.CHECKPOINT_WRITTEN, checkpointTick, checkpointFile);
+			if (stopAtCheckpoint)
+				duration = checkpointTick; // the next tick tells everyone to terminate
+		} catch (IOException e) {
+			failCheckpoint(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failCheckpoint(new InterruptedIOException("interrupted while waiting to write the checkpoint"));
+		}
+		checkpointFile = null;
+		return true;
+	}
+
+	// a run that was asked for a checkpoint does not go on without it, it ends at the checkpoint tick and the
+	// runner reports why (see getCheckpointFailure)
+	private void failCheckpoint(IOException e){
+		Logger.getLogger("logger").log(Level.SEVERE, "the checkpoint of tick "+checkpointTick+" could not be written to "+checkpointFile+", ending the simulation", e);
+		checkpointFailure = e;
+		duration = checkpointTick;
+	}
+
+	// the requests sent from now on belong to the current tick, if the message bus records latencies
+	private void latencyTick(){
+		LatencyRecorder latency = getBus().getLatencyRecorder();
+		if (latency!=null)
+			latency.setTick(current_tick);
+	}
 }
@@ -1,14 +1,16 @@
 package bgu.spl.app;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.EventLog;
 import bgu.spl.mics.MicroService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 /**
  *This micro-service describes one client connected to the web-site. The WebsiteClientService expects
  * to get two lists as arguments to its constructor: purchaseSchedule: List<PurchaseSchedule>
@@ -21,33 +23,57 @@ import java.util.logging.Logger;
  * message.  If the client finish receiving all its purchases and have nothing in its
  * wishList it must immediately terminate.
  * 
- * @param purchaseSchedule is the list of PurchaseSchedule objects that he sends
+ * @param schedule holds the purchases that were not sent yet by their tick
  * @param wishList is a set of shoes that the client wishes to buy on discount
  * @param waiting_for_receipts is the amount of requests the client sent and is waiting to receive (from re stocks)
+ * @param purchases holds the purchase requests the client sent and did not get a result for yet
  */
-public class WebsiteClientService extends MicroService {
+public class WebsiteClientService extends MicroService implements Checkpoint.Service {
 	
 	private int curr_tick;
-	private LinkedBlockingQueue<PurchaseSchedule> purchaseSchedule;
+	private ScheduleWheel<PurchaseSchedule> schedule;
 	private Set<String> wishList;
 	AtomicInteger waiting_for_receipts; // count of orders requested (when =0 we terminate if no other future requests exist) 
+	private Set<PurchaseOrderRequest> purchases;
 	
 	public WebsiteClientService(String name, List<PurchaseSchedule> pur_list, Set<String> wish_list, CountDownLatch c,CountDownLatch f) {
-		super(name,c,f);
-		purchaseSchedule = new LinkedBlockingQueue<PurchaseSchedule>();
-		purchaseSchedule.addAll(pur_list);
+		this(name,pur_list,wish_list,SimulationContext.getDefault(),c,f);
+	}
+	
+	public WebsiteClientService(String name, List<PurchaseSchedule> pur_list, Set<String> wish_list, SimulationContext context, CountDownLatch c,CountDownLatch f) {
+		super(name,context.getBus(),c,f);
+		schedule = new ScheduleWheel<PurchaseSchedule>(PurchaseSchedule::getTick);
+		schedule.addAll(pur_list);
 		this.wishList = new HashSet<String>();
 		this.wishList.addAll(wish_list);
 		curr_tick=1;
 		waiting_for_receipts = new AtomicInteger(0);
+		purchases = ConcurrentHashMap.newKeySet();
 	}
 	
-	public WebsiteClientService(WebsiteClientService w, CountDownLatch c, CountDownLatch f){
-		super(w.getName(),c,f);
-		this.curr_tick=w.getCurr_tick();
-		this.purchaseSchedule=w.getPurchase_list();
-		this.wishList=w.getWish_list();
-		this.waiting_for_receipts = new AtomicInteger(0);
+	/**
+	 * the constructor of a client that is resumed from a checkpoint of the simulation {@code context} (see {@link #checkpoint}),
+	 * it waits again for the purchases it sent
+	 */
+	public WebsiteClientService(Checkpoint.Reader in, SimulationContext context, CountDownLatch c, CountDownLatch f) throws IOException {
+		super(in.readString(),context.getBus(),c,f);
+		curr_tick = in.readInt();
+		schedule = new ScheduleWheel<PurchaseSchedule>(PurchaseSchedule::getTick);
+		for (int i=in.readInt(); i>0; i--)
+			schedule.add(new PurchaseSchedule(in.readString(), in.readInt()));
+		wishList = new HashSet<String>();
+		for (int i=in.readInt(); i>0; i--)
+			wishList.add(in.readString());
+		waiting_for_receipts = new AtomicInteger(in.readInt());
+		purchases = ConcurrentHashMap.newKeySet();
+		for (int i=in.readInt(); i>0; i--){
+			PurchaseOrderRequest p = in.readRequest();
+			purchases.add(p);
+			if (p.wantsDiscount())
+				restoreRequest(p, receipt -> onWishPurchased(p, receipt));
+			else
+				restoreRequest(p, receipt -> onPurchased(p, receipt));
+		}
 	}
 
 	public int getCurr_tick() {
@@ -56,11 +82,7 @@ public class WebsiteClientService extends MicroService {
 
 	public LinkedBlockingQueue<PurchaseSchedule> getPurchase_list() {
 		LinkedBlockingQueue<PurchaseSchedule> newlist = new LinkedBlockingQueue<PurchaseSchedule>();
-		if (purchaseSchedule!=null){
-			for (PurchaseSchedule p : purchaseSchedule){
-				newlist.add(p);
-			}
-		}
+		newlist.addAll(schedule.pending());
 		return newlist;
 	}
 
@@ -84,93 +106,124 @@ public class WebsiteClientService extends MicroService {
 		
 		subscribeBroadcast(TickBroadcast.class, tick_msg -> { //subscribe to timer
 			if (!tick_msg.isRunning()){ //if reached duration time or minutes before termination=0
-				Logger.getLogger("logger").log(Level.INFO,getName()+ " is terminating ");
+				EventLog.log(ShoeStoreEvent.TERMINATING, getName());
 				terminate();
 			}
 			setTick(tick_msg.getTick());
 			
-			for (PurchaseSchedule curr_p : purchaseSchedule){ //RUN OVER LIST AND CHECK IF TICK = CURR TICK
-				
-				if (curr_p.getTick()==curr_tick){
-										
-					String shoeT = curr_p.getShoeType();
-					boolean success = sendRequest(new PurchaseOrderRequest(getName(),curr_tick,shoeT,1,false), receipt -> { //false= dont care about discount
-						if (receipt==null){
-							Logger.getLogger("logger").log(Level.INFO,getName()+ " tried to purchase "+shoeT+" but failed");
-							waiting_for_receipts.decrementAndGet();
-						}
-						else{
-							if (receipt.isDiscount())
-								wishList.remove(shoeT);
-							waiting_for_receipts.decrementAndGet();
-							receipt.printReceipt();
-						}
-					} );
-					if (success){ // someone received and handling his purchase request 
-						Logger.getLogger("logger").log(Level.INFO,getName()+ " sent a Purchase request for "+shoeT+ " and waiting for its completion" );	
-						waiting_for_receipts.incrementAndGet();
-					}
-					else{   // no one cares
-						Logger.getLogger("logger").log(Level.INFO,getName()+ "tried to send a Purchase request for "+shoeT+" but no one cares");
-						waiting_for_receipts.decrementAndGet();	
-					}
-					
-					boolean found=false;
-					if (purchaseSchedule!=null){
-						for (PurchaseSchedule pur_curr : purchaseSchedule){ //removes the item from the list
-							if (!found && pur_curr.getShoeType()==shoeT && pur_curr.getTick()==curr_tick){
-								purchaseSchedule.remove(pur_curr);
-								found=true;
-							}
-						}
-					}
+			for (PurchaseSchedule curr_p : schedule.advance(curr_tick)){ //ONLY THE PURCHASES OF THE CURRENT TICK
+									
+				String shoeT = curr_p.getShoeType();
+				PurchaseOrderRequest p = new PurchaseOrderRequest(getName(),curr_tick,shoeT,1,false); //false= dont care about discount
+				purchases.add(p);
+				boolean success = sendRequest(p, receipt -> onPurchased(p, receipt));
+				if (success){ // someone received and handling his purchase request 
+					EventLog.log(ShoeStoreEvent.PURCHASE_SENT, getName(), shoeT);	
+					waiting_for_receipts.incrementAndGet();
+				}
+				else{   // no one cares
+					EventLog.log(ShoeStoreEvent.PURCHASE_UNHANDLED, getName(), shoeT);
+					purchases.remove(p);
+					waiting_for_receipts.decrementAndGet();	
 				}
 			}
 			if (wishList==null || wishList.isEmpty())
-				if(purchaseSchedule==null || purchaseSchedule.isEmpty())
+				if(schedule.isEmpty())
 					if (waiting_for_receipts.get()==0)
 						terminate();
 			
 		});
 		
 		
-		// subscribe to discounts
-		subscribeBroadcast(NewDiscountBroadcast.class, disc_msg -> { //SUBSCRIBE TO DISCOUNTS			
+		// subscribe to discounts of the shoes in the wish list only
+		Callback<NewDiscountBroadcast> onDiscount = disc_msg -> { //SUBSCRIBE TO DISCOUNTS			
 			String shoe = disc_msg.getShoeType();
 			if (wishList.contains(shoe)){
 				wishList.remove(shoe);
-				Logger.getLogger("logger").log(Level.INFO,getName()+"'s wish has come true! "+ disc_msg.getShoeType()+" is on discount! she will try to buy it");
+				EventLog.log(ShoeStoreEvent.WISH_DISCOUNTED, getName(), shoe);
 				PurchaseOrderRequest p = new PurchaseOrderRequest(getName(),curr_tick,shoe,1,true);
 				
-				boolean success = sendRequest(p, receipt -> {
-					if (receipt==null){
-						wishList.add(shoe);
-						Logger.getLogger("logger").log(Level.INFO,getName()+ " tried to purchase with discounted price "+shoe+", but failed");
-						waiting_for_receipts.decrementAndGet();
-					}
-					else{ 
-							waiting_for_receipts.decrementAndGet();
-							receipt.printReceipt();
-					}
-				});
+				purchases.add(p);
+				boolean success = sendRequest(p, receipt -> onWishPurchased(p, receipt));
 				if (success){ // someone received and handling his purchase request 
 					waiting_for_receipts.incrementAndGet();
-					Logger.getLogger("logger").log(Level.INFO,getName()+ " sent a Purchase request for "+shoe+ " and waiting for its completion" );
+					EventLog.log(ShoeStoreEvent.PURCHASE_SENT, getName(), shoe);
 				}
 				else{ // no one cares
-					Logger.getLogger("logger").log(Level.INFO,getName()+ "tried to send a Purchase request for "+shoe+" but no one cares");
+					EventLog.log(ShoeStoreEvent.PURCHASE_UNHANDLED, getName(), shoe);
+					purchases.remove(p);
 					waiting_for_receipts.decrementAndGet();
 				}
-				boolean found=false;
-				for (PurchaseSchedule curr_p : purchaseSchedule){ //removes the item from the list
-					if (!found && curr_p.getShoeType()==shoe && curr_p.getTick()==curr_tick){
-						purchaseSchedule.remove(curr_p);
-						found=true;
-					}
-				}
 			}
-		});
+		};
+		Set<String> wishes = new HashSet<String>(wishList);
+		for (PurchaseOrderRequest p : purchases) // a wish that is being bought is not in the list, it is added back if the purchase fails
+			if (p.wantsDiscount())
+				wishes.add(p.getShoeType());
+		for (String wish : wishes)
+			subscribeBroadcast(NewDiscountBroadcast.class, wish, onDiscount);
 		latchObject.countDown();
 	}
+
+	/**
+	 * called when the purchase {@code p} of the schedule completes
+	 * @param receipt : the receipt of the purchase, null if it failed
+	 */
+	private void onPurchased(PurchaseOrderRequest p, Receipt receipt){
+		purchases.remove(p);
+		String shoeT = p.getShoeType();
+		if (receipt==null){
+			EventLog.log(ShoeStoreEvent.PURCHASE_FAILED, getName(), shoeT);
+			waiting_for_receipts.decrementAndGet();
+		}
+		else{
+			if (receipt.isDiscount()){
+				wishList.remove(shoeT);
+				unsubscribeBroadcast(NewDiscountBroadcast.class, shoeT);
+			}
+			waiting_for_receipts.decrementAndGet();
+			receipt.printReceipt();
+		}
+	}
+
+	/**
+	 * called when the purchase {@code p} of a discounted shoe of the wish list completes, the shoe goes back to the list if it failed
+	 * @param receipt : the receipt of the purchase, null if it failed
+	 */
+	private void onWishPurchased(PurchaseOrderRequest p, Receipt receipt){
+		purchases.remove(p);
+		String shoe = p.getShoeType();
+		if (receipt==null){
+			wishList.add(shoe);
+			EventLog.log(ShoeStoreEvent.DISCOUNTED_PURCHASE_FAILED, getName(), shoe);
+			waiting_for_receipts.decrementAndGet();
+		}
+		else{ 
+			unsubscribeBroadcast(NewDiscountBroadcast.class, shoe); // the wish came true
+			waiting_for_receipts.decrementAndGet();
+			receipt.printReceipt();
+		}
+	}
+
+	/**
+	 * writes the tick, the purchases that were not sent yet, the wish list and the purchases that were not completed yet
+	 */
+	@Override
+	public void checkpoint(Checkpoint.Writer out) throws IOException {
+		out.writeInt(curr_tick);
+		LinkedBlockingQueue<PurchaseSchedule> pending = getPurchase_list();
+		out.writeInt(pending.size());
+		for (PurchaseSchedule p : pending){
+			out.writeString(p.getShoeType());
+			out.writeInt(p.getTick());
+		}
+		out.writeInt(wishList.size());
+		for (String wish : wishList)
+			out.writeString(wish);
+		out.writeInt(waiting_for_receipts.get());
+		out.writeInt(purchases.size());
+		for (PurchaseOrderRequest p : purchases)
+			out.writeRequest(p);
+	}
 	
 }
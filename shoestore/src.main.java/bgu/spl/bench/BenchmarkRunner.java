@@ -0,0 +1,38 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * runs the JMH benchmarks once for every thread count given, the main class of the benchmarks jar
+ * (mvn -P bench package builds it as target/benchmarks.jar).
+ *
+ *	Usage: java -jar benchmarks.jar [-threads=1,2,4,8] [JMH options] [benchmark regexp ...]
+ *	-threads runs every selected benchmark with each of the given numbers of benchmark threads (default: 1), all
+ *	other arguments are JMH's own (see -h), e.g. java -jar benchmarks.jar -threads=1,4 -rf csv RequestRoundTrip
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		int[] threads = {1};
+		List<String> jmhArgs = new ArrayList<String>();
+		for (String arg : args){
+			if (arg.startsWith("-threads=")){
+				String[] counts = arg.substring("-threads=".length()).split(",");
+				threads = new int[counts.length];
+				for (int i=0; i<counts.length; i++)
+					threads[i] = Integer.parseInt(counts[i].trim());
+			}
+			else
+				jmhArgs.add(arg);
+		}
+		Options options = new CommandLineOptions(jmhArgs.toArray(new String[jmhArgs.size()]));
+		for (int t : threads)
+			new Runner(new OptionsBuilder().parent(options).threads(t).build()).run();
+	}
+}
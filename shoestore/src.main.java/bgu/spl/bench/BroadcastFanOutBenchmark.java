@@ -0,0 +1,73 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * sendBroadcast to every subscriber of a broadcast, like a tick reaching every micro service. the broadcast is
+ * taken from every subscriber's queue right after it is sent (as every event loop would), otherwise the queues
+ * grow until the benchmark runs out of memory, so an operation is the fan-out and the draining of one broadcast.
+ * with more benchmark threads, the broadcasts of the threads meet in the same queues.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastFanOutBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Subscribers {
+
+		@Param({"10", "1000", "100000"})
+		int subscribers;
+
+		MessageBusImpl bus;
+		Endpoint[] endpoints;
+
+		@Setup
+		public void setUp(){
+			bus = new MessageBusImpl();
+			endpoints = new Endpoint[subscribers];
+			for (int i=0; i<subscribers; i++){
+				endpoints[i] = new Endpoint("subscriber "+i, bus);
+				bus.register(endpoints[i]);
+				bus.subscribeBroadcast(Endpoint.Tick.class, endpoints[i]);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Batch {
+
+		ArrayList<Message> batch = new ArrayList<Message>();
+	}
+
+	@Benchmark
+	public int sendBroadcast(Subscribers s, Batch b){
+		s.bus.sendBroadcast(new Endpoint.Tick());
+		int received = 0;
+		for (Endpoint endpoint : s.endpoints){
+			int n = s.bus.drainMessages(endpoint, b.batch, Integer.MAX_VALUE);
+			s.bus.handled(endpoint, n);
+			received += n;
+			b.batch.clear();
+		}
+		return received;
+	}
+}
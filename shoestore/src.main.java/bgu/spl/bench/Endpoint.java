@@ -0,0 +1,67 @@
+package bgu.spl.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * the micro service the bus benchmarks send messages to and from. a plain endpoint only registers and subscribes
+ * through the bus directly, an echo endpoint runs its own event loop, completes every Ping with its value and
+ * terminates on Stop.
+ *
+ * @param echo : true if initialize subscribes to Ping and Stop
+ */
+class Endpoint extends MicroService {
+
+	/**
+	 * the request of the benchmarks, completed with its own value
+	 */
+	static final class Ping extends AbstractRequest<Integer> {
+
+		private final int value;
+
+		Ping(int value){
+			this.value = value;
+		}
+
+		int getValue(){
+			return value;
+		}
+	}
+
+	static final class Tick implements Broadcast {
+	}
+
+	static final class Stop implements Broadcast {
+	}
+
+	private final boolean echo;
+
+	/**
+	 * @param name the name of the endpoint
+	 * @param bus the bus of the benchmark
+	 * @param echo true for an endpoint that answers pings from its own event loop
+	 * @param ready counted down once an echo endpoint subscribed
+	 * @param finished counted down once an echo endpoint stopped
+	 */
+	Endpoint(String name, MessageBusImpl bus, boolean echo, CountDownLatch ready, CountDownLatch finished){
+		super(name, bus, ready, finished);
+		this.echo = echo;
+	}
+
+	Endpoint(String name, MessageBusImpl bus){
+		this(name, bus, false, new CountDownLatch(1), new CountDownLatch(1));
+	}
+
+	@Override
+	protected void initialize(){
+		if (!echo)
+			return;
+		subscribeRequest(Ping.class, ping -> complete(ping, ping.getValue()));
+		subscribeBroadcast(Stop.class, stop -> terminate());
+		latchObject.countDown();
+	}
+}
@@ -0,0 +1,90 @@
+package bgu.spl.bench;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * the latency of handing a message to a thread blocked in awaitMessage: a consumer thread waits on its queue and
+ * completes every ping it takes, the benchmark threads send a ping and wait for its completion. the consumer is
+ * parked whenever its queue is empty, so every sample pays the wake up, and with more benchmark threads the
+ * senders also contend on the consumer's queue. sampled, so the percentiles show the tail of the hand-off.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandOffBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Consumer {
+
+		MessageBusImpl bus;
+		Endpoint consumer;
+		Thread thread;
+
+		@Setup
+		public void setUp(){
+			bus = new MessageBusImpl();
+			consumer = new Endpoint("consumer", bus);
+			bus.register(consumer);
+			bus.subscribeRequest(Endpoint.Ping.class, consumer);
+			bus.subscribeBroadcast(Endpoint.Stop.class, consumer);
+			thread = new Thread(this::consume, "consumer");
+			thread.start();
+		}
+
+		private void consume(){
+			try {
+				while (true){
+					Message m = bus.awaitMessage(consumer);
+					bus.handled(consumer, 1);
+					if (m instanceof Endpoint.Stop)
+						return;
+					Endpoint.Ping ping = (Endpoint.Ping) m;
+					bus.complete(ping, ping.getValue());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@TearDown
+		public void tearDown() throws InterruptedException {
+			bus.sendBroadcast(new Endpoint.Stop());
+			thread.join();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Sender {
+
+		Endpoint sender;
+
+		@Setup
+		public void setUp(Consumer c){
+			sender = new Endpoint("sender", c.bus);
+			c.bus.register(sender);
+		}
+	}
+
+	@Benchmark
+	public int handOff(Consumer c, Sender s) throws InterruptedException, ExecutionException {
+		return c.bus.sendRequestAsync(new Endpoint.Ping(1), s.sender).get();
+	}
+}
@@ -0,0 +1,129 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.ThreadRuntime;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * sendRequest/complete round trips.
+ * <p>
+ * inline: every benchmark thread has a bus of its own and plays both sides, so this is the cost of the bus alone:
+ * dispatching the request, taking it from the handler's queue, completing it and taking the completion (with its
+ * callback) from the requester's queue.
+ * <p>
+ * eventLoop: the handlers are echo micro services running their own event loops on threads of their own, and the
+ * benchmark threads wait for the completion of every request, so this adds the hand-off to the handler's thread
+ * and back. the benchmark threads share the handlers, run it with more threads to see them contend.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestRoundTripBenchmark {
+
+	@State(Scope.Thread)
+	public static class Inline {
+
+		MessageBusImpl bus;
+		Endpoint requester;
+		Endpoint handler;
+		ArrayList<Message> batch;
+		Callback<Integer> onComplete;
+		int completed;
+
+		@Setup
+		public void setUp(){
+			bus = new MessageBusImpl();
+			requester = new Endpoint("requester", bus);
+			handler = new Endpoint("handler", bus);
+			bus.register(requester);
+			bus.register(handler);
+			bus.subscribeRequest(Endpoint.Ping.class, handler);
+			batch = new ArrayList<Message>();
+			onComplete = result -> completed += result;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class EventLoop {
+
+		@Param({"1", "4"})
+		int handlers;
+
+		MessageBusImpl bus;
+		CountDownLatch finished;
+
+		@Setup
+		public void setUp() throws InterruptedException {
+			bus = new MessageBusImpl();
+			CountDownLatch ready = new CountDownLatch(handlers);
+			finished = new CountDownLatch(handlers);
+			ThreadRuntime runtime = new ThreadRuntime();
+			for (int i=0; i<handlers; i++)
+				runtime.start(new Endpoint("handler "+i, bus, true, ready, finished));
+			ready.await();
+		}
+
+		@TearDown
+		public void tearDown() throws InterruptedException {
+			bus.sendBroadcast(new Endpoint.Stop());
+			finished.await();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Requester {
+
+		Endpoint requester;
+
+		@Setup
+		public void setUp(EventLoop loop){
+			requester = new Endpoint("requester", loop.bus);
+			loop.bus.register(requester);
+		}
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public int inline(Inline s){
+		Endpoint.Ping ping = new Endpoint.Ping(1);
+		s.bus.sendRequest(ping, s.requester, s.onComplete);
+		s.bus.drainMessages(s.handler, s.batch, 1);
+		Endpoint.Ping received = (Endpoint.Ping) s.batch.get(0);
+		s.bus.complete(received, received.getValue());
+		s.bus.handled(s.handler, 1);
+		s.batch.clear();
+		s.bus.drainMessages(s.requester, s.batch, 1);
+		RequestCompleted<Integer> done = (RequestCompleted<Integer>) s.batch.get(0);
+		done.getCallback().call(done.getResult());
+		s.bus.handled(s.requester, 1);
+		s.batch.clear();
+		return s.completed;
+	}
+
+	@Benchmark
+	public int eventLoop(EventLoop loop, Requester r) throws InterruptedException, ExecutionException {
+		return loop.bus.sendRequestAsync(new Endpoint.Ping(1), r.requester).get();
+	}
+}
@@ -0,0 +1,267 @@
+package bgu.spl.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import bgu.spl.app.Receipt;
+import bgu.spl.app.ShoeStorageInfo;
+import bgu.spl.app.Store;
+import bgu.spl.app.StoreLog;
+import bgu.spl.app.Store.BuyResult;
+
+/**
+ * the shared state every seller and the manager hit: taking, restocking and discounting shoes and filing receipts.
+ * the shoe types are picked uniformly (skew 0) or from a Zipf distribution of the given skew, where the first shoe
+ * type is the hottest, and every shoe starts with enough stock never to run out during a run.
+ * <p>
+ * every benchmark reports its throughput and contendedTakes, the takes that lost their race for a shoe and were
+ * combined with other takes (see Store.getContendedTakes). run with -prof gc for the allocation per operation,
+ * and with -threads=1,2,4,8 (see BenchmarkRunner) to see how the storage scales. with logged=true every change of
+ * the inventory is also appended to a write ahead log in a temporary directory (see StoreLog).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+
+	private static final int STOCK = 1<<30;
+	private static final int KEYS = 1<<16; // a power of 2
+
+	@State(Scope.Benchmark)
+	public static class Inventory {
+
+		@Param({"16", "1024"})
+		int shoeTypes;
+
+		@Param({"0", "0.99"})
+		double skew;
+
+		@Param({"false", "true"})
+		boolean logged;
+
+		Store store;
+		StoreLog log;
+		File dir;
+		String[] names;
+		double[] cumulative; // the cumulative distribution of the shoe types
+
+		@Setup
+		public void setUp() throws IOException {
+			Logger.getLogger("logger").setLevel(java.util.logging.Level.WARNING); // the store logs its discounts
+			store = new Store();
+			names = new String[shoeTypes];
+			cumulative = new double[shoeTypes];
+			double total = 0;
+			for (int i=0; i<shoeTypes; i++){
+				names[i] = "shoe-"+i;
+				store.load(new ShoeStorageInfo(names[i], STOCK, 0));
+				total += 1/Math.pow(i+1, skew);
+				cumulative[i] = total;
+			}
+			for (int i=0; i<shoeTypes; i++)
+				cumulative[i] /= total;
+			if (logged){
+				dir = Files.createTempDirectory("store-log").toFile();
+				log = StoreLog.open(dir, store, StoreLog.DEFAULT_SNAPSHOT_MILLIS);
+			}
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			if (log==null)
+				return;
+			log.close();
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+
+		int sample(Random random){
+			double u = random.nextDouble();
+			int low = 0;
+			int high = shoeTypes-1;
+			while (low<high){
+				int mid = (low+high)>>>1;
+				if (cumulative[mid]<u)
+					low = mid+1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * the shoe types a benchmark thread uses, drawn in advance so drawing them is not measured
+	 */
+	@State(Scope.Thread)
+	public static class Keys {
+
+		String[] keys;
+		int next;
+
+		@Setup
+		public void setUp(Inventory inventory, ThreadParams thread){
+			Random random = new Random(thread.getThreadIndex());
+			keys = new String[KEYS];
+			for (int i=0; i<KEYS; i++)
+				keys[i] = inventory.names[inventory.sample(random)];
+			next = 0;
+		}
+
+		String next(){
+			return keys[next++ & (KEYS-1)];
+		}
+	}
+
+	/**
+	 * the takes combined during an iteration, counted once (by the first benchmark thread) since they are counted
+	 * by the store
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Contention {
+
+		public long contendedTakes;
+		private boolean counts;
+		private Store store;
+		private long start;
+
+		@Setup(Level.Iteration)
+		public void start(Inventory inventory, ThreadParams thread){
+			counts = thread.getThreadIndex()==0;
+			store = inventory.store;
+			start = store.getContendedTakes();
+			contendedTakes = 0;
+		}
+
+		@TearDown(Level.Iteration)
+		public void stop(){
+			if (counts)
+				contendedTakes = store.getContendedTakes()-start;
+		}
+	}
+
+	/**
+	 * the share of writes in the mix benchmark, spread evenly over every 100 operations
+	 */
+	@State(Scope.Thread)
+	public static class Mix {
+
+		@Param({"0", "10", "50", "100"})
+		int writePercent;
+
+		boolean[] writes;
+		int next;
+		int written;
+
+		@Setup
+		public void setUp(){
+			writes = new boolean[100];
+			for (int i=0; i<100; i++)
+				writes[i] = (i+1)*writePercent/100 > i*writePercent/100;
+			next = 0;
+			written = 0;
+		}
+	}
+
+	/**
+	 * a purchase: takes a shoe at whatever price it has
+	 */
+	@Benchmark
+	public BuyResult take(Inventory inventory, Keys keys, Contention contention){
+		return inventory.store.take(keys.next(), false);
+	}
+
+	/**
+	 * reads and writes: a read is a wish list check (a take of a discounted shoe when no shoe is discounted, which
+	 * changes nothing), every other write takes a shoe and the others restock one, so the stock stays level
+	 */
+	@Benchmark
+	public BuyResult mix(Inventory inventory, Keys keys, Mix mix, Contention contention){
+		String shoe = keys.next();
+		if (!mix.writes[mix.next++%100])
+			return inventory.store.take(shoe, true);
+		if ((mix.written++ & 1)==0)
+			return inventory.store.take(shoe, false);
+		inventory.store.add(shoe, 1);
+		return null;
+	}
+
+	/**
+	 * a discount heavy workload: half the operations put a shoe on discount, the other half buy discounted shoes
+	 */
+	@Benchmark
+	public BuyResult discount(Inventory inventory, Keys keys, Contention contention){
+		String shoe = keys.next();
+		if ((keys.next & 1)==0){
+			inventory.store.addDiscount(shoe, 1);
+			return null;
+		}
+		return inventory.store.take(shoe, true);
+	}
+
+	/**
+	 * the receipts filed by the benchmark threads. the store is replaced every iteration, so the receipt journal
+	 * only holds the receipts of one iteration
+	 */
+	@State(Scope.Benchmark)
+	public static class Journal {
+
+		Store store;
+
+		@Setup(Level.Iteration)
+		public void setUp(){
+			store = new Store();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Receipts {
+
+		Receipt[] receipts;
+		int next;
+
+		@Setup
+		public void setUp(Inventory inventory, ThreadParams thread){
+			Random random = new Random(thread.getThreadIndex());
+			receipts = new Receipt[1024];
+			for (int i=0; i<receipts.length; i++){
+				String shoe = inventory.names[inventory.sample(random)];
+				receipts[i] = new Receipt("seller "+thread.getThreadIndex(), "customer "+random.nextInt(1000), shoe,
+						random.nextInt(4)==0, i, i, 1);
+			}
+			next = 0;
+		}
+	}
+
+	/**
+	 * files a receipt: appends it to the receipt journal and adds it to the sales figures
+	 */
+	@Benchmark
+	public void file(Journal journal, Receipts receipts){
+		journal.store.file(receipts.receipts[receipts.next++ & 1023]);
+	}
+}
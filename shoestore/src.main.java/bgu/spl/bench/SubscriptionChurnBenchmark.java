@@ -0,0 +1,60 @@
+package bgu.spl.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * a micro service coming and going: register, subscribe to a request and a broadcast, unregister. the lists it
+ * joins and leaves already hold {@code subscribers} other micro services, so this shows how the churn scales with
+ * the size of the subscriber lists (and, with more benchmark threads, how the churn of the threads contends).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionChurnBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Subscribers {
+
+		@Param({"10", "1000", "100000"})
+		int subscribers;
+
+		MessageBusImpl bus;
+
+		@Setup
+		public void setUp(){
+			bus = new MessageBusImpl();
+			for (int i=0; i<subscribers; i++){
+				Endpoint m = new Endpoint("subscriber "+i, bus);
+				bus.register(m);
+				bus.subscribeRequest(Endpoint.Ping.class, m);
+				bus.subscribeBroadcast(Endpoint.Tick.class, m);
+			}
+		}
+	}
+
+	@Benchmark
+	public Endpoint churn(Subscribers s){
+		Endpoint m = new Endpoint("churn", s.bus);
+		s.bus.register(m);
+		s.bus.subscribeRequest(Endpoint.Ping.class, m);
+		s.bus.subscribeBroadcast(Endpoint.Tick.class, m);
+		s.bus.unregister(m);
+		return m;
+	}
+}
@@ -0,0 +1,47 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import bgu.spl.mics.impl.PendingRequest;
+
+/**
+ * a request that carries its own completion slot while it is pending, so the message bus hands its result over
+ * without looking the request up anywhere: the slot is set when the request is sent and taken (exactly once) when
+ * it is completed. a request that is never completed takes its slot with it when it is garbage collected.
+ * requests that implement {@link Request} directly still work, the message bus keeps their slots in a table.
+ * <p>
+ * the slot methods are used by the message bus only.
+ *
+ * @param slot : the completion slot of the request while it is pending, null otherwise
+ */
+public abstract class AbstractRequest<R> implements Request<R> {
+
+	@SuppressWarnings("rawtypes") // a field updater cannot name the parameterized type of the field
+	private static final AtomicReferenceFieldUpdater<AbstractRequest,PendingRequest> SLOT =
+			AtomicReferenceFieldUpdater.newUpdater(AbstractRequest.class, PendingRequest.class, "slot");
+
+	private volatile PendingRequest<R> slot;
+
+	/**
+	 * sets the completion slot, before the request is added to its handler's queue
+	 */
+	public final void setSlot(PendingRequest<R> pending){
+		slot = pending;
+	}
+
+	/**
+	 * @return the completion slot, null if the request is not pending
+	 */
+	public final PendingRequest<R> getSlot(){
+		return slot;
+	}
+
+	/**
+	 * takes the completion slot, only one of the callers that race for it gets it
+	 * @return the completion slot, null if the request is not pending or someone else took it
+	 */
+	@SuppressWarnings("unchecked")
+	public final PendingRequest<R> takeSlot(){
+		return slot==null ? null : (PendingRequest<R>) SLOT.getAndSet(this, null);
+	}
+}
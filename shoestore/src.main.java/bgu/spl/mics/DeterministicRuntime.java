@@ -0,0 +1,136 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+
+import bgu.spl.mics.impl.Mailbox;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * A runtime that runs all the micro-services cooperatively on a single
+ * thread - the thread that calls {@link #shutdown()}. The micro-services are
+ * visited in the order they were started, each one handles up to
+ * {@link #SLICE} messages of its message-queue and then the next one gets its
+ * turn. When a whole round finds nothing to handle, the idle step (see
+ * {@link #whenIdle(Runnable)}) is run, which is where the timer sends its next
+ * tick.
+ * <p>
+ * Since nothing runs concurrently, the order in which messages are sent and
+ * handled only depends on the input, so the same input always gives the same
+ * receipts. There is also no locking contention and no thread is ever
+ * parked, which makes this the fastest runtime for small and medium
+ * simulations.
+ * <p>
+ * Callbacks must never block - a blocked callback blocks the whole
+ * simulation, so mailboxes with the {@link Mailbox.Overflow#BLOCK} overflow
+ * are refused. A micro-service that waits for the others (like the timer at
+ * the end) must be started last, so it gets its turn after they did: the idle
+ * step only runs when every mailbox is empty, so a message it sends is handled
+ * by all the others earlier in the same round. The micro-service that sets the
+ * idle step is therefore the last one that may be started.
+ */
+public class DeterministicRuntime implements MicroServiceRuntime {
+
+    /**
+     * how many messages a micro-service handles before the next micro-service
+     * gets its turn.
+     */
+    public static final int SLICE = 64;
+
+    private final ArrayList<MicroService> services;
+    private final ArrayList<Message> batch;
+    private Runnable idleStep;
+
+    public DeterministicRuntime() {
+        services = new ArrayList<MicroService>();
+        batch = new ArrayList<Message>(SLICE);
+        idleStep = null;
+    }
+
+    /**
+     * registers {@code m} and calls its initialize method right away, on the
+     * calling thread. its messages are handled once {@link #shutdown()} is
+     * called.
+     *
+     * @throws IllegalStateException    if the idle step was set already
+     * @throws IllegalArgumentException if the mailboxes of {@code m}'s class
+     *                                  block their senders when they are full
+     */
+    @Override
+    public void start(MicroService m) {
+        if (idleStep != null) {
+            throw new IllegalStateException(m.getName() + " was started after the micro-service that sends the ticks, which must be started last");
+        }
+        Mailbox.Policy policy = m.getBus().getMailboxPolicy(m.getClass());
+        if (policy.isBounded() && policy.getOverflow() == Mailbox.Overflow.BLOCK) {
+            throw new IllegalArgumentException("a sender blocked on the full mailbox of " + m.getName() + " would block the only thread, use the reject or spill overflow");
+        }
+        services.add(m);
+        m.start();
+    }
+
+    /**
+     * runs the simulation on the calling thread and returns once all the
+     * micro-services have terminated.
+     *
+     * @throws IllegalStateException if the micro-services are still running
+     *                               but have nothing to do and there is no
+     *                               idle step that gives them work
+     */
+    @Override
+    public void shutdown() {
+        int alive = services.size();
+        while (alive > 0) {
+            boolean handled = false;
+            for (int i = 0; i < services.size(); i++) {
+                MicroService service = services.get(i);
+                if (service == null) { // terminated
+                    continue;
+                }
+                MessageBusImpl bus = service.getBus();
+                bus.drainMessages(service, batch, SLICE);
+                handled |= !batch.isEmpty();
+                int j = 0;
+                while (j < batch.size() && !service.isTerminated()) {
+                    service.handle(batch.get(j++));
+                }
+                bus.handled(service, batch, j);
+                batch.clear();
+                if (service.isTerminated()) {
+                    service.stop();
+                    services.set(i, null);
+                    alive--;
+                }
+            }
+            if (!handled && alive > 0) {
+                if (idleStep == null) {
+                    throw new IllegalStateException(alive + " micro-services are waiting for messages that will never be sent");
+                }
+                idleStep.run();
+                if (!hasMessages()) {
+                    throw new IllegalStateException(alive + " micro-services are still running after the idle step sent nothing");
+                }
+            }
+        }
+        services.clear();
+    }
+
+    private boolean hasMessages() {
+        for (MicroService service : services) {
+            if (service != null && service.getBus().hasMessages(service)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * sets the step to run whenever none of the micro-services has a message
+     * to handle.
+     */
+    @Override
+    public boolean whenIdle(Runnable step) {
+        idleStep = step;
+        return true;
+    }
+
+}
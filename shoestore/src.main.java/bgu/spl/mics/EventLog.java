@@ -0,0 +1,353 @@
+package bgu.spl.mics;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * An asynchronous log for the hot paths of the micro-services. Instead of
+ * building a message and logging it on the calling thread, a caller logs a
+ * typed {@link Event} with up to three object arguments and three int
+ * arguments. The event and its arguments are copied into a ring buffer owned
+ * by the calling thread - no message is built, no lock is taken and nothing
+ * is allocated once the ring has grown to fit - and a single background
+ * thread formats the events and hands them to the "logger" logger, so its
+ * handlers only see one thread.
+ * <p>
+ * An event whose level is not loggable by the "logger" logger costs one level
+ * check. The events of a thread are written in the order it logged them; the
+ * events of different threads are written in no particular order, just as
+ * when they raced for the handler, but the sequence number of every record is
+ * the {@link System#nanoTime()} at which it was logged, so sorting by it gives
+ * the order the events happened in across threads. When a ring of the maximum
+ * size is full, its thread waits for the background thread to make room, so
+ * no event is ever dropped.
+ * <p>
+ * The background thread backs off while there is nothing to write, up to
+ * {@link #MAX_IDLE_MILLIS}, and the first event logged while it sleeps wakes
+ * it up. The ring of a thread that terminated is dropped once it is drained.
+ * <p>
+ * Callers that write to the logger directly (like the final store print)
+ * should call {@link #flush()} first, so their output comes after everything
+ * that was logged before it.
+ */
+public final class EventLog {
+
+    /**
+     * A kind of event. The format is the message with a {@code %s} for each
+     * object argument and a {@code %d} for each int argument, objects and ints
+     * are each taken in the order they were passed.
+     */
+    public interface Event {
+
+        Level getLevel();
+
+        /**
+         * @return the class name reported as the source of the event.
+         */
+        String getSource();
+
+        String getFormat();
+    }
+
+    /**
+     * the number of events a new ring holds. A ring that fills up is replaced
+     * by one twice its size, up to {@link #MAX_CAPACITY}, so threads that
+     * rarely log keep a small ring.
+     */
+    public static final int INITIAL_CAPACITY = 1 << 4;
+    public static final int MAX_CAPACITY = 1 << 10;
+
+    /**
+     * the longest the background thread sleeps when there is nothing to
+     * write. An event that races with the thread falling asleep may miss the
+     * wake-up and wait this long.
+     */
+    public static final int MAX_IDLE_MILLIS = 64;
+
+    private static final Logger LOGGER = Logger.getLogger("logger");
+
+    private static final ThreadLocal<Ring> RING = ThreadLocal.withInitial(() -> Writer.INSTANCE.register(Thread.currentThread()));
+
+    private EventLog() {
+    }
+
+    /**
+     * @return true if events of {@code level} are written at all.
+     */
+    public static boolean isEnabled(Level level) {
+        return LOGGER.isLoggable(level);
+    }
+
+    public static void log(Event e) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, null, null, null, 0, 0, 0);
+        }
+    }
+
+    public static void log(Event e, int i) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, null, null, null, i, 0, 0);
+        }
+    }
+
+    public static void log(Event e, Object a) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, a, null, null, 0, 0, 0);
+        }
+    }
+
+    public static void log(Event e, Object a, Object b) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, a, b, null, 0, 0, 0);
+        }
+    }
+
+    public static void log(Event e, Object a, Object b, Object c) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, a, b, c, 0, 0, 0);
+        }
+    }
+
+    public static void log(Event e, int i, Object a) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, a, null, null, i, 0, 0);
+        }
+    }
+
+    public static void log(Event e, Object a, int i, Object b) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, a, b, null, i, 0, 0);
+        }
+    }
+
+    public static void log(Event e, Object a, Object b, Object c, int i, int j, int k) {
+        if (LOGGER.isLoggable(e.getLevel())) {
+            put(e, a, b, c, i, j, k);
+        }
+    }
+
+    private static void put(Event e, Object a, Object b, Object c, int i, int j, int k) {
+        Ring ring = RING.get();
+        if (ring.isFull()) {
+            ring = ring.grow();
+        }
+        ring.put(e, a, b, c, i, j, k);
+        Writer.INSTANCE.wakeUpIfIdle();
+    }
+
+    /**
+     * waits until every event logged before this call was written to the
+     * logger.
+     */
+    public static void flush() {
+        Writer.INSTANCE.flush();
+    }
+
+    /**
+     * A single producer single consumer ring of events: its thread writes
+     * slots and publishes them by moving {@code head}, the writer thread reads
+     * them and frees them by moving {@code tail}. Once its thread moved on to
+     * a bigger ring, {@code next} points to it and nothing is written to this
+     * ring anymore.
+     */
+    private static final class Ring {
+
+        private final Thread owner;
+        private final int mask;
+        private final Event[] events;
+        private final Object[] objects;
+        private final int[] ints;
+        private final long[] nanos;
+        private final AtomicLong head;
+        private final AtomicLong tail;
+        private volatile Ring next;
+
+        private Ring(Thread owner, int capacity) {
+            this.owner = owner;
+            mask = capacity - 1;
+            events = new Event[capacity];
+            objects = new Object[capacity * 3];
+            ints = new int[capacity * 3];
+            nanos = new long[capacity];
+            head = new AtomicLong();
+            tail = new AtomicLong();
+            next = null;
+        }
+
+        private boolean isFull() {
+            return head.get() - tail.get() > mask;
+        }
+
+        /**
+         * called by the owner when this ring is full: moves it to a ring twice
+         * as big, or waits for room if this ring is as big as it gets.
+         *
+         * @return the ring to write to
+         */
+        private Ring grow() {
+            if (events.length < MAX_CAPACITY) {
+                Ring bigger = new Ring(owner, events.length * 2);
+                next = bigger; // everything this ring holds was published before
+                RING.set(bigger);
+                return bigger;
+            }
+            while (isFull()) {
+                Writer.INSTANCE.wakeUp();
+                Thread.yield();
+            }
+            return this;
+        }
+
+        private void put(Event e, Object a, Object b, Object c, int i, int j, int k) {
+            long h = head.get();
+            int slot = (int) h & mask;
+            events[slot] = e;
+            objects[slot * 3] = a;
+            objects[slot * 3 + 1] = b;
+            objects[slot * 3 + 2] = c;
+            ints[slot * 3] = i;
+            ints[slot * 3 + 1] = j;
+            ints[slot * 3 + 2] = k;
+            nanos[slot] = System.nanoTime();
+            head.lazySet(h + 1); // publishes the slot
+        }
+
+        /**
+         * writes every published event, returns how many there were.
+         */
+        private int drain(StringBuilder message) {
+            long t = tail.get();
+            long h = head.get();
+            for (long n = t; n < h; n++) {
+                int slot = (int) n & mask;
+                Event e = events[slot];
+                message.setLength(0);
+                format(e.getFormat(), objects, slot * 3, ints, slot * 3, message);
+                LogRecord record = new LogRecord(e.getLevel(), message.toString());
+                record.setLoggerName(LOGGER.getName());
+                record.setSourceClassName(e.getSource());
+                record.setMillis(Writer.BASE_MILLIS + (nanos[slot] - Writer.BASE_NANOS) / 1000000);
+                record.setSequenceNumber(nanos[slot]);
+                LOGGER.log(record);
+                events[slot] = null; // the arguments can be collected
+                objects[slot * 3] = null;
+                objects[slot * 3 + 1] = null;
+                objects[slot * 3 + 2] = null;
+            }
+            tail.lazySet(h); // frees the slots
+            return (int) (h - t);
+        }
+    }
+
+    private static void format(String format, Object[] objects, int object, int[] ints, int i, StringBuilder out) {
+        int length = format.length();
+        for (int k = 0; k < length; k++) {
+            char ch = format.charAt(k);
+            if (ch == '%' && k + 1 < length) {
+                char kind = format.charAt(k + 1);
+                if (kind == 's') {
+                    out.append(objects[object++]);
+                    k++;
+                    continue;
+                }
+                if (kind == 'd') {
+                    out.append(ints[i++]);
+                    k++;
+                    continue;
+                }
+            }
+            out.append(ch);
+        }
+    }
+
+    /**
+     * The background thread that writes the events of all the rings, started
+     * by the first event logged.
+     */
+    private static final class Writer implements Runnable {
+
+        // the wall clock time of an event is taken from its nanoTime, one clock read per event
+        private static final long BASE_MILLIS = System.currentTimeMillis();
+        private static final long BASE_NANOS = System.nanoTime();
+        private static final long MIN_IDLE_NANOS = 1000000;
+
+        private static final Writer INSTANCE = new Writer();
+
+        private final ConcurrentLinkedQueue<Ring> rings;
+        private final Thread thread;
+        private volatile boolean idle;
+
+        private Writer() {
+            rings = new ConcurrentLinkedQueue<Ring>();
+            thread = new Thread(this, "event-log");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private Ring register(Thread owner) {
+            Ring ring = new Ring(owner, INITIAL_CAPACITY);
+            rings.add(ring);
+            return ring;
+        }
+
+        private void wakeUp() {
+            LockSupport.unpark(thread);
+        }
+
+        // a volatile read on every event, the unpark only when the writer sleeps
+        private void wakeUpIfIdle() {
+            if (idle) {
+                idle = false;
+                wakeUp();
+            }
+        }
+
+        @Override
+        public void run() {
+            StringBuilder message = new StringBuilder();
+            long sleep = MIN_IDLE_NANOS;
+            while (true) {
+                int written = 0;
+                for (Iterator<Ring> it = rings.iterator(); it.hasNext();) {
+                    Ring ring = it.next();
+                    Ring next = ring.next; // checked before draining, so nothing logged to this ring is missed
+                    int drained = ring.drain(message);
+                    written += drained;
+                    if (next != null) {
+                        rings.add(next); // before the removal, so a flush never misses both
+                        it.remove();
+                    } else if (drained == 0 && !ring.owner.isAlive()) {
+                        // whatever the owner logged before it terminated is visible now
+                        written += ring.drain(message);
+                        it.remove();
+                    }
+                }
+                if (written > 0) {
+                    sleep = MIN_IDLE_NANOS;
+                    continue;
+                }
+                idle = true;
+                LockSupport.parkNanos(sleep);
+                idle = false;
+                sleep = Math.min(sleep * 2, MAX_IDLE_MILLIS * 1000000L);
+            }
+        }
+
+        private void flush() {
+            for (Ring first : rings) {
+                for (Ring ring = first; ring != null; ring = ring.next) {
+                    long h = ring.head.get();
+                    while (ring.tail.get() < h) {
+                        wakeUp();
+                        LockSupport.parkNanos(100000);
+                    }
+                }
+            }
+        }
+    }
+}
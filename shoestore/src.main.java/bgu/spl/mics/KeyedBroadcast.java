@@ -0,0 +1,18 @@
+package bgu.spl.mics;
+
+/**
+ * A {@link Broadcast} that carries a key. Besides the subscribers of its type,
+ * it is received by the micro-services that subscribed to its type together
+ * with its key (see
+ * {@link MessageBus#subscribeBroadcast(java.lang.Class, java.lang.Object, bgu.spl.mics.MicroService)}),
+ * so a micro-service that is interested only in some of the broadcasts of a
+ * type is not woken up by all of them.
+ */
+public interface KeyedBroadcast extends Broadcast {
+
+    /**
+     * @return the key of this broadcast, compared using {@code equals}
+     */
+    Object getKey();
+
+}
@@ -1,5 +1,8 @@
 package bgu.spl.mics;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * The message-bus is a shared object used for communication between
  * micro-services.
@@ -19,12 +22,39 @@ public interface MessageBus {
 
     /**
      * subscribes {@code m} to receive {@link Broadcast}s of type {@code type}.
+     * A micro-service receives each broadcast at most once, so it subscribes
+     * to a {@link KeyedBroadcast} type either as a whole or by key, not both.
      * <p>
      * @param type the type to subscribe to
      * @param m    the subscribing micro-service
+     * @throws IllegalStateException if {@code m} is subscribed to some key of
+     *                               {@code type}
      */
     void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m);
 
+    /**
+     * subscribes {@code m} to receive only the {@link KeyedBroadcast}s of type
+     * {@code type} whose key equals {@code key}.
+     * <p>
+     * @param type the type to subscribe to
+     * @param key  the key of the broadcasts to receive
+     * @param m    the subscribing micro-service
+     * @throws IllegalStateException if {@code m} is subscribed to all the
+     *                               broadcasts of type {@code type}
+     */
+    void subscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m);
+
+    /**
+     * cancels the subscription of {@code m} to the broadcasts of type
+     * {@code type} with the key {@code key}. If {@code m} was not subscribed,
+     * nothing should happen.
+     * <p>
+     * @param type the type to unsubscribe from
+     * @param key  the key of the broadcasts not to receive anymore
+     * @param m    the unsubscribing micro-service
+     */
+    void unsubscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m);
+
     /**
      * Notifying the MessageBus that the request {@code r} is completed and its
      * result was {@code result}.
@@ -41,7 +71,9 @@ public interface MessageBus {
 
     /**
      * add the {@link Broadcast} {@code b} to the message queues of all the
-     * micro-services subscribed to {@code b.getClass()}.
+     * micro-services subscribed to {@code b.getClass()}, and if {@code b} is a
+     * {@link KeyedBroadcast}, of the micro-services subscribed to its type
+     * together with its key. No queue gets {@code b} more than once.
      * <p>
      * @param b the message to add to the queues.
      */
@@ -50,7 +82,7 @@ public interface MessageBus {
     /**
      * add the {@link Request} {@code r} to the message queue of one of the
      * micro-services subscribed to {@code r.getClass()} in a round-robin
-     * fashion.
+     * fashion (implementations may let the request type choose another way).
      * <p>
      * @param r         the request to add to the queue.
      * @param requester the {@link MicroService} sending {@code r}.
@@ -59,6 +91,37 @@ public interface MessageBus {
      */
     boolean sendRequest(Request<?> r, MicroService requester);
 
+    /**
+     * same as {@link #sendRequest(bgu.spl.mics.Request, bgu.spl.mics.MicroService)}
+     * but stores {@code onComplete} together with the request, so that when
+     * {@code r} is completed the callback is delivered to the requester's
+     * queue inside the {@link RequestCompleted} message.
+     * <p>
+     * @param <T>        the type of the expected result of the request
+     * @param r          the request to add to the queue.
+     * @param requester  the {@link MicroService} sending {@code r}.
+     * @param onComplete the callback to run in the requester's event loop.
+     * @return true if there was at least one micro-service subscribed to
+     *         {@code r.getClass()} and false otherwise.
+     */
+    <T> boolean sendRequest(Request<T> r, MicroService requester, Callback<T> onComplete);
+
+    /**
+     * add the {@link Request} {@code r} to the message queue of one of the
+     * micro-services subscribed to {@code r.getClass()} and return a future
+     * that is completed directly by {@link #complete(bgu.spl.mics.Request, java.lang.Object)}.
+     * No {@link RequestCompleted} message is sent to the requester - stages
+     * attached to the future run in the thread that completes the request
+     * unless an asynchronous stage is used.
+     * <p>
+     * @param <T>       the type of the expected result of the request
+     * @param r         the request to add to the queue.
+     * @param requester the {@link MicroService} sending {@code r}.
+     * @return a future of the result, or null if there was no micro-service
+     *         subscribed to {@code r.getClass()}.
+     */
+    <T> CompletableFuture<T> sendRequestAsync(Request<T> r, MicroService requester);
+
     /**
      * allocates a message-queue for the {@link MicroService} {@code m}.
      * <p>
@@ -93,4 +156,21 @@ public interface MessageBus {
      */
     Message awaitMessage(MicroService m) throws InterruptedException;
 
+    /**
+     * the batch version of {@link #awaitMessage(bgu.spl.mics.MicroService)}:
+     * waits until at least one message is available in {@code m}'s queue and
+     * then moves up to {@code max} messages, in queue order, into
+     * {@code batch}.
+     * <p>
+     * @param m     the micro-service requesting to take messages from its
+     *              message queue
+     * @param batch the collection the messages are added to
+     * @param max   the maximal number of messages to take
+     * @return the number of messages added to {@code batch}, 0 if {@code m}
+     *         is not registered
+     * @throws InterruptedException if interrupted while waiting for a message
+     *                              to became available.
+     */
+    int awaitMessages(MicroService m, Collection<? super Message> batch, int max) throws InterruptedException;
+
 }
@@ -1,8 +1,11 @@
 package bgu.spl.mics;
 
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 
 import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.impl.ServiceMetrics;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -10,7 +13,8 @@ import java.util.logging.Logger;
 /**
  * The MicroService is an abstract class that any micro-service in the system
  * must extend. The abstract MicroService class is responsible to get and
- * manipulate the singleton {@link MessageBus} instance.
+ * manipulate the {@link MessageBus} instance of its simulation (the singleton
+ * instance unless another one is given to its constructor).
  * <p>
  * Derived classes of MicroService should never directly touch the message-bus.
  * Instead, they have a set of internal protected wrapping methods (e.g.,
@@ -25,28 +29,67 @@ import java.util.logging.Logger;
  * <p>
  */
 public abstract class MicroService implements Runnable {
+
+	/**
+	 * the maximal number of messages the event loop takes from the message-queue at once.
+	 */
+	public static final int BATCH_SIZE = 64;
+
+	// the events the event loop logs, see EventLog
+	private enum Events implements EventLog.Event {
+		UNREGISTERED("%s unregistered successfully");
+
+		private final String format;
+
+		private Events(String format) {
+			this.format = format;
+		}
+
+		public Level getLevel() {
+			return Level.INFO;
+		}
+
+		public String getSource() {
+			return MicroService.class.getName();
+		}
+
+		public String getFormat() {
+			return format;
+		}
+	}
 	
 	//map of message type -> corresponding callback
 	private ConcurrentHashMap<Class<? extends Message>, Callback<? extends Message>> callBackMap;
-	//map of message type -> corresponding isCompleted callback
-	private ConcurrentHashMap<Request, Callback> onCompleteMap;
 	
 	protected CountDownLatch latchObject;
 	protected CountDownLatch finish; 
 	
     private boolean terminated = false;
     private final String name;
+    private final MessageBusImpl bus;
+    private ServiceMetrics metrics; // null unless the message-bus keeps metrics
 
     /**
      * @param name the micro-service name (used mainly for debugging purposes -
      *             does not have to be unique)
      */
     
-    //constructor
+    //constructor - uses the singleton message-bus
     public MicroService(String name, CountDownLatch c, CountDownLatch f) {
+        this(name, MessageBusImpl.MsgBusGetInstance(), c, f);
+    }
+
+    /**
+     * @param name the micro-service name
+     * @param bus  the message-bus this micro-service communicates through,
+     *             micro-services of the same simulation share one message-bus
+     * @param c    counted down once the micro-service is initialized
+     * @param f    counted down once the micro-service terminated
+     */
+    public MicroService(String name, MessageBusImpl bus, CountDownLatch c, CountDownLatch f) {
         this.name = name;
+        this.bus = bus;
         callBackMap = new ConcurrentHashMap<Class<? extends Message>, Callback<? extends Message>>();
-        onCompleteMap = new ConcurrentHashMap<Request, Callback>();
         latchObject=c;
         finish=f;
     }
@@ -76,7 +119,7 @@ public abstract class MicroService implements Runnable {
     
     protected final <R extends Request> void subscribeRequest(Class<R> type, Callback<R> callback) { 
     	callBackMap.putIfAbsent(type, callback); //add to hash map
-    	MessageBusImpl.MsgBusGetInstance().subscribeRequest(type,this); //add to message bus
+    	bus.subscribeRequest(type,this); //add to message bus
     }
 
     /**
@@ -102,7 +145,40 @@ public abstract class MicroService implements Runnable {
      */
     protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback) {
     	callBackMap.putIfAbsent(type, callback); //add to hash map
-    	MessageBusImpl.MsgBusGetInstance().subscribeBroadcast(type,this); //add to message bus
+    	bus.subscribeBroadcast(type,this); //add to message bus
+    }
+
+    /**
+     * subscribes to the broadcast messages of type {@code type} whose key is
+     * {@code key} with the callback {@code callback}. A micro-service may
+     * subscribe to many keys of the same type - the callback given in the
+     * first subscription to {@code type} is the one called for all of them.
+     * A micro-service subscribed to all the broadcasts of {@code type} cannot
+     * subscribe to a key of it as well (see
+     * {@link MessageBus#subscribeBroadcast(java.lang.Class, java.lang.Object, bgu.spl.mics.MicroService)}).
+     * <p>
+     * @param <B>      the type of broadcast message to subscribe to
+     * @param type     the {@link Class} representing the type of broadcast
+     *                 message to subscribe to.
+     * @param key      the key of the broadcast messages to receive
+     * @param callback the callback that should be called when messages of type
+     *                 {@code type} are taken from this micro-service message
+     *                 queue.
+     */
+    protected final <B extends KeyedBroadcast> void subscribeBroadcast(Class<B> type, Object key, Callback<B> callback) {
+    	callBackMap.putIfAbsent(type, callback); //add to hash map
+    	bus.subscribeBroadcast(type,key,this); //add to message bus
+    }
+
+    /**
+     * stops receiving the broadcast messages of type {@code type} whose key is
+     * {@code key}.
+     * <p>
+     * @param type the type of broadcast message
+     * @param key  the key of the broadcast messages not to receive anymore
+     */
+    protected final void unsubscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key) {
+    	bus.unsubscribeBroadcast(type,key,this);
     }
 
     /**
@@ -122,10 +198,38 @@ public abstract class MicroService implements Runnable {
      *         {@code r.getClass()} and false otherwise.
      */
     protected final <T> boolean sendRequest(Request<T> r, Callback<T> onComplete) {
-    	boolean ans = MessageBusImpl.MsgBusGetInstance().sendRequest(r,this); //try to send the message through bus
-    	if (ans) // if did not succeed remove it from map (since not used)
-    		onCompleteMap.putIfAbsent(r, onComplete); //first add to the map
-        return ans;
+    	return bus.sendRequest(r,this,onComplete); //the callback travels with the request
+    }
+
+    /**
+     * send the request {@code r} using the message-bus and return a future of
+     * its result. Unlike {@link #sendRequest(bgu.spl.mics.Request, bgu.spl.mics.Callback)}
+     * the future is completed directly by the micro-service that completes
+     * {@code r}, so stages attached to it do <b>not</b> run in this
+     * micro-service event loop.
+     * <p>
+     * @param <T> the type of the expected result of the request {@code r}
+     * @param r   the request to send
+     * @return a future of the result, or null if there was no micro-service
+     *         subscribed to {@code r.getClass()}.
+     */
+    protected final <T> CompletableFuture<T> sendRequest(Request<T> r) {
+    	return bus.sendRequestAsync(r,this);
+    }
+
+    /**
+     * wait for the result of {@code r} again, without sending it, as if it was
+     * sent by {@link #sendRequest(bgu.spl.mics.Request, bgu.spl.mics.Callback)}.
+     * used when a micro-service is restored from a checkpoint while the
+     * micro-service that handles {@code r} still holds it.
+     * <p>
+     * @param <T>        the type of the expected result of the request
+     *                   {@code r}
+     * @param r          the request that was sent before the checkpoint
+     * @param onComplete the callback to call when {@code r} is completed
+     */
+    protected final <T> void restoreRequest(Request<T> r, Callback<T> onComplete) {
+    	bus.restoreRequest(r,this,onComplete);
     }
 
     /**
@@ -134,7 +238,7 @@ public abstract class MicroService implements Runnable {
      * @param b the broadcast message to send
      */
     protected final void sendBroadcast(Broadcast b) {  
-        MessageBusImpl.MsgBusGetInstance().sendBroadcast(b); //send through message bus
+        bus.sendBroadcast(b); //send through message bus
     }
 
     /**
@@ -148,7 +252,7 @@ public abstract class MicroService implements Runnable {
      *               {@code r}.
      */
     protected final <T> void complete(Request<T> r, T result) {
-        MessageBusImpl.MsgBusGetInstance().complete(r,result); //complete through bus
+        bus.complete(r,result); //complete through bus
     }
 
     /**
@@ -176,23 +280,19 @@ public abstract class MicroService implements Runnable {
 
     @Override
     public final void run() {
-    	MessageBusImpl messageBus = MessageBusImpl.MsgBusGetInstance();
-    	messageBus.register(this);
-        initialize();
+    	ArrayList<Message> batch = new ArrayList<Message>(BATCH_SIZE);
+    	start();
         while (!terminated) {
         	try {
-				Message msg = messageBus.awaitMessage(this);  // if of type REQUEST/BROADCAST
-				Callback c;
-				if (msg!=null){ 		//MS may have unregistered
-					if (msg instanceof Request || msg instanceof Broadcast ) 	{		
-						c = callBackMap.get(msg.getClass());
-						c.call(msg);
-					}
-					else if (msg instanceof RequestCompleted) {	// if of type REQUEST COMPLETED
-						Request task = ((RequestCompleted) msg).getCompletedRequest(); //get class of initial request
-						c= onCompleteMap.get(task);
-						c.call(((RequestCompleted)msg).getResult());
-					}	
+        		long waiting = metrics==null ? 0 : System.nanoTime();
+				if (bus.awaitMessages(this, batch, BATCH_SIZE)>0){ 		//MS may have unregistered
+					if (metrics!=null)
+						metrics.idle(System.nanoTime()-waiting);
+					int i = 0;
+					while (i<batch.size() && !terminated)
+						handle(batch.get(i++));
+					bus.handled(this, batch, i); // the rest is released like the messages left in the queue
+					batch.clear();
 				}
 				else
 					Logger.getLogger("logger").log(Level.WARNING, "message is null");							
@@ -200,11 +300,74 @@ public abstract class MicroService implements Runnable {
 				e.printStackTrace();
 			}
         }
-        messageBus.unregister(this);
-		Logger.getLogger("logger").log(Level.INFO, getName()+" unregistered successfully");							
+        stop();
+    }
+
+    /**
+     * registers this micro-service and runs {@link #initialize()}, the first
+     * step of the event loop (used by {@link MicroServiceRuntime}s that do not
+     * call {@link #run()}).
+     */
+    final void start() {
+    	bus.register(this);
+    	metrics = bus.getMetrics(this);
+    	initialize();
+    }
+
+    /**
+     * calls the callback matching the message {@code msg}, and counts it if
+     * the message-bus keeps metrics.
+     */
+    final void handle(Message msg) {
+    	if (metrics==null){
+    		call(msg);
+    		return;
+    	}
+    	long start = System.nanoTime();
+    	call(msg);
+    	metrics.handled(msg, System.nanoTime()-start);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void call(Message msg) {
+		Callback c;
+		if (msg instanceof Request || msg instanceof Broadcast ) 	{		
+			c = callBackMap.get(msg.getClass());
+			if (msg instanceof Request)
+				bus.started((Request) msg, this); // the request's latency is recorded, if the bus records latencies
+			c.call(msg);
+		}
+		else if (msg instanceof RequestCompleted) {	// if of type REQUEST COMPLETED
+			bus.replied((RequestCompleted) msg);
+			c = ((RequestCompleted) msg).getCallback(); //the callback given when the request was sent
+			if (c!=null)
+				c.call(((RequestCompleted)msg).getResult());
+		}	
+    }
+
+    /**
+     * @return true once {@link #terminate()} was called.
+     */
+    public final boolean isTerminated() {
+    	return terminated;
+    }
+
+    /**
+     * unregisters this micro-service, the last step of the event loop.
+     */
+    final void stop() {
+        bus.unregister(this);
+        EventLog.log(Events.UNREGISTERED, getName());
         finish.countDown();
     }
     
+    /**
+     * @return the message-bus this micro-service communicates through.
+     */
+    public final MessageBusImpl getBus() {
+        return bus;
+    }
+
     public CountDownLatch getLatch(){
     	return latchObject;
     }
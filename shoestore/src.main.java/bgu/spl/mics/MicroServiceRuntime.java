@@ -0,0 +1,40 @@
+package bgu.spl.mics;
+
+/**
+ * A runtime decides which threads run the event loops of the micro-services.
+ * Whatever the runtime, the callbacks of a single micro-service are never
+ * called concurrently and are called in the order their messages were taken
+ * from its message-queue.
+ */
+public interface MicroServiceRuntime {
+
+    /**
+     * starts the event loop of {@code m} - registers it, calls its
+     * initialize method and then handles its messages until it terminates.
+     * <p>
+     * @param m the micro-service to start
+     */
+    void start(MicroService m);
+
+    /**
+     * notifies the runtime that no more micro-services will be started. The
+     * threads of the runtime are released once all the micro-services that
+     * were started have terminated.
+     */
+    void shutdown();
+
+    /**
+     * asks the runtime to run {@code step} every time none of its
+     * micro-services has a message to handle. Only a runtime that knows when
+     * all of its micro-services are idle supports it, others return false and
+     * the caller has to find out by itself (see
+     * {@link bgu.spl.mics.impl.MessageBusImpl#awaitQuiescence()}).
+     * <p>
+     * @param step the step to run, on the thread of the runtime
+     * @return true if the runtime will run {@code step}
+     */
+    default boolean whenIdle(Runnable step) {
+        return false;
+    }
+
+}
@@ -0,0 +1,134 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * A runtime that multiplexes many micro-services over a small fixed pool of
+ * worker threads. A micro-service does not hold a thread while its
+ * message-queue is empty - the message-bus wakes it up when a message is added
+ * to its queue and it is then scheduled on one of the workers, where it
+ * takes up to {@link #SLICE} messages at once and handles them before
+ * giving the worker back.
+ * <p>
+ * A micro-service is scheduled at most once at a time (see {@link Slot}) so
+ * its callbacks never run concurrently, even if they run on different
+ * workers. Callbacks must not block for long, since a blocked callback holds
+ * a worker that every other micro-service shares.
+ */
+public class PooledRuntime implements MicroServiceRuntime {
+
+    /**
+     * how many messages a micro-service handles before letting other
+     * micro-services use the worker.
+     */
+    public static final int SLICE = 64;
+
+    // the batch of messages the current slot handles, one per worker instead of one per micro-service
+    private static final ThreadLocal<ArrayList<Message>> BATCH = ThreadLocal.withInitial(() -> new ArrayList<Message>(SLICE));
+
+    private final ExecutorService workers;
+    private final AtomicInteger alive;
+    private volatile boolean shutdown;
+
+    /**
+     * @param numOfWorkers the number of worker threads
+     */
+    public PooledRuntime(int numOfWorkers) {
+        if (numOfWorkers <= 0) {
+            throw new IllegalArgumentException("expecting a number of workers > 0, instead received: " + numOfWorkers);
+        }
+        AtomicInteger count = new AtomicInteger(0);
+        workers = Executors.newFixedThreadPool(numOfWorkers, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "worker " + count.incrementAndGet());
+            }
+        });
+        alive = new AtomicInteger(0);
+        shutdown = false;
+    }
+
+    @Override
+    public void start(MicroService m) {
+        alive.incrementAndGet();
+        new Slot(m).begin();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        if (alive.get() == 0) {
+            workers.shutdown();
+        }
+    }
+
+    private void terminated() {
+        if (alive.decrementAndGet() == 0 && shutdown) {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * the scheduling state of a single micro-service. {@code scheduled} is
+     * true while the slot waits for a worker or runs on one, so a wake-up
+     * during that time does not schedule it twice.
+     */
+    private class Slot implements Runnable {
+
+        private final MicroService service;
+        private final AtomicBoolean scheduled;
+        private boolean started;
+
+        Slot(MicroService service) {
+            this.service = service;
+            this.scheduled = new AtomicBoolean(true);
+            this.started = false;
+        }
+
+        void begin() {
+            workers.execute(this);
+        }
+
+        void wakeUp() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            MessageBusImpl bus = service.getBus();
+            if (!started) {
+                started = true;
+                service.start();
+                bus.setWakeUp(service, this::wakeUp);
+            }
+            ArrayList<Message> batch = BATCH.get();
+            bus.drainMessages(service, batch, SLICE);
+            int i = 0;
+            while (i < batch.size() && !service.isTerminated()) {
+                service.handle(batch.get(i++));
+            }
+            bus.handled(service, batch, i);
+            batch.clear();
+            if (service.isTerminated()) {
+                service.stop(); // scheduled stays true - the slot is never run again
+                terminated();
+                return;
+            }
+            scheduled.set(false);
+            // a message added after the last poll but before the flag was cleared did not schedule the slot
+            if (bus.hasMessages(service)) {
+                wakeUp();
+            }
+        }
+    }
+
+}
@@ -4,10 +4,30 @@ public class RequestCompleted<T> implements Message {
 
     private Request<T> completed;
     private T result;
+    private Callback<T> onComplete;
+    private long completedNanos;
 
     public RequestCompleted(Request<T> completed, T result) {
+        this(completed, result, null);
+    }
+
+    /**
+     * @param onComplete the requester's callback, carried with the result so
+     *                   the requester does not need to look it up again.
+     */
+    public RequestCompleted(Request<T> completed, T result, Callback<T> onComplete) {
+        this(completed, result, onComplete, 0);
+    }
+
+    /**
+     * @param completedNanos when the request was completed (System.nanoTime),
+     *                       0 unless the message bus records latencies.
+     */
+    public RequestCompleted(Request<T> completed, T result, Callback<T> onComplete, long completedNanos) {
         this.completed = completed;
         this.result = result;
+        this.onComplete = onComplete;
+        this.completedNanos = completedNanos;
     }
 
     public Request getCompletedRequest() {
@@ -18,4 +38,12 @@ public class RequestCompleted<T> implements Message {
         return result;
     }
 
+    public Callback<T> getCallback() {
+        return onComplete;
+    }
+
+    public long getCompletedNanos() {
+        return completedNanos;
+    }
+
 }
@@ -0,0 +1,19 @@
+package bgu.spl.mics;
+
+/**
+ * The default runtime - every micro-service gets its own thread that blocks
+ * on its message-queue (see {@link MicroService#run()}).
+ */
+public class ThreadRuntime implements MicroServiceRuntime {
+
+    @Override
+    public void start(MicroService m) {
+        new Thread(m, m.getName()).start();
+    }
+
+    @Override
+    public void shutdown() {
+        // every thread ends together with its micro-service
+    }
+
+}
@@ -0,0 +1,155 @@
+package bgu.spl.mics.impl;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import bgu.spl.mics.MicroService;
+
+/**
+ * the metrics of all the micro services registered to a message bus. once it is set in a message bus (see
+ * MessageBusImpl.setMetrics) every micro service that registers gets a {@link ServiceMetrics}, which is also
+ * registered as an MXBean named bgu.spl.mics:type=MicroService,bus=N,class=...,name="..." until the micro service
+ * unregisters. all of them can be written in the Prometheus text format (see MetricsServer).
+ * <p>
+ * only the micro services that registered after the metrics were set are counted.
+ *
+ * @param bus : the message bus the metrics belong to
+ * @param id : tells apart the MXBeans of message buses that run in the same JVM
+ * @param services : the metrics of the registered micro services
+ * @param jmx : where the MXBeans are registered, null to skip JMX
+ */
+public class BusMetrics {
+
+	private static final AtomicInteger ids = new AtomicInteger(0);
+
+	private final MessageBusImpl bus;
+	private final int id;
+	private final ConcurrentHashMap<MicroService,ServiceMetrics> services;
+	private final MBeanServer jmx;
+
+	/**
+	 * @param bus        the message bus whose micro services are counted, the caller still has to set the metrics in it
+	 * @param jmxEnabled true to register an MXBean per micro service in the platform MBean server
+	 */
+	public BusMetrics(MessageBusImpl bus, boolean jmxEnabled){
+		this.bus = bus;
+		this.id = ids.incrementAndGet();
+		this.services = new ConcurrentHashMap<MicroService,ServiceMetrics>();
+		this.jmx = jmxEnabled ? ManagementFactory.getPlatformMBeanServer() : null;
+	}
+
+	// called by the message bus when a micro service registers
+	ServiceMetrics add(MicroService m, Mailbox queue){
+		ServiceMetrics metrics = new ServiceMetrics(m, queue);
+		if (services.putIfAbsent(m, metrics)!=null)
+			return services.get(m);
+		if (jmx!=null){
+			try {
+				jmx.registerMBean(metrics, name(m));
+			} catch (JMException e) {
+				Logger.getLogger("logger").log(Level.WARNING, "the metrics of "+m.getName()+" are not registered in JMX", e);
+			}
+		}
+		return metrics;
+	}
+
+	// called by the message bus when a micro service unregisters
+	void remove(MicroService m){
+		if (services.remove(m)==null || jmx==null)
+			return;
+		try {
+			jmx.unregisterMBean(name(m));
+		} catch (JMException e) {
+			// was never registered
+		}
+	}
+
+	private ObjectName name(MicroService m) throws JMException {
+		// the identity hash tells apart micro services of the same name
+		return new ObjectName("bgu.spl.mics:type=MicroService,bus="+id+",class="+m.getClass().getSimpleName()+
+				",name="+ObjectName.quote(m.getName()+"@"+Integer.toHexString(System.identityHashCode(m))));
+	}
+
+	/**
+	 * @return the metrics of {@code m}, null if it is not registered or registered before the metrics were set
+	 */
+	public ServiceMetrics get(MicroService m){
+		return services.get(m);
+	}
+
+	/**
+	 * writes the metrics of all the registered micro services in the Prometheus text format (version 0.0.4)
+	 * @param out where the metrics are written
+	 */
+	public void write(PrintWriter out){
+		List<ServiceMetrics> all = new ArrayList<ServiceMetrics>(services.values());
+		all.sort(Comparator.comparing(ServiceMetrics::getName));
+
+		long inFlight = bus.getInFlight();
+		if (inFlight>=0){ // only counted when the ticks wait for them
+			header(out, "mics_in_flight_messages", "gauge", "messages added to a mailbox and not handled yet, over all the mailboxes");
+			out.println("mics_in_flight_messages "+inFlight);
+		}
+		header(out, "mics_mailbox_depth", "gauge", "messages waiting in the mailbox of the micro service");
+		for (ServiceMetrics s : all)
+			out.println("mics_mailbox_depth"+labels(s, null, null)+" "+s.getMailboxDepth());
+		header(out, "mics_mailbox_high_water_mark", "gauge", "the most messages that waited in the mailbox at once");
+		for (ServiceMetrics s : all)
+			out.println("mics_mailbox_high_water_mark"+labels(s, null, null)+" "+s.getMailboxHighWaterMark());
+		header(out, "mics_mailbox_rejected_total", "counter", "requests the full mailbox did not accept");
+		for (ServiceMetrics s : all)
+			out.println("mics_mailbox_rejected_total"+labels(s, null, null)+" "+s.getRejectedRequests());
+		header(out, "mics_messages_handled_total", "counter", "messages whose callback ran, by message type (kind result: the results of the requests the micro service sent)");
+		for (ServiceMetrics s : all)
+			counters(out, "mics_messages_handled_total", s, false);
+		header(out, "mics_callback_seconds_total", "counter", "time spent in callbacks, by message type");
+		for (ServiceMetrics s : all)
+			counters(out, "mics_callback_seconds_total", s, true);
+		header(out, "mics_idle_seconds_total", "counter", "time the event loop waited for messages");
+		for (ServiceMetrics s : all)
+			out.println("mics_idle_seconds_total"+labels(s, null, null)+" "+s.getIdleMillis()/1000);
+		header(out, "mics_blocked_seconds_total", "counter", "time spent waiting for room in full mailboxes while sending requests");
+		for (ServiceMetrics s : all)
+			out.println("mics_blocked_seconds_total"+labels(s, null, null)+" "+s.getBlockedMillis()/1000);
+	}
+
+	private static void header(PrintWriter out, String metric, String type, String help){
+		out.println("# HELP "+metric+" "+help);
+		out.println("# TYPE "+metric+" "+type);
+	}
+
+	private static void counters(PrintWriter out, String metric, ServiceMetrics s, boolean seconds){
+		for (Map.Entry<String,ServiceMetrics.Counter> c : s.getHandled().entrySet())
+			out.println(metric+labels(s, c.getKey(), "message")+" "+value(c.getValue(), seconds));
+		for (Map.Entry<String,ServiceMetrics.Counter> c : s.getResults().entrySet())
+			out.println(metric+labels(s, c.getKey(), "result")+" "+value(c.getValue(), seconds));
+	}
+
+	private static String value(ServiceMetrics.Counter c, boolean seconds){
+		return seconds ? Double.toString(c.getNanos()/1e9) : Long.toString(c.getCount());
+	}
+
+	private static String labels(ServiceMetrics s, String message, String kind){
+		StringBuilder labels = new StringBuilder("{service=\"").append(escape(s.getName()))
+				.append("\",class=\"").append(s.getServiceClass()).append('"');
+		if (message!=null)
+			labels.append(",message=\"").append(message).append("\",kind=\"").append(kind).append('"');
+		return labels.append('}').toString();
+	}
+
+	private static String escape(String value){
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,26 @@
+package bgu.spl.mics.impl;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+
+/**
+ * a dispatch policy chooses which of the micro services subscribed to a request type receives a request.
+ * the message bus keeps one policy per request type (see {@link MessageBusImpl#setDispatchPolicy(Class, DispatchPolicy)}),
+ * round robin if none was set.
+ * <p>
+ * policies are called concurrently by all the senders of their request type and must not lock.
+ */
+public interface DispatchPolicy {
+
+	/**
+	 * chooses the micro service that should receive {@code r}.
+	 * @param handlers the micro services subscribed to {@code r.getClass()}, not empty
+	 * @param r the request being sent
+	 * @param attempt 0 on the first call for {@code r}, and one more on every call after the micro service returned
+	 * 		  before could not take it (it unregistered or its mailbox was full)
+	 * @param bus the message bus the request is sent on
+	 * @return one of the micro services in {@code handlers}, or null if there is none
+	 */
+	MicroService choose(SubscriberList handlers, Request<?> r, int attempt, MessageBusImpl bus);
+
+}
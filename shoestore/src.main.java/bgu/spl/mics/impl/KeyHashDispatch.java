@@ -0,0 +1,105 @@
+package bgu.spl.mics.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+
+/**
+ * a dispatch policy that sends all the requests with the same key (for example the shoe type) to the same
+ * subscriber, using consistent hashing: every subscriber owns {@link #REPLICAS} points on a hash ring and a request
+ * goes to the owner of the first point after the hash of its key. when a subscriber leaves only the keys it owned
+ * move, and a request that its owner could not take goes to the next subscriber on the ring.
+ * <p>
+ * the points of a subscriber are computed from its name, so the same subscribers own the same keys in every run.
+ *
+ * @param key : extracts the key from a request
+ * @param ring : the ring of the last snapshot of subscribers it was built for (rebuilt when the snapshot changes)
+ */
+public class KeyHashDispatch<R extends Request<?>> implements DispatchPolicy {
+
+	public static final int REPLICAS = 32;
+
+	private final Function<R,Object> key;
+	private volatile Ring ring;
+
+	/**
+	 * @param key extracts the key of a request, requests with equal keys go to the same subscriber
+	 */
+	public KeyHashDispatch(Function<R,Object> key){
+		this.key = key;
+		this.ring = new Ring(new MicroService[0]);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public MicroService choose(SubscriberList handlers, Request<?> r, int attempt, MessageBusImpl bus){
+		MicroService[] curr = handlers.snapshot();
+		if (curr.length==0)
+			return null;
+		Ring current = ring;
+		if (current.source!=curr){ // subscribers changed, the ring is immutable so a racing sender can build its own
+			current = new Ring(curr);
+			ring = current;
+		}
+		return current.owner(mix(key.apply((R) r).hashCode()), attempt);
+	}
+
+	// spreads the bits of a hash code (murmur3 finalizer)
+	private static int mix(int h){
+		h ^= h>>>16;
+		h *= 0x85ebca6b;
+		h ^= h>>>13;
+		h *= 0xc2b2ae35;
+		h ^= h>>>16;
+		return h;
+	}
+
+	private static class Ring {
+
+		private final MicroService[] source;
+		private final int[] points;
+		private final MicroService[] owners;
+
+		Ring(MicroService[] source){
+			this.source = source;
+			long[] sorted = new long[source.length*REPLICAS];
+			for (int i=0; i<source.length; i++)
+				for (int j=0; j<REPLICAS; j++){
+					int point = mix(source[i].getName().hashCode()*31+j);
+					sorted[i*REPLICAS+j] = ((long) point<<32) | (i & 0xffffffffL); // sort by point, remember the owner
+				}
+			Arrays.sort(sorted);
+			points = new int[sorted.length];
+			owners = new MicroService[sorted.length];
+			for (int k=0; k<sorted.length; k++){
+				points[k] = (int) (sorted[k]>>32);
+				owners[k] = source[(int) sorted[k]];
+			}
+		}
+
+		// the attempt-th distinct owner clockwise from hash
+		MicroService owner(int hash, int attempt){
+			int index = Arrays.binarySearch(points, hash);
+			if (index<0)
+				index = -index-1;
+			if (attempt==0)
+				return owners[index%points.length];
+			// retries are rare, so finding the next distinct owners may allocate
+			ArrayList<MicroService> seen = new ArrayList<MicroService>();
+			int wanted = attempt%source.length;
+			for (int k=0; k<points.length; k++){
+				MicroService m = owners[(index+k)%points.length];
+				if (!seen.contains(m)){
+					if (seen.size()==wanted)
+						return m;
+					seen.add(m);
+				}
+			}
+			return owners[index%points.length];
+		}
+	}
+
+}
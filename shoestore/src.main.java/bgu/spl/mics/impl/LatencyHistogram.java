@@ -0,0 +1,93 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a histogram of latencies in nanoseconds, in the spirit of HdrHistogram: every power of 2 is split into
+ * 2^precision equal buckets, so a recorded value is off by less than 1/2^precision of itself (about 3% for a
+ * precision of 5) from 0 up to Long.MAX_VALUE, in a fixed number of buckets. recording takes no lock and may be
+ * done by many threads at once.
+ *
+ * @param precision : the number of bits of a value that are kept, the rest are rounded away
+ * @param counts : the number of values recorded in each bucket
+ * @param count : the number of values recorded
+ * @param sum : the sum of the values recorded
+ * @param max : the largest value recorded
+ */
+public class LatencyHistogram {
+
+	private final int precision;
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	public LatencyHistogram(int precision){
+		if (precision<1 || precision>10)
+			throw new IllegalArgumentException("expecting a precision between 1 and 10 bits, instead received: "+precision);
+		this.precision = precision;
+		counts = new AtomicLongArray((64-precision+1)<<precision);
+		count = new AtomicLong(0);
+		sum = new AtomicLong(0);
+		max = new AtomicLong(0);
+	}
+
+	/**
+	 * @param nanos a latency, negative latencies (a clock that went back) are recorded as 0
+	 */
+	public void record(long nanos){
+		if (nanos<0)
+			nanos = 0;
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		if (nanos>max.get())
+			max.accumulateAndGet(nanos, Math::max);
+	}
+
+	// values below 2^precision have a bucket of their own, above it the bucket is chosen by the highest bits
+	private int bucket(long value){
+		int shift = 63-Long.numberOfLeadingZeros(value | (1L<<precision))-precision;
+		return (shift<<precision)+(int) (value>>>shift);
+	}
+
+	// the largest value that falls in the bucket
+	private long highest(int bucket){
+		int shift = Math.max((bucket>>>precision)-1, 0);
+		long lowest = (long) (bucket-(shift<<precision))<<shift;
+		return lowest+(1L<<shift)-1;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the latency that {@code percentile} percent of the recorded latencies do not exceed, up to the
+	 * 		   precision of the histogram, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile){
+		long total = count.get();
+		if (total==0)
+			return 0;
+		long rank = Math.max((long) Math.ceil(Math.min(percentile, 100)/100*total), 1);
+		long seen = 0;
+		for (int i=0; i<counts.length(); i++){
+			seen += counts.get(i);
+			if (seen>=rank)
+				return Math.min(highest(i), max.get());
+		}
+		return max.get(); // values recorded while the buckets were read
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	public double getMean(){
+		long total = count.get();
+		return total==0 ? 0 : (double) sum.get()/total;
+	}
+}
@@ -0,0 +1,168 @@
+package bgu.spl.mics.impl;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bgu.spl.mics.Request;
+
+/**
+ * where the time of the requests goes while they travel through the message bus. once it is set in a message bus
+ * (see MessageBusImpl.setLatencyRecorder) every request is stamped with System.nanoTime when it is sent, added to
+ * its handler's queue, taken from the queue and given to the handler's callback, and when it is completed. the
+ * stages between the stamps are recorded in a histogram per request type, and the whole trip of the requests
+ * sent in a tick in a histogram per request type and tick.
+ * <p>
+ * the ticks are whatever the simulation says they are (see {@link #setTick(int)}), the message bus does not know
+ * about ticks.
+ *
+ * @param stages : for each request type, a histogram of each stage
+ * @param ticks : for each request type, a histogram of the total latency of the requests sent in each tick
+ * @param tick : the current tick
+ */
+public class LatencyRecorder {
+
+	private static final int PRECISION = 5;			// 3% error
+	private static final int TICK_PRECISION = 3;	// 12% error, there is a histogram per tick
+
+	public enum Stage {
+		/** sendRequest until the request is in the handler's queue: choosing the handler, waiting for room and for its lock */
+		DISPATCH,
+		/** waiting in the handler's queue */
+		QUEUE,
+		/** taken from the queue until its callback starts: the messages taken before it in the same batch */
+		BATCH,
+		/** the handler's callback until complete, including the requests the handler sends meanwhile */
+		SERVICE,
+		/** complete until the requester's callback starts, requests completed through a future have none */
+		REPLY,
+		/** sendRequest until complete */
+		TOTAL
+	}
+
+	private final ConcurrentHashMap<Class<?>,LatencyHistogram[]> stages;
+	private final ConcurrentHashMap<Class<?>,ConcurrentHashMap<Integer,LatencyHistogram>> ticks;
+	private volatile int tick;
+
+	public LatencyRecorder(){
+		stages = new ConcurrentHashMap<Class<?>,LatencyHistogram[]>();
+		ticks = new ConcurrentHashMap<Class<?>,ConcurrentHashMap<Integer,LatencyHistogram>>();
+	}
+
+	/**
+	 * @param tick the tick the requests sent from now on belong to
+	 */
+	public void setTick(int tick){
+		this.tick = tick;
+	}
+
+	public int getTick(){
+		return tick;
+	}
+
+	// records the stages of a request that was just completed
+	void completed(Request<?> r, PendingRequest<?> pending, long completed){
+		if (pending.getSent()==0) // sent before the recorder was set
+			return;
+		LatencyHistogram[] histograms = histograms(r.getClass());
+		histograms[Stage.DISPATCH.ordinal()].record(pending.getEnqueued()-pending.getSent());
+		if (pending.getStarted()!=0){ // not completed by someone else before its handler got to it
+			histograms[Stage.QUEUE.ordinal()].record(pending.getTaken()-pending.getEnqueued());
+			histograms[Stage.BATCH.ordinal()].record(pending.getStarted()-pending.getTaken());
+			histograms[Stage.SERVICE.ordinal()].record(completed-pending.getStarted());
+		}
+		histograms[Stage.TOTAL.ordinal()].record(completed-pending.getSent());
+		ticks.computeIfAbsent(r.getClass(), k -> new ConcurrentHashMap<Integer,LatencyHistogram>())
+			.computeIfAbsent(pending.getTick(), k -> new LatencyHistogram(TICK_PRECISION))
+			.record(completed-pending.getSent());
+	}
+
+	// records the reply of a request whose requester's callback is about to start
+	void replied(Request<?> r, long completed, long started){
+		histograms(r.getClass())[Stage.REPLY.ordinal()].record(started-completed);
+	}
+
+	private LatencyHistogram[] histograms(Class<?> type){
+		LatencyHistogram[] histograms = stages.get(type);
+		if (histograms!=null)
+			return histograms;
+		return stages.computeIfAbsent(type, k -> {
+			LatencyHistogram[] created = new LatencyHistogram[Stage.values().length];
+			for (int i=0; i<created.length; i++)
+				created[i] = new LatencyHistogram(PRECISION);
+			return created;
+		});
+	}
+
+	/**
+	 * @return the histogram of a stage of the requests of type {@code type}, null if none was completed
+	 */
+	public LatencyHistogram getHistogram(Class<? extends Request<?>> type, Stage stage){
+		LatencyHistogram[] histograms = stages.get(type);
+		return histograms==null ? null : histograms[stage.ordinal()];
+	}
+
+	/**
+	 * @return the histogram of the total latency of the requests of type {@code type} sent in {@code tick}, null
+	 * 		   if none was completed
+	 */
+	public LatencyHistogram getHistogram(Class<? extends Request<?>> type, int tick){
+		ConcurrentHashMap<Integer,LatencyHistogram> histograms = ticks.get(type);
+		return histograms==null ? null : histograms.get(tick);
+	}
+
+	/**
+	 * logs the median and the 99th percentile of every stage of every request type
+	 */
+	public void print(){
+		for (Map.Entry<String,LatencyHistogram[]> type : sorted(stages).entrySet()){
+			StringBuilder line = new StringBuilder("latency of "+type.getKey()+" ("+
+					type.getValue()[Stage.TOTAL.ordinal()].getCount()+" requests), median/99% in us:");
+			for (Stage stage : Stage.values()){
+				LatencyHistogram h = type.getValue()[stage.ordinal()];
+				line.append(' ').append(stage.name().toLowerCase()).append(' ')
+					.append(micros(h.getValueAtPercentile(50))).append('/').append(micros(h.getValueAtPercentile(99)));
+			}
+			Logger.getLogger("logger").log(Level.INFO, line.toString());
+		}
+	}
+
+	/**
+	 * writes every histogram as a csv row of request, stage, tick (empty for all the ticks), count, mean and
+	 * percentiles in microseconds. the rows of the ticks are of the total stage.
+	 * @param out where the rows are written
+	 */
+	public void write(PrintWriter out){
+		out.println("request,stage,tick,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+		for (Map.Entry<String,LatencyHistogram[]> type : sorted(stages).entrySet())
+			for (Stage stage : Stage.values())
+				row(out, type.getKey(), stage, "", type.getValue()[stage.ordinal()]);
+		for (Map.Entry<String,ConcurrentHashMap<Integer,LatencyHistogram>> type : sorted(ticks).entrySet())
+			for (Map.Entry<Integer,LatencyHistogram> histogram : new TreeMap<Integer,LatencyHistogram>(type.getValue()).entrySet())
+				row(out, type.getKey(), Stage.TOTAL, histogram.getKey().toString(), histogram.getValue());
+	}
+
+	private static void row(PrintWriter out, String type, Stage stage, String tick, LatencyHistogram h){
+		if (h.getCount()==0)
+			return;
+		out.println(type+","+stage.name().toLowerCase()+","+tick+","+h.getCount()+","+micros(h.getMean())+","+
+				micros(h.getValueAtPercentile(50))+","+micros(h.getValueAtPercentile(90))+","+micros(h.getValueAtPercentile(99))+","+
+				micros(h.getValueAtPercentile(99.9))+","+micros(h.getMax()));
+	}
+
+	private static String micros(double nanos){
+		return String.format(Locale.ROOT, "%.1f", nanos/1000);
+	}
+
+	// the request types by name, so the output does not depend on the order of the hash
+	private static <V> TreeMap<String,V> sorted(Map<Class<?>,V> byType){
+		TreeMap<String,V> sorted = new TreeMap<String,V>();
+		for (Map.Entry<Class<?>,V> type : byType.entrySet())
+			sorted.put(type.getKey().getSimpleName(), type.getValue());
+		return sorted;
+	}
+}
@@ -0,0 +1,60 @@
+package bgu.spl.mics.impl;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+
+/**
+ * a dispatch policy that sends every request to the subscriber with the fewest messages waiting in its mailbox.
+ * ties are broken in turns, so idle subscribers share the requests evenly.
+ * a retry (the chosen subscriber was full or unregistered) goes to the next least loaded subscriber, so every
+ * subscriber is tried once before the request is given up.
+ * the depths are read without locking, so two concurrent senders may both pick the same subscriber.
+ */
+public class LeastLoadedDispatch implements DispatchPolicy {
+
+	@Override
+	public MicroService choose(SubscriberList handlers, Request<?> r, int attempt, MessageBusImpl bus){
+		MicroService[] curr = handlers.snapshot();
+		if (curr.length==0)
+			return null;
+		if (attempt>0) // the cursor was moved by the first attempt, the retry scans from the same place
+			return rank(curr, (handlers.getCursor()-1 & Integer.MAX_VALUE) % curr.length, attempt % curr.length, bus);
+		MicroService start = handlers.next(); // where the scan starts, moves on every request
+		int offset = 0;
+		while (offset<curr.length && curr[offset]!=start)
+			offset++;
+		MicroService best = null;
+		int bestDepth = Integer.MAX_VALUE;
+		for (int i=0; i<curr.length && bestDepth>0; i++){
+			MicroService m = curr[(offset+i)%curr.length];
+			int depth = bus.queueDepth(m);
+			if (depth>=0 && depth<bestDepth){ // unregistered subscribers have no depth
+				best = m;
+				bestDepth = depth;
+			}
+		}
+		return best!=null ? best : start;
+	}
+
+	// the subscriber of the given rank when they are ordered by depth and then by scan order, rank 0 is the one
+	// the first attempt chose. retries are rare, so this may allocate
+	private static MicroService rank(MicroService[] curr, int offset, int rank, MessageBusImpl bus){
+		int[] depths = new int[curr.length];
+		for (int i=0; i<curr.length; i++){
+			int depth = bus.queueDepth(curr[(offset+i)%curr.length]);
+			depths[i] = depth>=0 ? depth : Integer.MAX_VALUE; // unregistered subscribers come last
+		}
+		int prev = -1;
+		for (int k=0; k<=rank; k++){
+			int best = -1;
+			for (int i=0; i<curr.length; i++){
+				boolean after = prev<0 || depths[i]>depths[prev] || (depths[i]==depths[prev] && i>prev);
+				if (after && (best<0 || depths[i]<depths[best]))
+					best = i;
+			}
+			prev = best;
+		}
+		return curr[(offset+prev)%curr.length];
+	}
+
+}
@@ -0,0 +1,344 @@
+package bgu.spl.mics.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.Predicate;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.Request;
+
+/**
+ * the message queue allocated to a single micro service by the message bus.
+ * besides being a regular blocking queue, a mailbox can run a wake-up listener every time a message is added to it,
+ * which lets a runtime that does not block a thread per micro service know when a micro service has work to do.
+ * <p>
+ * a mailbox may be bounded by a {@link Policy}: the capacity bounds the number of requests waiting in it, and the
+ * overflow decides what happens to a request sent to a full mailbox. broadcasts and request completions are
+ * always added, since dropping a tick or a result would break the simulation and blocking on them could
+ * deadlock two micro services waiting on each other.
+ *
+ * @param listener : called after every message added to the mailbox (null when the owner blocks on the queue)
+ * @param permits : one permit per request that can still be added (null when the mailbox is unbounded)
+ * @param highWaterMark : the largest number of messages that were waiting in the mailbox at once
+ * @param rejected : how many requests were not added because the mailbox was full
+ * @param unfinished : messages that were added and not handled yet (CLOSED once the mailbox is closed)
+ * @param inFlight : the unfinished messages of all the mailboxes of the message bus (null if not counted)
+ * @param taken : when the owner last took messages from the mailbox (System.nanoTime), only kept while the message
+ * 				  bus records latencies (see LatencyRecorder). only the owner's event loop uses it
+ */
+public class Mailbox extends LinkedBlockingQueue<Message> {
+
+	private static final long serialVersionUID = 1L;
+	private static final int CLOSED = Integer.MIN_VALUE;
+
+	// ENUM
+	public enum Overflow{
+		BLOCK, // the sender waits until there is room (only with a thread per micro service, see ShoeStoreRunner)
+		REJECT, // the request is not sent (sendRequest returns false)
+		SPILL // the request is sent to the next subscriber that has room
+	}
+
+	/**
+	 * the capacity and overflow of a mailbox.
+	 */
+	public static class Policy {
+
+		public static final Policy UNBOUNDED = new Policy(Integer.MAX_VALUE, Overflow.BLOCK);
+
+		private final int capacity;
+		private final Overflow overflow;
+
+		public Policy(int capacity, Overflow overflow){
+			if (capacity<=0)
+				throw new IllegalArgumentException("expecting a mailbox capacity > 0, instead received: "+capacity);
+			this.capacity = capacity;
+			this.overflow = overflow;
+		}
+
+		public int getCapacity(){
+			return capacity;
+		}
+
+		public Overflow getOverflow(){
+			return overflow;
+		}
+
+		public boolean isBounded(){
+			return capacity!=Integer.MAX_VALUE;
+		}
+	}
+
+	private final Policy policy;
+	private final transient Semaphore permits;
+	private final AtomicInteger highWaterMark;
+	private final AtomicLong rejected;
+	private final AtomicInteger unfinished;
+	private final transient AtomicLong inFlight;
+	private transient volatile Runnable listener;
+	private transient long taken;
+
+	public Mailbox(){
+		this(Policy.UNBOUNDED, null);
+	}
+
+	public Mailbox(Policy policy){
+		this(policy, null);
+	}
+
+	/**
+	 * @param policy   the capacity and overflow of the mailbox
+	 * @param inFlight counts the messages that were added to this mailbox and not handled yet, shared by all the
+	 *                 mailboxes of a message bus (see {@link #handled(int)})
+	 */
+	public Mailbox(Policy policy, AtomicLong inFlight){
+		super();
+		this.policy = policy;
+		this.permits = policy.isBounded() ? new Semaphore(policy.getCapacity()) : null;
+		this.highWaterMark = new AtomicInteger(0);
+		this.rejected = new AtomicLong(0);
+		this.unfinished = new AtomicInteger(0);
+		this.inFlight = inFlight;
+	}
+
+	/**
+	 * sets the wake-up listener of this mailbox.
+	 * messages that were added before the listener was set do not trigger it, so the caller should check the
+	 * mailbox once after setting it.
+	 * @param listener the listener to run after every added message, or null to remove it
+	 */
+	public void setListener(Runnable listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * reserves room for one request, must be called before the request is added.
+	 * with the {@link Overflow#BLOCK} overflow this waits until there is room (or the mailbox is closed), which only
+	 * the owner can make by taking messages - so it must not be used when the sender and the owner may share a thread.
+	 * @return true if there is room for the request, false if the mailbox is full and the request should not be added
+	 */
+	public boolean reserve(){
+		if (permits==null)
+			return true;
+		if (permits.tryAcquire())
+			return true;
+		if (policy.getOverflow()==Overflow.BLOCK){
+			try {
+				permits.acquire();
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt(); // let the caller's event loop see it
+			}
+		}
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * gives back a reservation that was not used (the request was not added after all).
+	 */
+	public void cancelReservation(){
+		if (permits!=null)
+			permits.release();
+	}
+
+	/**
+	 * releases every sender that waits for room, called when the owner unregisters.
+	 * the released senders find out the owner is not registered anymore and do not add their request, and any
+	 * message that is still added is dropped.
+	 * @param dropped receives the messages that were waiting in the mailbox, so the requests among them can be released
+	 * @return true if the dropped messages were the last ones in flight in the message bus
+	 */
+	public boolean close(Collection<? super Message> dropped){
+		listener = null;
+		if (permits!=null)
+			permits.release(Integer.MAX_VALUE/2); // more than there can ever be waiting senders
+		super.drainTo(dropped);
+		int left = unfinished.getAndSet(CLOSED); // messages that are added from now on are dropped
+		return left>0 && inFlight!=null && inFlight.addAndGet(-left)==0;
+	}
+
+	/**
+	 * called by the owner after it handled (or dropped, when it terminated) {@code n} messages it took from the
+	 * mailbox. a message counts as in flight from the moment it is added until it is handled, and every message
+	 * sent while handling another one is added before that one is handled, so the in flight count of the message
+	 * bus reaches 0 only when there is nothing left to do.
+	 * @param n the number of messages
+	 * @return true if no message is in flight anymore in the whole message bus
+	 */
+	public boolean handled(int n){
+		int u;
+		do {
+			u = unfinished.get();
+			if (u==CLOSED) // the messages were dropped and uncounted by close
+				return false;
+		} while (!unfinished.compareAndSet(u, u-n));
+		return inFlight!=null && inFlight.addAndGet(-n)==0;
+	}
+
+	// counts a message that is about to be added, false if the mailbox is closed
+	private boolean admit(){
+		int u;
+		do {
+			u = unfinished.get();
+			if (u==CLOSED)
+				return false;
+		} while (!unfinished.compareAndSet(u, u+1));
+		if (inFlight!=null)
+			inFlight.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	public boolean offer(Message msg){
+		if (!admit())
+			return false;
+		boolean added = super.offer(msg);
+		if (added)
+			added();
+		else
+			handled(1);
+		return added;
+	}
+
+	@Override
+	public void put(Message msg) throws InterruptedException{
+		if (!admit())
+			return;
+		super.put(msg);
+		added();
+	}
+
+	@Override
+	public Message take() throws InterruptedException{
+		return removed(super.take());
+	}
+
+	@Override
+	public Message poll(){
+		return removed(super.poll());
+	}
+
+	@Override
+	public int drainTo(Collection<? super Message> c, int maxElements){
+		if (permits==null)
+			return super.drainTo(c, maxElements);
+		// a bounded mailbox must see every request that leaves it to give its permit back
+		int n = 0;
+		Message msg;
+		while (n<maxElements && (msg = super.poll())!=null){
+			c.add(removed(msg));
+			n++;
+		}
+		return n;
+	}
+
+	// the removals below take a message out of the mailbox without the owner ever handling it, so besides giving the
+	// permit of a request back they count it as handled. LinkedBlockingQueue removes through its own iterator and
+	// bulk methods without calling remove(Object), so each of them is routed through the mailbox's iterator
+
+	@Override
+	public boolean remove(Object o){
+		if (!super.remove(o))
+			return false;
+		removed((Message) o);
+		handled(1);
+		return true;
+	}
+
+	@Override
+	public Iterator<Message> iterator(){
+		Iterator<Message> it = super.iterator();
+		return new Iterator<Message>(){
+			private Message last;
+
+			@Override
+			public boolean hasNext(){
+				return it.hasNext();
+			}
+
+			@Override
+			public Message next(){
+				return last = it.next();
+			}
+
+			@Override
+			public void remove(){
+				if (last==null)
+					throw new IllegalStateException();
+				Mailbox.this.remove(last); // does nothing if the owner took it meanwhile
+				last = null;
+			}
+		};
+	}
+
+	@Override
+	public boolean removeIf(Predicate<? super Message> filter){
+		boolean changed = false;
+		for (Iterator<Message> it = iterator(); it.hasNext(); ){
+			if (filter.test(it.next())){
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c){
+		return removeIf(c::contains);
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c){
+		return removeIf(msg -> !c.contains(msg));
+	}
+
+	@Override
+	public void clear(){
+		int n = 0;
+		while (poll()!=null)
+			n++;
+		if (n>0)
+			handled(n);
+	}
+
+	private void added(){
+		int size = size();
+		int max = highWaterMark.get();
+		while (size>max && !highWaterMark.compareAndSet(max, size))
+			max = highWaterMark.get();
+		Runnable l = listener;
+		if (l!=null)
+			l.run();
+	}
+
+	private Message removed(Message msg){
+		if (permits!=null && msg instanceof Request)
+			permits.release();
+		return msg;
+	}
+
+	public Policy getPolicy(){
+		return policy;
+	}
+
+	public int getHighWaterMark(){
+		return highWaterMark.get();
+	}
+
+	public long getRejected(){
+		return rejected.get();
+	}
+
+	void setTaken(long taken){
+		this.taken = taken;
+	}
+
+	long getTaken(){
+		return taken;
+	}
+}
@@ -0,0 +1,58 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the mailbox counters of all the micro services of a single class, collected so that mailbox capacities can be
+ * sized from real runs.
+ *
+ * @param mailboxes : how many mailboxes were recorded
+ * @param highWaterMark : the largest depth any of them reached
+ * @param rejected : how many requests all of them rejected together
+ */
+public class MailboxStats {
+
+	private final AtomicInteger mailboxes;
+	private final AtomicInteger highWaterMark;
+	private final AtomicLong rejected;
+
+	public MailboxStats(){
+		mailboxes = new AtomicInteger(0);
+		highWaterMark = new AtomicInteger(0);
+		rejected = new AtomicLong(0);
+	}
+
+	// adds the counters of a single mailbox
+	public void record(Mailbox queue){
+		merge(1, queue.getHighWaterMark(), queue.getRejected());
+	}
+
+	// adds the counters of other stats
+	public void add(MailboxStats other){
+		merge(other.getMailboxes(), other.getHighWaterMark(), other.getRejected());
+	}
+
+	private void merge(int count, int peak, long rejectedCount){
+		mailboxes.addAndGet(count);
+		highWaterMark.accumulateAndGet(peak, Math::max);
+		rejected.addAndGet(rejectedCount);
+	}
+
+	public int getMailboxes(){
+		return mailboxes.get();
+	}
+
+	public int getHighWaterMark(){
+		return highWaterMark.get();
+	}
+
+	public long getRejected(){
+		return rejected.get();
+	}
+
+	@Override
+	public String toString(){
+		return mailboxes+" mailboxes, max depth "+highWaterMark+", rejected requests "+rejected;
+	}
+}
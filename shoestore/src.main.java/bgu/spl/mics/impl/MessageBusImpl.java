@@ -1,20 +1,39 @@
 package bgu.spl.mics.impl;
 
+import bgu.spl.mics.AbstractRequest;
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.KeyedBroadcast;
 import bgu.spl.mics.Message;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.Request;
 import bgu.spl.mics.RequestCompleted;
-import java.util.concurrent.LinkedBlockingQueue;
+import bgu.spl.mics.Callback;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 public class MessageBusImpl implements bgu.spl.mics.MessageBus {
-	private ConcurrentHashMap<MicroService,LinkedBlockingQueue<Message>> micServiceMap; 
-	private ConcurrentHashMap<Class<? extends Request>,roundRobin> requestMap;
-	private ConcurrentHashMap<Class<? extends Broadcast>,roundRobin> broadcastMap;
-	private ConcurrentHashMap<Request,MicroService> askersMap;
+	private ConcurrentHashMap<MicroService,Mailbox> micServiceMap; 
+	private ConcurrentHashMap<Class<? extends Request>,SubscriberList> requestMap;
+	private ConcurrentHashMap<Class<? extends Broadcast>,SubscriberList> broadcastMap;
+	private ConcurrentHashMap<Class<? extends KeyedBroadcast>,ConcurrentHashMap<Object,SubscriberList>> keyedBroadcastMap;
+	private ConcurrentHashMap<Request<?>,PendingRequest<?>> pendingMap;
 	private ConcurrentHashMap<MicroService,Object> lockMap; 
+	private ConcurrentHashMap<MicroService,Set<SubscriberList>> subscriptionsMap;
+	private ConcurrentHashMap<Class<? extends MicroService>,Mailbox.Policy> policyMap;
+	private ConcurrentHashMap<Class<? extends Request<?>>,DispatchPolicy> dispatchMap;
+	private ConcurrentHashMap<Class<? extends MicroService>,MailboxStats> statsMap;
+	private volatile AtomicLong inFlight;
+	private final Object quiescence;
+	private volatile LatencyRecorder latency;
+	private volatile BusMetrics metrics;
 	
 	/**
 	 * Constructor of the message bus implementation
@@ -22,19 +41,38 @@ public class MessageBusImpl implements bgu.spl.mics.MessageBus {
 	 * @param micServiceMap : a hash that saves for each microService: the queue of awaiting tasks to work on
 	 * @param requestMap :a hash that saves each request CLASS :list of the microServices that receive it
 	 * @param broadcastMap : a hash the saves each broadcast TYPE :list of the microServices that receive it
-	 * @param askersMap: a hash that saves for each message, who is the requester who asked for it
+	 * @param keyedBroadcastMap : a hash that saves for each keyed broadcast TYPE: a hash of key: list of the microServices that receive it
+	 * @param pendingMap: a hash that saves for each request that is not completed yet, who asked for it and how to hand him the result,
+	 * 				only for requests that do not carry this in their own slot (see AbstractRequest)
 	 * @param lockMap : a hash of locks for each micro services used for synchronization
+	 * @param subscriptionsMap : a hash that saves for each microService: the lists it is subscribed to (the reverse of the three maps above)
+	 * @param dispatchMap : a hash that saves for each request CLASS how to choose the microService that receives it (round robin if missing)
+	 * @param policyMap : a hash that saves for each micro service class the capacity and overflow of its mailboxes (unbounded if missing)
+	 * @param statsMap : a hash that saves for each micro service class the peak depth and rejected requests of its past mailboxes
+	 * @param inFlight : the number of messages that were added to a queue and not handled yet, over all the queues
+	 * 				(null unless countInFlight was called, since every sender and receiver would update it)
+	 * @param quiescence : notified when inFlight drops to 0
+	 * @param latency : records where the time of the requests goes (null when the latencies are not recorded)
+	 * @param metrics : the counters of every registered micro service (null when they are not kept)
 	 * 
 	 */
-	private MessageBusImpl(){	
-		micServiceMap= new ConcurrentHashMap<MicroService,LinkedBlockingQueue<Message>>();
-		requestMap = new ConcurrentHashMap<Class<? extends Request>,roundRobin>();
-		broadcastMap = new ConcurrentHashMap<Class<? extends Broadcast>,roundRobin>();
-		askersMap = new ConcurrentHashMap<Request,MicroService>();	
+	public MessageBusImpl(){	
+		micServiceMap= new ConcurrentHashMap<MicroService,Mailbox>();
+		requestMap = new ConcurrentHashMap<Class<? extends Request>,SubscriberList>();
+		broadcastMap = new ConcurrentHashMap<Class<? extends Broadcast>,SubscriberList>();
+		keyedBroadcastMap = new ConcurrentHashMap<Class<? extends KeyedBroadcast>,ConcurrentHashMap<Object,SubscriberList>>();
+		pendingMap = new ConcurrentHashMap<Request<?>,PendingRequest<?>>();	
 		lockMap = new ConcurrentHashMap<MicroService,Object>(); 
+		subscriptionsMap = new ConcurrentHashMap<MicroService,Set<SubscriberList>>();
+		policyMap = new ConcurrentHashMap<Class<? extends MicroService>,Mailbox.Policy>();
+		dispatchMap = new ConcurrentHashMap<Class<? extends Request<?>>,DispatchPolicy>();
+		statsMap = new ConcurrentHashMap<Class<? extends MicroService>,MailboxStats>();
+		inFlight = null;
+		quiescence = new Object();
 	}
 	/**
-	 * singleton for constructor
+	 * singleton for constructor - the message bus of the default simulation, a simulation that runs next to other
+	 * simulations in the same JVM creates its own message bus instead
 	 */
 	private static class singletonHolder{
 		private static MessageBusImpl msgBus = new MessageBusImpl();
@@ -50,118 +88,550 @@ public class MessageBusImpl implements bgu.spl.mics.MessageBus {
 	
     public void subscribeRequest(Class<? extends Request> type, MicroService m){
 	    	// if this type of request doesn't exist, create it
-	    	requestMap.putIfAbsent(type, new roundRobin());
+	    	SubscriberList list = requestMap.computeIfAbsent(type, k -> new SubscriberList());
 	    	
 	    	// if this microService is already in the list, don't add it. otherwise add it
-	    	if (!requestMap.get(type).contains(m))
-	    		requestMap.get(type).add(m);
+	    	subscribe(list, m);
     }
 
 
     public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m){
 
 		// if this type of request doesn't exist, create it
-		broadcastMap.putIfAbsent(type, new roundRobin());
+		SubscriberList list = broadcastMap.computeIfAbsent(type, k -> new SubscriberList());
+		
+		// a MS subscribed to some keys of the type would get those broadcasts twice
+		if (hasKeyedSubscription(type, m))
+			throw new IllegalStateException(m.getName()+" is subscribed to keys of "+type.getSimpleName()+", unsubscribe them first");
 		
 		// if this microService is already in the list, don't add it. otherwise add it
-		if (!broadcastMap.get(type).contains(m))
-			broadcastMap.get(type).add(m);
+		subscribe(list, m);
+    }
+
+
+
+    public void subscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m){
+    	// a MS subscribed to the whole type gets these broadcasts already
+    	SubscriberList all = broadcastMap.get(type);
+    	Set<SubscriberList> subscriptions = subscriptionsMap.get(m);
+    	if (all!=null && subscriptions!=null && subscriptions.contains(all))
+    		throw new IllegalStateException(m.getName()+" is subscribed to all of "+type.getSimpleName()+", it cannot subscribe to a key");
+    	
+    	// inverted index: broadcast type -> key -> interested microServices
+    	subscribe(keyedBroadcastMap.computeIfAbsent(type, k -> new ConcurrentHashMap<Object,SubscriberList>())
+    		.computeIfAbsent(key, k -> new SubscriberList()), m);
+    }
+
+
+    // true if m is subscribed to at least one key of the type
+    private boolean hasKeyedSubscription(Class<? extends Broadcast> type, MicroService m){
+    	ConcurrentHashMap<Object,SubscriberList> keys = keyedBroadcastMap.get(type);
+    	Set<SubscriberList> subscriptions = subscriptionsMap.get(m);
+    	if (keys==null || subscriptions==null)
+    		return false;
+    	for (SubscriberList list : keys.values())
+    		if (subscriptions.contains(list))
+    			return true;
+    	return false;
+    }
+
+
+    // adds m to the list unless it is already subscribed to it, and remembers the list for m's unregistration
+    private void subscribe(SubscriberList list, MicroService m){
+    	Set<SubscriberList> subscriptions = subscriptionsMap.computeIfAbsent(m, k -> ConcurrentHashMap.<SubscriberList>newKeySet());
+    	if (subscriptions.add(list))
+    		list.add(m);
+    }
+
+
+    public void unsubscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m){
+    	ConcurrentHashMap<Object,SubscriberList> keys = keyedBroadcastMap.get(type);
+    	if (keys!=null){
+    		SubscriberList list = keys.get(key);
+    		Set<SubscriberList> subscriptions = subscriptionsMap.get(m);
+    		if (list!=null && subscriptions!=null && subscriptions.remove(list))
+    			list.remove(m);
+    	}
     }
 
       
+    @SuppressWarnings("unchecked")
     public <T> void complete(Request<T> r, T result){
-    	RequestCompleted<T> compReq = new RequestCompleted<T>(r,result);
-    	MicroService asker = askersMap.get(r); 
-    	LinkedBlockingQueue<Message> asker_list = micServiceMap.get(asker);
-    	asker_list.offer(compReq);
-    		//add to the requester queue the reqCompleted message
-    	//removes the completed request from askersMap
+    	PendingRequest<T> pending = (PendingRequest<T>) takePending(r); //the request is released as soon as it completes
+    	if (pending==null) // never sent through the bus or already completed
+    		return;
+    	LatencyRecorder recorder = latency;
+    	long completed = 0;
+    	if (recorder!=null){
+    		completed = System.nanoTime();
+    		recorder.completed(r, pending, completed);
+    	}
+    	if (pending.getFuture()!=null){
+    		pending.getFuture().complete(result);
+    		return;
+    	}
+    	Mailbox asker_list = micServiceMap.get(pending.getRequester());
+    	if (asker_list!=null) // the requester may have unregistered in the meantime
+    		asker_list.offer(new RequestCompleted<T>(r,result,pending.getCallback(),completed)); //add to the requester queue the reqCompleted message
     }
 
 
     public void sendBroadcast(Broadcast b){
-    	if (broadcastMap.containsKey(b.getClass())){ 
-    		roundRobin broadcastList = broadcastMap.get(b.getClass()); //list of interested MS in broadcast
+    	deliver(b, broadcastMap.get(b.getClass())); //list of interested MS in broadcast
+    	if (b instanceof KeyedBroadcast){
+    		ConcurrentHashMap<Object,SubscriberList> keys = keyedBroadcastMap.get(b.getClass());
+    		if (keys!=null)
+    			deliver(b, keys.get(((KeyedBroadcast) b).getKey())); //only the MS interested in this key
+    	}
+    }
 
-    		for (MicroService m : broadcastList.getFirst()){ // send broadcast to all MS in the first list
-    			synchronized(micServiceMap.get(m)){
-    				micServiceMap.get(m).offer(b);
-    			}
-    		}
-    		for (MicroService m : broadcastList.getSecond()){ // send broadcast to the other part of the list 
-    			synchronized(micServiceMap.get(m)){
-    				micServiceMap.get(m).offer(b);
-    			}
+
+    private void deliver(Broadcast b, SubscriberList broadcastList){
+    	if (broadcastList!=null){ 
+    		for (MicroService m : broadcastList.snapshot()){ // send broadcast to every MS in the current snapshot
+    			Mailbox queue = micServiceMap.get(m);
+    			if (queue!=null) // MS may have unregistered after the snapshot was taken
+    				queue.offer(b);
     		}
     	}
     }
 
 
     public boolean sendRequest(Request<?> r, MicroService requester){
-    	if (!requestMap.containsKey(r.getClass()))
-    		return false;
-    	if (!isRegistered(requester) || requestMap.get(r.getClass()).isEmpty()){ //the requester has unregistered, or none interested in this kind of message
+    	return sendRequest(r, requester, null);
+    }
+
+
+    public <T> boolean sendRequest(Request<T> r, MicroService requester, Callback<T> onComplete){
+    	return dispatch(r, requester, new PendingRequest<T>(requester, onComplete));
+    }
+
+
+    public <T> CompletableFuture<T> sendRequestAsync(Request<T> r, MicroService requester){
+    	CompletableFuture<T> future = new CompletableFuture<T>();
+    	if (dispatch(r, requester, new PendingRequest<T>(requester, future)))
+    		return future;
+    	return null;
+    }
+
+
+    /**
+     * makes {@code requester} wait for {@code r} again without sending it, when a simulation is resumed from a
+     * checkpoint and the handler already holds {@code r}. completing {@code r} hands the result to {@code onComplete}
+     * in the requester's event loop, as if {@code r} was sent with it.
+     */
+    public <T> void restoreRequest(Request<T> r, MicroService requester, Callback<T> onComplete){
+    	putPending(r, new PendingRequest<T>(requester, onComplete));
+    }
+
+
+    // stores the completion slot of r, on r itself if it has room for it
+    @SuppressWarnings("unchecked")
+    private <T> void putPending(Request<T> r, PendingRequest<T> pending){
+    	if (r instanceof AbstractRequest)
+    		((AbstractRequest<T>) r).setSlot(pending);
+    	else
+    		pendingMap.put(r, pending);
+    }
+
+
+    // removes the completion slot of r, null if r is not pending (never sent through the bus or already completed)
+    private PendingRequest<?> takePending(Request<?> r){
+    	if (r instanceof AbstractRequest)
+    		return ((AbstractRequest<?>) r).takeSlot();
+    	return pendingMap.remove(r);
+    }
+
+
+    private PendingRequest<?> getPending(Request<?> r){
+    	if (r instanceof AbstractRequest)
+    		return ((AbstractRequest<?>) r).getSlot();
+    	return pendingMap.get(r);
+    }
+
+
+    /**
+     * @return the round robin position of the handlers of {@code type}, 0 if nobody subscribed to it
+     */
+    public int getDispatchCursor(Class<? extends Request<?>> type){
+    	SubscriberList handlers = requestMap.get(type);
+    	return handlers==null ? 0 : handlers.getCursor();
+    }
+
+
+    /**
+     * sets the round robin position of the handlers of {@code type}, so a resumed simulation picks the same
+     * handlers as the one it was checkpointed from. called after the handlers subscribed.
+     */
+    public void setDispatchCursor(Class<? extends Request<?>> type, int position){
+    	SubscriberList handlers = requestMap.get(type);
+    	if (handlers!=null)
+    		handlers.setCursor(position);
+    }
+
+
+    // adds the request to the queue of the next handler, the pending slot is stored before the handler can see the request
+    private <T> boolean dispatch(Request<T> r, MicroService requester, PendingRequest<T> pending){
+    	LatencyRecorder recorder = latency;
+    	long sent = recorder==null ? 0 : System.nanoTime();
+    	SubscriberList handlers = requestMap.get(r.getClass());
+    	if (handlers==null || !isRegistered(requester)) //none interested in this kind of message, or the requester has unregistered
     		return false;
-    	}
-    	else {
-    		MicroService reqHandler = requestMap.get(r.getClass()).popFromQueue(); //remove from list until finds a registered user
-    		synchronized(lockMap.get(reqHandler)){	    			 // add to the handlers message list
+    	DispatchPolicy policy = dispatchMap.getOrDefault(r.getClass(), RoundRobinDispatch.INSTANCE);
+    	// every live subscriber is tried at most once, one that unregisters meanwhile is skipped until one registered handler is found
+    	for (int attempt = 0; attempt<handlers.size(); attempt++){
+    		MicroService reqHandler = policy.choose(handlers, r, attempt, this);
+    		if (reqHandler==null) // the last subscriber unregistered in the meantime
+    			return false;
+    		Object lock = lockMap.get(reqHandler);
+    		Mailbox queue = micServiceMap.get(reqHandler);
+    		if (lock==null || queue==null)
+    			continue;
+    		// room is reserved before locking, a sender waiting for room must not block the handler's unregistration
+    		if (!reserve(queue, requester)){
+    			if (queue.getPolicy().getOverflow()==Mailbox.Overflow.SPILL)
+    				continue;
+    			return false;
+    		}
+    		synchronized(lock){	    			 // add to the handlers message list
 	        	if (isRegistered(reqHandler)){
-	            	askersMap.put(r,requester); // add the requester (for oncomplete) 
-	    			micServiceMap.get(reqHandler).offer(r);
+	        		if (recorder!=null)
+	        			pending.sent(recorder.getTick(), sent, System.nanoTime());
+	            	putPending(r,pending); // add the requester (for oncomplete) 
+	    			queue.offer(r);
 	            	return true;
 	    		}
     		}
-    		while (!requestMap.get(r.getClass()).isEmpty() && !isRegistered(reqHandler)){ 
-    	    		reqHandler = requestMap.get(r.getClass()).popFromQueue();
-    	        	synchronized(lockMap.get(reqHandler)){
-    	        		if (isRegistered(reqHandler)){ // add to the handlers message list
-    	               		askersMap.put(r,requester); // add the requester (for oncomplete) 
-    	        			micServiceMap.get(reqHandler).offer(r);
-    	               		return true;
-    	        		}
-    				}	
-    		}
-    		return false;
+    		queue.cancelReservation();
+    	}
+    	return false;
 
-    			// NOTE: code design allowing to send multiple messages to other people
-    			// 		 multiple messages to the same MS are synchronized one by one
-    			// edge case: 2 MS trying to add message to unregistered user, one must wait until the first MS to lock on the unregistered will find a new registered usr
-    	} 	
+		// NOTE: picking the handler never locks, only the chosen handler is locked while its queue is filled
+		// 		 multiple messages to the same MS are synchronized one by one
+		// edge case: a handler that unregistered after being picked is skipped and the next one is tried
+    }
+
+
+    // reserves room for a request in a bounded mailbox, the time the requester waits for it is counted
+    private boolean reserve(Mailbox queue, MicroService requester){
+    	BusMetrics counters = metrics;
+    	if (counters==null || !queue.getPolicy().isBounded())
+    		return queue.reserve();
+    	ServiceMetrics requesterMetrics = counters.get(requester);
+    	long waiting = System.nanoTime();
+    	boolean reserved = queue.reserve();
+    	if (requesterMetrics!=null)
+    		requesterMetrics.blocked(System.nanoTime()-waiting);
+    	return reserved;
     }
 
 
     public void register(MicroService m){
     	//add to microService [messages waiting for him]
        	if (!isRegistered(m)){
-	    	micServiceMap.putIfAbsent(m, new LinkedBlockingQueue<Message>());
-	    	lockMap.put(m, new Object()); //new lock
+	    	lockMap.putIfAbsent(m, new Object()); //new lock, before the queue so a registered MS always has one
+	    	micServiceMap.putIfAbsent(m, new Mailbox(getMailboxPolicy(m.getClass()), inFlight));
+	    	BusMetrics counters = metrics;
+	    	Mailbox queue = micServiceMap.get(m);
+	    	if (counters!=null && queue!=null)
+	    		counters.add(m, queue);
        	}
     }
 
 
     public void unregister(MicroService m){
-    	synchronized(lockMap.get(m)){
-    			micServiceMap.get(m).clear();   //removes all messages to the microservice from the list 
+    	Object lock = lockMap.get(m);
+    	if (lock==null) // was not registered
+    		return;
+    	ArrayList<Message> dropped = new ArrayList<Message>();
+    	synchronized(lock){
+    			Mailbox queue = micServiceMap.get(m);
+    			if (queue==null) // already unregistered
+    				return;
+    			statsMap.computeIfAbsent(m.getClass(), k -> new MailboxStats()).record(queue);
+    			if (queue.close(dropped))   //removes all messages to the microservice from the list and releases waiting senders
+    				quiescent();
     			micServiceMap.remove(m); // remove the list
     		
-    		//DELETE APPEARNCES IN REQUESTS LISTS 
-    		for(Class<? extends Request> iter : requestMap.keySet() )
-    			requestMap.get(iter).remove(m); // deletes if present in list
-    		
-    		//DELETE APPEARENCES IN BROADCAST LISTS
-    		for(Class<? extends Broadcast> iter : broadcastMap.keySet())
-    			broadcastMap.get(iter).remove(m); // deletes if present in list
+    		//DELETE APPEARANCES IN THE REQUEST AND BROADCAST LISTS IT SUBSCRIBED TO (and only in them)
+    		BusMetrics counters = metrics;
+    		if (counters!=null)
+    			counters.remove(m);
+    		Set<SubscriberList> subscriptions = subscriptionsMap.remove(m);
+    		if (subscriptions!=null)
+    			for (SubscriberList list : subscriptions)
+    				list.purge(m);
+    	}
+    	lockMap.remove(m);
+    	release(dropped);
+    }
+
+
+    // releases the completion slots of the requests that a micro service dropped from its queue or its batch when it
+    // terminated, they will never be completed. a requester that waits on a future sees it cancelled
+    private void release(Collection<Message> dropped){
+    	for (Message msg : dropped){
+    		if (!(msg instanceof Request))
+    			continue;
+    		PendingRequest<?> pending = takePending((Request<?>) msg);
+    		if (pending!=null && pending.getFuture()!=null)
+    			pending.getFuture().cancel(false);
     	}
     }
 	
     
 
     public Message awaitMessage(MicroService m) throws InterruptedException{
-    	if (isRegistered(m))
-    		return micServiceMap.get(m).take();
-    	else
+    	Mailbox queue = micServiceMap.get(m);
+    	if (queue==null)
     		return null; // MS has unregistered
+    	Message msg = queue.take();
+    	if (latency!=null)
+    		queue.setTaken(System.nanoTime());
+    	return msg;
+    }
+
+
+    public int awaitMessages(MicroService m, Collection<? super Message> batch, int max) throws InterruptedException{
+    	Mailbox queue = micServiceMap.get(m);
+    	if (queue==null || max<=0)
+    		return 0; // MS has unregistered
+    	batch.add(queue.take());
+    	int n = 1+queue.drainTo(batch, max-1); //the rest of the batch is taken without blocking
+    	if (latency!=null)
+    		queue.setTaken(System.nanoTime());
+    	return n;
+    }
+
+
+    /**
+     * the non blocking version of {@link #awaitMessages(MicroService, Collection, int)}.
+     * @return the number of messages added to {@code batch}, 0 if the queue is empty or {@code m} is not registered
+     */
+    public int drainMessages(MicroService m, Collection<? super Message> batch, int max){
+    	Mailbox queue = micServiceMap.get(m);
+    	if (queue==null)
+    		return 0;
+    	int n = queue.drainTo(batch, max);
+    	if (n>0 && latency!=null)
+    		queue.setTaken(System.nanoTime());
+    	return n;
+    }
+
+
+    /**
+     * sets the listener that is run every time a message is added to {@code m}'s queue (see {@link Mailbox}).
+     * @param m        a registered micro-service
+     * @param listener the wake-up listener
+     * @return true if there are messages already waiting in the queue (they did not trigger the listener)
+     */
+    public boolean setWakeUp(MicroService m, Runnable listener){
+    	Mailbox queue = micServiceMap.get(m);
+    	if (queue==null)
+    		return false;
+    	queue.setListener(listener);
+    	return !queue.isEmpty();
+    }
+
+
+    /**
+     * sets the policy that chooses which subscriber receives requests of class {@code type}.
+     * @param type   the request class
+     * @param policy the dispatch policy
+     */
+    public void setDispatchPolicy(Class<? extends Request<?>> type, DispatchPolicy policy){
+    	dispatchMap.put(type, policy);
+    }
+
+
+    /**
+     * @param m a micro-service
+     * @return the number of messages waiting in {@code m}'s queue, or -1 if {@code m} is not registered
+     */
+    public int queueDepth(MicroService m){
+    	Mailbox queue = micServiceMap.get(m);
+    	return queue!=null ? queue.size() : -1;
+    }
+
+
+    /**
+     * sets the capacity and overflow of the mailboxes of micro-services of class {@code type}.
+     * only mailboxes of micro-services that register after this call are affected.
+     * @param type   the micro-service class
+     * @param policy the mailbox policy
+     */
+    public void setMailboxPolicy(Class<? extends MicroService> type, Mailbox.Policy policy){
+    	policyMap.put(type, policy);
+    }
+
+
+    /**
+     * @return the policy of the mailboxes of micro-services of class {@code type} that register from now on
+     */
+    public Mailbox.Policy getMailboxPolicy(Class<? extends MicroService> type){
+    	return policyMap.getOrDefault(type, Mailbox.Policy.UNBOUNDED);
+    }
+
+
+    /**
+     * logs for every micro-service class the largest mailbox depth seen and how many requests were rejected,
+     * both for the mailboxes that were already unregistered and the live ones.
+     */
+    public void printMailboxStats(){
+    	ConcurrentHashMap<Class<? extends MicroService>,MailboxStats> all = new ConcurrentHashMap<Class<? extends MicroService>,MailboxStats>();
+    	for (Class<? extends MicroService> type : statsMap.keySet())
+    		all.computeIfAbsent(type, k -> new MailboxStats()).add(statsMap.get(type));
+    	for (MicroService m : micServiceMap.keySet()){
+    		Mailbox queue = micServiceMap.get(m);
+    		if (queue!=null)
+    			all.computeIfAbsent(m.getClass(), k -> new MailboxStats()).record(queue);
+    	}
+    	for (Class<? extends MicroService> type : all.keySet())
+    		Logger.getLogger("logger").log(Level.INFO, "mailboxes of "+type.getSimpleName()+": "+all.get(type));
+    }
+
+
+    /**
+     * starts recording the latencies of the requests sent from now on, replacing the previous recorder.
+     * @param recorder the recorder, or null to stop recording (the default)
+     */
+    public void setLatencyRecorder(LatencyRecorder recorder){
+    	latency = recorder;
+    }
+
+
+    public LatencyRecorder getLatencyRecorder(){
+    	return latency;
+    }
+
+
+    /**
+     * starts keeping the counters of the micro services that register from now on (see {@link BusMetrics}).
+     * @param metrics the metrics of this message bus, or null to stop keeping them (the default)
+     */
+    public void setMetrics(BusMetrics metrics){
+    	this.metrics = metrics;
+    }
+
+
+    public BusMetrics getMetrics(){
+    	return metrics;
+    }
+
+
+    /**
+     * @return the counters {@code m}'s event loop keeps, null if the metrics are not kept or {@code m} registered before they were
+     */
+    public ServiceMetrics getMetrics(MicroService m){
+    	BusMetrics counters = metrics;
+    	return counters==null ? null : counters.get(m);
+    }
+
+
+    /**
+     * called by {@code m}'s event loop right before it gives {@code r} to its callback, stamps the request when the
+     * latencies are recorded.
+     * @param r a request {@code m} took from its queue
+     * @param m the micro-service handling it
+     */
+    public void started(Request<?> r, MicroService m){
+    	if (latency==null)
+    		return;
+    	PendingRequest<?> pending = getPending(r);
+    	Mailbox queue = micServiceMap.get(m);
+    	if (pending!=null && queue!=null)
+    		pending.started(queue.getTaken(), System.nanoTime());
+    }
+
+
+    /**
+     * called by a requester's event loop right before it gives the result of {@code completed} to its callback,
+     * records the reply when the latencies are recorded.
+     */
+    public void replied(RequestCompleted<?> completed){
+    	LatencyRecorder recorder = latency;
+    	if (recorder!=null && completed.getCompletedNanos()!=0)
+    		recorder.replied(completed.getCompletedRequest(), completed.getCompletedNanos(), System.nanoTime());
+    }
+
+
+    /**
+     * called by {@code m}'s event loop after it handled {@code n} messages it took from its queue (see {@link Mailbox#handled(int)}).
+     * @param m a micro-service
+     * @param n the number of messages, including the ones that were dropped since {@code m} terminated
+     */
+    public void handled(MicroService m, int n){
+    	Mailbox queue = micServiceMap.get(m);
+    	if (queue!=null && n>0 && queue.handled(n))
+    		quiescent();
+    }
+
+
+    /**
+     * called by {@code m}'s event loop after it handled the first {@code n} messages of {@code batch}, which it took
+     * from its queue. the rest were not handled since {@code m} terminated: their requests are released like the
+     * ones left in the queue when {@code m} unregisters, so a requester waiting on a future sees it cancelled.
+     * @param m a micro-service
+     * @param batch the messages {@code m} took from its queue
+     * @param n the number of messages of {@code batch} it handled
+     */
+    public void handled(MicroService m, List<Message> batch, int n){
+    	if (n<batch.size())
+    		release(batch.subList(n, batch.size()));
+    	handled(m, batch.size());
+    }
+
+
+    private void quiescent(){
+    	synchronized(quiescence){
+    		quiescence.notifyAll();
+    	}
+    }
+
+
+    /**
+     * starts counting the messages that are in flight, which {@link #awaitQuiescence()} waits on. the count is a
+     * single counter that every send and every handled batch updates, so it is kept only when someone waits on it.
+     * must be called before the micro-services register, the mailboxes that were created before are not counted.
+     */
+    public synchronized void countInFlight(){
+    	if (inFlight==null)
+    		inFlight = new AtomicLong(0);
+    }
+
+
+    /**
+     * waits until every message that was sent is handled: all the queues are empty and no micro-service is in the
+     * middle of a callback. requests that were handled but not completed yet (e.g. a manufacturing order that is
+     * completed on a later tick) do not count, only the messages themselves.
+     * messages that are sent before this method returns are waited for as well, so it should be called only when
+     * nothing outside the micro-services keeps sending (the timer, between ticks).
+     * @throws IllegalStateException if the message bus does not count the messages in flight (see {@link #countInFlight()})
+     */
+    public void awaitQuiescence() throws InterruptedException{
+    	AtomicLong counted = inFlight;
+    	if (counted==null)
+    		throw new IllegalStateException("the messages in flight are not counted, see countInFlight");
+    	synchronized(quiescence){
+    		while (counted.get()!=0)
+    			quiescence.wait();
+    	}
+    }
+
+
+    /**
+     * @return the number of messages that were sent and not handled yet, -1 if they are not counted
+     */
+    public long getInFlight(){
+    	AtomicLong counted = inFlight;
+    	return counted==null ? -1 : counted.get();
+    }
+
+
+    // true if m is registered and has messages waiting in its queue
+    public boolean hasMessages(MicroService m){
+    	Mailbox queue = micServiceMap.get(m);
+    	return queue!=null && !queue.isEmpty();
     }
     
     
@@ -174,19 +644,25 @@ public class MessageBusImpl implements bgu.spl.mics.MessageBus {
     
     //************* THE FOLLOWING METHODS ARE USED ONLY! FOR THE J-UNIT TESTS!!! *******************************
     
-    public ConcurrentHashMap<MicroService,LinkedBlockingQueue<Message>> getMicroMap(){
+    public ConcurrentHashMap<MicroService,Mailbox> getMicroMap(){
     	return micServiceMap;
     }
     
-    public ConcurrentHashMap<Class<? extends Request>,roundRobin> getRequestMap(){
+    public ConcurrentHashMap<Class<? extends Request>,SubscriberList> getRequestMap(){
     	return requestMap;
     }
     
-    public ConcurrentHashMap<Class<? extends Broadcast>,roundRobin> getBroadcastMap(){
+    public ConcurrentHashMap<Class<? extends Broadcast>,SubscriberList> getBroadcastMap(){
     	return broadcastMap;
     }
-    public ConcurrentHashMap<Request,MicroService> getAskerMap(){
-    	return askersMap;
+    public Mailbox getMailbox(MicroService m){
+    	return micServiceMap.get(m);
+    }
+    public ConcurrentHashMap<Request<?>,PendingRequest<?>> getPendingMap(){
+    	return pendingMap;
+    }
+    public PendingRequest<?> getPendingRequest(Request<?> r){
+    	return getPending(r);
     }
      
     
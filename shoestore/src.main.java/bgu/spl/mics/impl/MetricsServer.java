@@ -0,0 +1,57 @@
+package bgu.spl.mics.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * serves the metrics of a message bus at http://localhost:port/metrics in the Prometheus text format, so a running
+ * simulation can be watched with curl or scraped by Prometheus. the server only listens on the loopback address
+ * and answers on a single thread of its own.
+ *
+ * @param server : the http server
+ */
+public class MetricsServer {
+
+	private final HttpServer server;
+
+	/**
+	 * starts serving the metrics
+	 * @param metrics the metrics to serve
+	 * @param port    the port to listen on, 0 for any free port (see {@link #getPort()})
+	 */
+	public MetricsServer(BusMetrics metrics, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			try (PrintWriter out = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8))) {
+				metrics.write(out);
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.size());
+			try (OutputStream out = exchange.getResponseBody()) {
+				body.writeTo(out);
+			}
+		});
+		server.setExecutor(null); // the server's own thread
+		server.start();
+	}
+
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * stops serving, a scrape in progress is given a second to finish
+	 */
+	public void stop(){
+		server.stop(1);
+	}
+}
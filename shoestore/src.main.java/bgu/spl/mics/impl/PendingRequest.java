@@ -0,0 +1,87 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.CompletableFuture;
+
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.MicroService;
+
+/**
+ * the completion slot of a request that was sent and is not completed yet.
+ * it is created once when the request is sent and removed from the message bus as soon as the request is completed,
+ * so completing a request is a single hand-off: either the callback travels back to the requester's queue
+ * inside the {@link bgu.spl.mics.RequestCompleted} message, or the future is completed directly.
+ *
+ * @param requester : the micro service that sent the request
+ * @param onComplete : the callback to run in the requester's event loop (null when a future is used)
+ * @param future : the future to complete with the result (null when a callback is used)
+ * @param tick, sent, enqueued, taken, started : when the request was sent (the tick of the LatencyRecorder and
+ * 			System.nanoTime), added to the handler's queue, taken from it and given to the handler's callback, only
+ * 			set while the message bus records latencies. each one is written by a single thread and read after a
+ * 			hand-off through a queue, so they are plain fields
+ */
+public class PendingRequest<T> {
+
+	private final MicroService requester;
+	private final Callback<T> onComplete;
+	private final CompletableFuture<T> future;
+	private int tick;
+	private long sent;
+	private long enqueued;
+	private long taken;
+	private long started;
+
+	public PendingRequest(MicroService requester, Callback<T> onComplete){
+		this.requester = requester;
+		this.onComplete = onComplete;
+		this.future = null;
+	}
+
+	public PendingRequest(MicroService requester, CompletableFuture<T> future){
+		this.requester = requester;
+		this.onComplete = null;
+		this.future = future;
+	}
+
+	public MicroService getRequester(){
+		return requester;
+	}
+
+	public Callback<T> getCallback(){
+		return onComplete;
+	}
+
+	public CompletableFuture<T> getFuture(){
+		return future;
+	}
+
+	void sent(int tick, long sent, long enqueued){
+		this.tick = tick;
+		this.sent = sent;
+		this.enqueued = enqueued;
+	}
+
+	void started(long taken, long started){
+		this.taken = taken;
+		this.started = started;
+	}
+
+	int getTick(){
+		return tick;
+	}
+
+	long getSent(){
+		return sent;
+	}
+
+	long getEnqueued(){
+		return enqueued;
+	}
+
+	long getTaken(){
+		return taken;
+	}
+
+	long getStarted(){
+		return started;
+	}
+}
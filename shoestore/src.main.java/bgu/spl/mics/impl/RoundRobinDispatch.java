@@ -0,0 +1,18 @@
+package bgu.spl.mics.impl;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+
+/**
+ * the default dispatch policy: the subscribers receive requests in turns, regardless of their load.
+ */
+public class RoundRobinDispatch implements DispatchPolicy {
+
+	public static final RoundRobinDispatch INSTANCE = new RoundRobinDispatch();
+
+	@Override
+	public MicroService choose(SubscriberList handlers, Request<?> r, int attempt, MessageBusImpl bus){
+		return handlers.next();
+	}
+
+}
@@ -0,0 +1,184 @@
+package bgu.spl.mics.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.RequestCompleted;
+
+/**
+ * the counters of a single micro service while it is registered, kept by its event loop and read at any time (see
+ * BusMetrics). every counter has a single writer, the thread running the micro service at the moment, so they are
+ * published with lazySet instead of a locked increment and a reader may see them a moment late.
+ *
+ * @param service : the micro service
+ * @param queue : its mailbox, read for the gauges
+ * @param registered : when the micro service registered (System.nanoTime)
+ * @param handled : for each message type, how many were handled and how long their callbacks took
+ * @param results : the same for the results of the requests the micro service sent, by request type
+ * @param idle : the time the event loop waited for messages
+ * @param blocked : the time the micro service waited for room in a full mailbox while sending requests
+ */
+public class ServiceMetrics implements ServiceMetricsMXBean {
+
+	/**
+	 * the handled messages of one type
+	 */
+	public static class Counter {
+		private final AtomicLong count = new AtomicLong(0);
+		private final AtomicLong nanos = new AtomicLong(0);
+
+		private void add(long elapsed){
+			count.lazySet(count.get()+1);
+			nanos.lazySet(nanos.get()+elapsed);
+		}
+
+		public long getCount(){
+			return count.get();
+		}
+
+		public long getNanos(){
+			return nanos.get();
+		}
+	}
+
+	private final MicroService service;
+	private final Mailbox queue;
+	private final long registered;
+	private final ConcurrentHashMap<Class<?>,Counter> handled;
+	private final ConcurrentHashMap<Class<?>,Counter> results;
+	private final AtomicLong idle;
+	private final AtomicLong blocked;
+
+	public ServiceMetrics(MicroService service, Mailbox queue){
+		this.service = service;
+		this.queue = queue;
+		registered = System.nanoTime();
+		handled = new ConcurrentHashMap<Class<?>,Counter>();
+		results = new ConcurrentHashMap<Class<?>,Counter>();
+		idle = new AtomicLong(0);
+		blocked = new AtomicLong(0);
+	}
+
+	/**
+	 * @param msg     a message whose callback just returned
+	 * @param elapsed how long the callback took, in nanoseconds
+	 */
+	public void handled(Message msg, long elapsed){
+		ConcurrentHashMap<Class<?>,Counter> counters = handled;
+		Class<?> type = msg.getClass();
+		if (msg instanceof RequestCompleted){
+			counters = results;
+			type = ((RequestCompleted<?>) msg).getCompletedRequest().getClass();
+		}
+		Counter counter = counters.get(type);
+		if (counter==null)
+			counter = counters.computeIfAbsent(type, k -> new Counter());
+		counter.add(elapsed);
+	}
+
+	/**
+	 * @param elapsed how long the event loop waited for messages, in nanoseconds
+	 */
+	public void idle(long elapsed){
+		idle.lazySet(idle.get()+elapsed);
+	}
+
+	// called by the message bus while the micro service sends a request
+	void blocked(long elapsed){
+		blocked.lazySet(blocked.get()+elapsed);
+	}
+
+	public MicroService getService(){
+		return service;
+	}
+
+	// the counters by the simple name of the message type
+	Map<String,Counter> getHandled(){
+		return byName(handled);
+	}
+
+	Map<String,Counter> getResults(){
+		return byName(results);
+	}
+
+	private static Map<String,Counter> byName(Map<Class<?>,Counter> counters){
+		TreeMap<String,Counter> named = new TreeMap<String,Counter>();
+		for (Map.Entry<Class<?>,Counter> counter : counters.entrySet())
+			named.put(counter.getKey().getSimpleName(), counter.getValue());
+		return named;
+	}
+
+	@Override
+	public String getName(){
+		return service.getName();
+	}
+
+	@Override
+	public String getServiceClass(){
+		return service.getClass().getSimpleName();
+	}
+
+	@Override
+	public int getMailboxDepth(){
+		return queue.size();
+	}
+
+	@Override
+	public int getMailboxHighWaterMark(){
+		return queue.getHighWaterMark();
+	}
+
+	@Override
+	public long getRejectedRequests(){
+		return queue.getRejected();
+	}
+
+	@Override
+	public long getMessagesHandled(){
+		long total = 0;
+		for (Counter counter : handled.values())
+			total += counter.getCount();
+		for (Counter counter : results.values())
+			total += counter.getCount();
+		return total;
+	}
+
+	@Override
+	public double getMessagesPerSecond(){
+		return getMessagesHandled()/Math.max((System.nanoTime()-registered)/1e9, 1e-3);
+	}
+
+	@Override
+	public Map<String,Long> getHandledByType(){
+		TreeMap<String,Long> counts = new TreeMap<String,Long>();
+		for (Map.Entry<String,Counter> counter : getHandled().entrySet())
+			counts.put(counter.getKey(), counter.getValue().getCount());
+		for (Map.Entry<String,Counter> counter : getResults().entrySet())
+			counts.put(counter.getKey()+" result", counter.getValue().getCount());
+		return counts;
+	}
+
+	@Override
+	public double getCallbackMillis(){
+		long total = 0;
+		for (Counter counter : handled.values())
+			total += counter.getNanos();
+		for (Counter counter : results.values())
+			total += counter.getNanos();
+		return total/1e6;
+	}
+
+	@Override
+	public double getIdleMillis(){
+		return idle.get()/1e6;
+	}
+
+	@Override
+	public double getBlockedMillis(){
+		return blocked.get()/1e6;
+	}
+}
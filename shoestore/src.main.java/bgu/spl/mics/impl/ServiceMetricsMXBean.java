@@ -0,0 +1,37 @@
+package bgu.spl.mics.impl;
+
+import java.util.Map;
+
+/**
+ * the counters of a registered micro service as seen through JMX (e.g. in jconsole or VisualVM), see ServiceMetrics
+ */
+public interface ServiceMetricsMXBean {
+
+	String getName();
+
+	String getServiceClass();
+
+	/** the messages waiting in the mailbox right now */
+	int getMailboxDepth();
+
+	int getMailboxHighWaterMark();
+
+	long getRejectedRequests();
+
+	long getMessagesHandled();
+
+	/** the messages handled per second since the micro service registered */
+	double getMessagesPerSecond();
+
+	/** the messages handled by type, the results of the requests the micro service sent end with " result" */
+	Map<String,Long> getHandledByType();
+
+	/** the time spent in callbacks */
+	double getCallbackMillis();
+
+	/** the time spent waiting for messages */
+	double getIdleMillis();
+
+	/** the time spent waiting for room in full mailboxes while sending requests */
+	double getBlockedMillis();
+}
@@ -0,0 +1,187 @@
+package bgu.spl.mics.impl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bgu.spl.mics.MicroService;
+
+/**
+ * a subscriber list is the list of micro services subscribed to a single message type.
+ * readers see the list as an immutable array snapshot, so while the snapshot is current they never lock: picking the
+ * next request handler is a single atomic increment on a shared cursor and broadcasting is a plain iteration over
+ * the snapshot. writers change a private growable array under the list's lock and only drop the snapshot, which is
+ * copied again by the first reader that needs it. subscribing is then amortized O(1) even when a hundred thousand
+ * clients subscribe one after the other before the first tick, and the copy is paid once per change that a reader
+ * sees.
+ * <p>
+ * this gives up the wait-free dispatch of a list that is copied on every write: the first reader after a change
+ * rebuilds the snapshot under the lock, so right after a subscription or an unregistration a send may wait for a
+ * writer or for the reader that is copying. dispatch is wait-free again once the snapshot is rebuilt, which is the
+ * steady state between churn, and in exchange a subscription no longer copies the whole list.
+ * <p>
+ * micro services that unregister leave the snapshot at once, so a request is tried only on live handlers and a
+ * broadcast only iterates over live subscribers, but they are dropped from the private array lazily: they stay in
+ * it until half of it is made of them, and then they are all dropped in a single pass. this way a mass of
+ * terminating micro services costs one pass per halving instead of one per micro service, plus one copy of the
+ * snapshot per unregistration that a reader sees.
+ *
+ * @param members : the subscribed micro services, only the first count are used (changed under the lock)
+ * @param count : the number of subscribed micro services
+ * @param subscribers : the current snapshot of the members that did not depart, null when members or departed
+ * 						changed since it was taken
+ * @param cursor : round robin position, taken modulo the snapshot length on every pick
+ * @param departed : unregistered micro services that are still in members
+ */
+public class SubscriberList {
+
+	private static final MicroService[] EMPTY = new MicroService[0];
+
+	private MicroService[] members;
+	private int count;
+	private volatile MicroService[] subscribers;
+	private final AtomicInteger cursor;
+	private final HashSet<MicroService> departed;
+
+	/**
+	 * subscriber list constructor, starts with no subscribers
+	 */
+	public SubscriberList(){
+		members = new MicroService[4];
+		count = 0;
+		subscribers = EMPTY;
+		cursor = new AtomicInteger(0);
+		departed = new HashSet<MicroService>();
+	}
+
+	/**
+	 * adds {@code m} to the end of the list. the list does not look for {@code m} in it, the caller makes sure
+	 * that {@code m} is not subscribed already (the message bus keeps the subscriptions of every micro service).
+	 * @param m the subscribing micro service
+	 * @return true if {@code m} was added
+	 */
+	public synchronized boolean add(MicroService m){
+		if (departed.remove(m)){ // still in members, at its old position
+			subscribers = null;
+			return true;
+		}
+		if (count==members.length)
+			members = Arrays.copyOf(members, count*2);
+		members[count++] = m;
+		subscribers = null;
+		return true;
+	}
+
+	/**
+	 * removes {@code m} completely from the list, does nothing if it is not in it
+	 * @param m the micro service to remove
+	 * @return true if {@code m} was removed
+	 */
+	public synchronized boolean remove(MicroService m){
+		int index = -1;
+		for (int i=0; i<count && index<0; i++)
+			if (members[i]==m)
+				index = i;
+		if (index<0)
+			return false;
+		departed.remove(m);
+		System.arraycopy(members, index+1, members, index, count-index-1);
+		members[--count] = null;
+		subscribers = null;
+		return true;
+	}
+
+	/**
+	 * removes {@code m}, which unregistered, lazily (see above).
+	 * @param m a micro service that is in the list and is not registered anymore
+	 */
+	public synchronized void purge(MicroService m){
+		departed.add(m);
+		subscribers = null;
+		if (departed.size()*2<count)
+			return;
+		int j = 0;
+		for (int i=0; i<count; i++)
+			if (!departed.contains(members[i]))
+				members[j++] = members[i];
+		Arrays.fill(members, j, count, null);
+		count = j;
+		departed.clear();
+	}
+
+	/**
+	 * returns the next micro service in a round robin manner without locking.
+	 * @return the next subscriber, or null if there are no subscribers
+	 */
+	public MicroService next(){
+		MicroService[] curr = snapshot();
+		if (curr.length==0)
+			return null;
+		// masking keeps the index positive after the cursor wraps around Integer.MAX_VALUE
+		return curr[(cursor.getAndIncrement() & Integer.MAX_VALUE) % curr.length];
+	}
+
+	/**
+	 * @return the round robin position, to be given back to {@link #setCursor(int)} when a simulation is resumed
+	 */
+	public int getCursor(){
+		return cursor.get();
+	}
+
+	public void setCursor(int position){
+		cursor.set(position);
+	}
+
+	/**
+	 * the current subscribers, the returned array must not be modified.
+	 * it may still contain micro services that unregistered after it was taken.
+	 * @return a stable snapshot of the list (later subscriptions do not change it)
+	 */
+	public MicroService[] snapshot(){
+		MicroService[] curr = subscribers;
+		return curr!=null ? curr : copy();
+	}
+
+	private synchronized MicroService[] copy(){
+		if (subscribers==null){
+			if (departed.isEmpty())
+				subscribers = count==0 ? EMPTY : Arrays.copyOf(members, count);
+			else {
+				MicroService[] live = new MicroService[count-departed.size()];
+				int j = 0;
+				for (int i=0; i<count; i++)
+					if (!departed.contains(members[i]))
+						live[j++] = members[i];
+				subscribers = live.length==0 ? EMPTY : live;
+			}
+		}
+		return subscribers;
+	}
+
+	// no subscribers (micro services that unregistered are not counted)
+	public boolean isEmpty(){
+		return snapshot().length==0;
+	}
+
+	public int size(){
+		return snapshot().length;
+	}
+
+	public boolean contains(MicroService m){
+		for (MicroService s : snapshot())
+			if (s==m)
+				return true;
+		return false;
+	}
+
+
+	//***********THIS METHOD ONLY FOR JUNIT *******************
+
+	public synchronized MicroService removeFirst(){
+		if (count==0)
+			return null;
+		MicroService first = members[0];
+		remove(first);
+		return first;
+	}
+}
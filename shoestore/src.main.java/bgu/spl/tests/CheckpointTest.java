@@ -0,0 +1,69 @@
+package bgu.spl.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import bgu.spl.app.Checkpoint;
+import bgu.spl.app.Receipt;
+import bgu.spl.app.ScenarioGenerator;
+import bgu.spl.app.ShoeStoreRunner;
+import bgu.spl.app.SimulationContext;
+
+
+public class CheckpointTest {
+
+	// every field of every receipt, in the order they were filed
+	private static String receipts(SimulationContext context){
+		StringBuilder all = new StringBuilder();
+		for (Receipt r : context.getStore().getReceipts())
+			all.append(r.getSeller()).append(',').append(r.getSender()).append(',').append(r.getShoeType()).append(',')
+				.append(r.isDiscount()).append(',').append(r.getIssuedTick()).append(',').append(r.getRequestTick()).append(',')
+				.append(r.getAmountSold()).append('\n');
+		return all.toString();
+	}
+
+	@Test
+	public void testResumeGivesTheSameReceipts() throws Exception {
+		File scenario = File.createTempFile("checkpoint", ".json");
+		File image = File.createTempFile("checkpoint", ".ckpt");
+		try {
+			ScenarioGenerator.main(new String[]{scenario.getPath(), "-customers=200", "-shoes=40", "-duration=60", "-discounts=1"});
+			String full = receipts(ShoeStoreRunner.run(new String[]{scenario.getPath(), "-runtime=deterministic"}));
+			String before = receipts(ShoeStoreRunner.run(new String[]{scenario.getPath(), "-runtime=deterministic", "-checkpoint=30:"+image.getPath()+":stop"}));
+			assertTrue(Checkpoint.isCheckpoint(image.getPath()));
+			String resumed = receipts(ShoeStoreRunner.run(new String[]{image.getPath(), "-runtime=deterministic"}));
+			assertTrue(before.length()>0);
+			assertTrue(full.startsWith(before)); // the stopped run ended at the checkpoint
+			assertTrue(resumed.length()>before.length());
+			assertEquals(full, resumed); // the resumed run starts with the receipts in the checkpoint
+		} finally {
+			Files.delete(scenario.toPath());
+			Files.delete(image.toPath());
+		}
+	}
+
+	@Test
+	public void testFailedCheckpointEndsTheRun() throws Exception {
+		File scenario = File.createTempFile("checkpoint", ".json");
+		String image = new File(scenario.getPath()+".missing", "image.ckpt").getPath(); // the directory does not exist
+		try {
+			ScenarioGenerator.main(new String[]{scenario.getPath(), "-customers=50", "-shoes=10", "-duration=40"});
+			for (String flag : new String[]{"-checkpoint=10:"+image, "-checkpoint=10:"+image+":stop"}){
+				try {
+					ShoeStoreRunner.run(new String[]{scenario.getPath(), "-runtime=deterministic", flag});
+					fail("the run went on without its checkpoint: "+flag);
+				} catch (IOException e) {
+					assertNotNull(e.getCause());
+				}
+			}
+		} finally {
+			Files.delete(scenario.toPath());
+		}
+	}
+
+}
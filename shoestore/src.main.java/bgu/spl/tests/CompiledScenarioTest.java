@@ -0,0 +1,114 @@
+package bgu.spl.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import bgu.spl.app.CompiledScenario;
+import bgu.spl.app.DiscountSchedule;
+import bgu.spl.app.PurchaseSchedule;
+import bgu.spl.app.Scenario;
+import bgu.spl.app.ScenarioGenerator;
+import bgu.spl.app.ScenarioLoader;
+import bgu.spl.app.ShoeStorageInfo;
+
+
+public class CompiledScenarioTest {
+
+	/**
+	 * writes down every part a scenario hands over, one list per kind of part since the json file and the
+	 * compiled one may hand the kinds over in a different order
+	 */
+	private static class Recorder implements Scenario.Handler {
+		private final List<String> storage = new ArrayList<String>();
+		private final List<String> manager = new ArrayList<String>();
+		private final List<String> customers = new ArrayList<String>();
+		private final List<String> counts = new ArrayList<String>();
+
+		public void storage(ShoeStorageInfo shoe){
+			storage.add(shoe.getName()+":"+shoe.getAmount()+":"+shoe.getDiscountAmount());
+		}
+		public void manager(List<DiscountSchedule> discountSchedule){
+			for (DiscountSchedule d : discountSchedule)
+				manager.add(d.getShoeType()+":"+d.getTick()+":"+d.getAmount());
+		}
+		public void customer(String name, List<PurchaseSchedule> purchaseSchedule, Set<String> wishList){
+			StringBuilder c = new StringBuilder(name).append(" buys");
+			for (PurchaseSchedule p : purchaseSchedule)
+				c.append(' ').append(p.getShoeType()).append('@').append(p.getTick());
+			customers.add(c.append(" wishes ").append(new TreeSet<String>(wishList)).toString()); // a set has no order
+		}
+		public void factories(int count){
+			counts.add("factories "+count);
+		}
+		public void sellers(int count){
+			counts.add("sellers "+count);
+		}
+	}
+
+	// loads both scenarios and checks they hand over the same parts
+	private static void assertSameScenario(Scenario json, Scenario compiled) throws IOException {
+		assertEquals(json.getCustomers(), compiled.getCustomers());
+		assertEquals(json.getFactories(), compiled.getFactories());
+		assertEquals(json.getSellers(), compiled.getSellers());
+		assertEquals(json.getSpeed(), compiled.getSpeed());
+		assertEquals(json.getDuration(), compiled.getDuration());
+		assertEquals(json.hasManager(), compiled.hasManager());
+		Recorder expected = new Recorder();
+		Recorder actual = new Recorder();
+		json.load(expected);
+		compiled.load(actual);
+		assertEquals(expected.storage, actual.storage);
+		assertEquals(expected.manager, actual.manager);
+		assertEquals(expected.customers, actual.customers);
+		assertEquals(expected.counts, actual.counts);
+		assertEquals(json.getCustomers(), actual.customers.size());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File json = File.createTempFile("scenario", ".json");
+		File bin = File.createTempFile("scenario", ".bin");
+		try {
+			ScenarioGenerator.main(new String[]{json.getPath(), "-customers=500", "-shoes=50", "-wishes=2", "-discounts=1"});
+			CompiledScenario.compile(json.getPath(), bin.getPath());
+			assertTrue(CompiledScenario.isCompiled(bin.getPath()));
+			assertFalse(CompiledScenario.isCompiled(json.getPath()));
+			assertSameScenario(new ScenarioLoader(json.getPath()), new CompiledScenario(bin.getPath()));
+		} finally {
+			Files.delete(json.toPath());
+			Files.delete(bin.toPath());
+		}
+	}
+
+	@Test
+	public void testRoundTripWithoutManager() throws IOException {
+		File json = File.createTempFile("scenario", ".json");
+		File bin = File.createTempFile("scenario", ".bin");
+		try {
+			String scenario = "{\"initialStorage\":[{\"shoeType\":\"red-boots\",\"amount\":3,\"discountedAmount\":1}],"+
+					"\"services\":{\"time\":{\"speed\":5,\"duration\":7},\"factories\":1,\"sellers\":2,"+
+					"\"customers\":[{\"name\":\"Bracha\",\"wishList\":[\"red-boots\"],\"purchaseSchedule\":[]},"+
+					"{\"name\":\"Nitzan\",\"wishList\":[],\"purchaseSchedule\":[{\"shoeType\":\"red-boots\",\"tick\":3}]}]}}";
+			Files.write(json.toPath(), scenario.getBytes(StandardCharsets.UTF_8));
+			CompiledScenario.compile(json.getPath(), bin.getPath());
+			CompiledScenario compiled = new CompiledScenario(bin.getPath());
+			assertFalse(compiled.hasManager());
+			assertEquals(2, compiled.getCustomers());
+			assertSameScenario(new ScenarioLoader(json.getPath()), compiled);
+		} finally {
+			Files.delete(json.toPath());
+			Files.delete(bin.toPath());
+		}
+	}
+
+}
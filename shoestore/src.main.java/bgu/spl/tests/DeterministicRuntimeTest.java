@@ -0,0 +1,107 @@
+package bgu.spl.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import bgu.spl.app.Receipt;
+import bgu.spl.app.ScenarioGenerator;
+import bgu.spl.app.ShoeStoreRunner;
+import bgu.spl.app.SimulationContext;
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.DeterministicRuntime;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.impl.Mailbox;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+
+public class DeterministicRuntimeTest {
+
+	// every field of every receipt, in the order they were filed
+	private static String receipts(SimulationContext context){
+		StringBuilder all = new StringBuilder();
+		for (Receipt r : context.getStore().getReceipts())
+			all.append(r.getSeller()).append(',').append(r.getSender()).append(',').append(r.getShoeType()).append(',')
+				.append(r.isDiscount()).append(',').append(r.getIssuedTick()).append(',').append(r.getRequestTick()).append(',')
+				.append(r.getAmountSold()).append('\n');
+		return all.toString();
+	}
+
+	@Test
+	public void testSameInputSameReceipts() throws Exception {
+		File scenario = File.createTempFile("deterministic", ".json");
+		try {
+			ScenarioGenerator.main(new String[]{scenario.getPath(), "-customers=200", "-shoes=40", "-duration=60", "-discounts=1"});
+			String first = receipts(ShoeStoreRunner.run(new String[]{scenario.getPath(), "-runtime=deterministic"}));
+			String second = receipts(ShoeStoreRunner.run(new String[]{scenario.getPath(), "-runtime=deterministic"}));
+			assertTrue(first.length()>0);
+			assertEquals(first, second);
+		} finally {
+			Files.delete(scenario.toPath());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBlockingMailboxRefused() {
+		MessageBusImpl own = new MessageBusImpl();
+		own.setMailboxPolicy(IdleService.class, new Mailbox.Policy(4, Mailbox.Overflow.BLOCK));
+		new DeterministicRuntime().start(new IdleService(own));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNothingStartsAfterTheIdleStep() {
+		MessageBusImpl own = new MessageBusImpl();
+		DeterministicRuntime runtime = new DeterministicRuntime();
+		runtime.start(new IdleService(own));
+		runtime.whenIdle(() -> {}); // what the timer does when it starts
+		runtime.start(new IdleService(own));
+	}
+
+	@Test
+	public void testTerminatingHandlerCancelsTheRestOfItsBatch() {
+		MessageBusImpl own = new MessageBusImpl();
+		DeterministicRuntime runtime = new DeterministicRuntime();
+		StoppingService stopping = new StoppingService(own);
+		runtime.start(stopping);
+		CompletableFuture<Integer> first = own.sendRequestAsync(new NumberRequest(1), stopping);
+		CompletableFuture<Integer> second = own.sendRequestAsync(new NumberRequest(2), stopping);
+		runtime.shutdown(); // both are in the first batch, the handler terminates after the first
+		assertEquals(Integer.valueOf(1), first.join());
+		assertTrue(second.isCancelled());
+	}
+
+	private static class NumberRequest extends AbstractRequest<Integer>{
+		private final int number;
+		public NumberRequest(int number){
+			this.number = number;
+		}
+	}
+
+	private static class StoppingService extends MicroService{
+		public StoppingService(MessageBusImpl bus){
+			super("stopping", bus, new CountDownLatch(1), new CountDownLatch(1));
+		}
+		@Override
+		protected void initialize(){
+			subscribeRequest(NumberRequest.class, r -> {
+				complete(r, r.number);
+				terminate();
+			});
+		}
+	}
+
+	private static class IdleService extends MicroService{
+		public IdleService(MessageBusImpl bus){
+			super("idle", bus, new CountDownLatch(1), new CountDownLatch(1));
+		}
+		@Override
+		protected void initialize(){
+		}
+	}
+
+}
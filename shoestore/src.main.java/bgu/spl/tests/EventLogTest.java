@@ -0,0 +1,129 @@
+package bgu.spl.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bgu.spl.mics.EventLog;
+
+
+public class EventLogTest {
+
+	private final Logger logger = Logger.getLogger("logger");
+	private final List<LogRecord> written = Collections.synchronizedList(new ArrayList<LogRecord>());
+	private final Handler capture = new Handler(){
+		@Override
+		public void publish(LogRecord record){
+			if (record.getSourceClassName().equals(EventLogTest.class.getName()))
+				written.add(record);
+		}
+		@Override
+		public void flush(){
+		}
+		@Override
+		public void close(){
+		}
+	};
+	private boolean parentHandlers;
+
+	@Before
+	public void setUp(){
+		EventLog.flush(); // whatever an earlier test logged
+		parentHandlers = logger.getUseParentHandlers();
+		logger.setUseParentHandlers(false); // keeps the console quiet
+		logger.addHandler(capture);
+	}
+
+	@After
+	public void tearDown(){
+		logger.removeHandler(capture);
+		logger.setUseParentHandlers(parentHandlers);
+	}
+
+	@Test
+	public void testOrderWithinAndAcrossThreads() throws InterruptedException {
+		int threads = 4, events = 5000; // more than a ring of the maximum size holds
+		Thread[] loggers = new Thread[threads];
+		for (int t=0; t<threads; t++){
+			String name = "logger "+t;
+			loggers[t] = new Thread(() -> {
+				for (int n=0; n<events; n++)
+					EventLog.log(TestEvent.NUMBERED, n, name);
+			});
+			loggers[t].start();
+		}
+		for (Thread t : loggers)
+			t.join(); // their rings are dropped once drained
+		EventLog.flush();
+		assertEquals(threads*events, written.size());
+		int[] last = new int[threads];
+		long[] lastSequence = new long[threads];
+		for (int t=0; t<threads; t++){
+			last[t] = -1;
+			lastSequence[t] = Long.MIN_VALUE;
+		}
+		for (LogRecord r : written){
+			String[] parts = r.getMessage().split(" ");
+			int t = Integer.parseInt(parts[1]), n = Integer.parseInt(parts[2]);
+			assertEquals(last[t]+1, n); // a thread's events are written in the order it logged them
+			assertTrue(r.getSequenceNumber()>lastSequence[t]);
+			last[t] = n;
+			lastSequence[t] = r.getSequenceNumber();
+		}
+	}
+
+	@Test
+	public void testSequenceFollowsTheLoggingOrder() throws InterruptedException {
+		Thread first = new Thread(() -> EventLog.log(TestEvent.NUMBERED, 0, "first"));
+		first.start();
+		first.join();
+		Thread.sleep(5); // the two events are logged on different threads, far enough apart for the clock
+		EventLog.log(TestEvent.NUMBERED, 0, "second");
+		EventLog.flush();
+		assertEquals(2, written.size());
+		List<LogRecord> sorted = new ArrayList<LogRecord>(written);
+		sorted.sort((a, b) -> Long.compare(a.getSequenceNumber(), b.getSequenceNumber()));
+		assertEquals("first 0", sorted.get(0).getMessage());
+		assertEquals("second 0", sorted.get(1).getMessage());
+		assertTrue(sorted.get(0).getMillis()<=sorted.get(1).getMillis());
+	}
+
+	@Test
+	public void testWakesUpWhenIdle() throws InterruptedException {
+		Thread.sleep(3*EventLog.MAX_IDLE_MILLIS); // long enough for the writer to back off all the way
+		EventLog.log(TestEvent.NUMBERED, 0, "late");
+		long deadline = System.currentTimeMillis()+10000;
+		while (written.isEmpty() && System.currentTimeMillis()<deadline)
+			Thread.sleep(1); // no flush, the event alone has to get it written
+		assertEquals(1, written.size());
+		assertEquals("late 0", written.get(0).getMessage());
+	}
+
+	private enum TestEvent implements EventLog.Event {
+		NUMBERED;
+
+		@Override
+		public Level getLevel(){
+			return Level.INFO;
+		}
+		@Override
+		public String getSource(){
+			return EventLogTest.class.getName();
+		}
+		@Override
+		public String getFormat(){
+			return "%s %d";
+		}
+	}
+
+}
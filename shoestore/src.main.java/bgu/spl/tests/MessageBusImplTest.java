@@ -4,7 +4,12 @@ import org.junit.Assert.*;
 
 import static org.junit.Assert.*;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
@@ -14,14 +19,25 @@ import org.junit.BeforeClass;
 
 import bgu.spl.app.DiscountSchedule;
 import bgu.spl.app.ManagementService;
+import bgu.spl.app.NewDiscountBroadcast;
 import bgu.spl.app.PurchaseOrderRequest;
 import bgu.spl.app.RestockRequest;
 import bgu.spl.app.SellingService;
 import bgu.spl.app.TickBroadcast;
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.Message;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.Request;
 import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.impl.BusMetrics;
+import bgu.spl.mics.impl.KeyHashDispatch;
+import bgu.spl.mics.impl.LatencyHistogram;
+import bgu.spl.mics.impl.LatencyRecorder;
+import bgu.spl.mics.impl.LeastLoadedDispatch;
+import bgu.spl.mics.impl.Mailbox;
 import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.impl.PendingRequest;
 
 
 public class MessageBusImplTest {	
@@ -57,6 +73,46 @@ public class MessageBusImplTest {
 		assertEquals(bus.getMicroMap().get(m).peek(),t);
 	}
 	@Test
+	public void testSendKeyedBroadcast() {
+		MicroService wants = new SellingService("wants-boots", null,null);
+		MicroService other = new SellingService("wants-sandals", null,null);
+		bus.register(wants);
+		bus.register(other);
+		bus.subscribeBroadcast(NewDiscountBroadcast.class, "boots", wants);
+		bus.subscribeBroadcast(NewDiscountBroadcast.class, "sandals", other);
+		NewDiscountBroadcast d = new NewDiscountBroadcast("boots",1);
+		bus.sendBroadcast(d);
+		assertEquals(bus.getMicroMap().get(wants).peek(),d);
+		assertTrue(bus.getMicroMap().get(other).isEmpty()); // not interested in boots
+		bus.unsubscribeBroadcast(NewDiscountBroadcast.class, "boots", wants);
+		bus.getMicroMap().get(wants).clear();
+		bus.sendBroadcast(new NewDiscountBroadcast("boots",1));
+		assertTrue(bus.getMicroMap().get(wants).isEmpty());
+	}
+	@Test
+	public void testKeyedAndPlainSubscriptionsDoNotMix() {
+		MessageBusImpl own = new MessageBusImpl();
+		MicroService all = new SellingService("wants-everything", null,null);
+		MicroService keyed = new SellingService("wants-boots", null,null);
+		own.register(all);
+		own.register(keyed);
+		own.subscribeBroadcast(NewDiscountBroadcast.class, all);
+		own.subscribeBroadcast(NewDiscountBroadcast.class, "boots", keyed);
+		try {
+			own.subscribeBroadcast(NewDiscountBroadcast.class, "boots", all);
+			fail("subscribed to a key of a type it receives all of");
+		} catch (IllegalStateException e) {}
+		try {
+			own.subscribeBroadcast(NewDiscountBroadcast.class, keyed);
+			fail("subscribed to all of a type it receives a key of");
+		} catch (IllegalStateException e) {}
+		own.sendBroadcast(new NewDiscountBroadcast("boots",1));
+		assertEquals(1, own.getMicroMap().get(all).size()); // each of them gets the broadcast once
+		assertEquals(1, own.getMicroMap().get(keyed).size());
+		own.unsubscribeBroadcast(NewDiscountBroadcast.class, "boots", keyed);
+		own.subscribeBroadcast(NewDiscountBroadcast.class, keyed); // no keys left
+	}
+	@Test
 	public void testSendRequest() {
 		MicroService m = new SellingService("sasonizer", null,null);
 		bus.register(m);
@@ -69,17 +125,293 @@ public class MessageBusImplTest {
 		assertEquals(bus.getMicroMap().get(manager).remove(),r);
 	}
 	@Test
+	public void testSendRequestRoundRobin() {
+		MicroService asker = new SellingService("asker", null,null);
+		MicroService first = new SellingService("first", null,null);
+		MicroService second = new SellingService("second", null,null);
+		bus.register(asker);
+		bus.register(first);
+		bus.register(second);
+		bus.subscribeRequest(RoundRobinRequest.class, first);
+		bus.subscribeRequest(RoundRobinRequest.class, second);
+		bus.subscribeRequest(RoundRobinRequest.class, second); // subscribing twice must not add a second entry
+		for (int i=0; i<4; i++)
+			assertTrue(bus.sendRequest(new RoundRobinRequest(), asker));
+		assertEquals(bus.getMicroMap().get(first).size(),2);
+		assertEquals(bus.getMicroMap().get(second).size(),2);
+		bus.unregister(first);
+		assertTrue(bus.sendRequest(new RoundRobinRequest(), asker));
+		assertEquals(bus.getMicroMap().get(second).size(),3);
+		bus.unregister(second);
+		assertFalse(bus.sendRequest(new RoundRobinRequest(), asker));
+	}
+	@Test
+	public void testKeyHashDispatch() {
+		bus.setDispatchPolicy(KeyedRequest.class, new KeyHashDispatch<KeyedRequest>(KeyedRequest::getKey));
+		MicroService asker = new SellingService("hash-asker", null,null);
+		MicroService[] handlers = {new SellingService("hash 1", null,null), new SellingService("hash 2", null,null), new SellingService("hash 3", null,null)};
+		bus.register(asker);
+		for (MicroService h : handlers){
+			bus.register(h);
+			bus.subscribeRequest(KeyedRequest.class, h);
+		}
+		for (int i=0; i<5; i++)
+			assertTrue(bus.sendRequest(new KeyedRequest("red-boots"), asker));
+		int receivers = 0;
+		MicroService owner = null;
+		for (MicroService h : handlers)
+			if (!bus.getMicroMap().get(h).isEmpty()){
+				receivers++;
+				owner = h;
+			}
+		assertEquals(receivers,1); // all the requests with the same key went to the same handler
+		assertEquals(bus.getMicroMap().get(owner).size(),5);
+		bus.unregister(owner);
+		assertTrue(bus.sendRequest(new KeyedRequest("red-boots"), asker)); // moves to another handler
+	}
+	@Test
 	public void testComplete() {
-		Request req = new RestockRequest(50,"nike", 1,"seller1");
+		RestockRequest req = new RestockRequest(50,"nike", 1,"seller1");
 		Boolean result = true;
 		MicroService m = new SellingService("sasonnn", null,null);
 		bus.register(m);
-		ConcurrentHashMap<Request,MicroService> map = bus.getAskerMap();
-		map.put(req, m); //add to round robin
+		bus.restoreRequest(req, m, (Callback<Boolean>) null); //add to pending requests
+		assertNotNull(bus.getPendingRequest(req));
 		bus.complete(req, result);
 		assertTrue(bus.getMicroMap().get(m).peek().getClass()==RequestCompleted.class);
+		assertNull(bus.getPendingRequest(req)); // released once completed
 		// Checks that the stock exists
 	}
+	@Test
+	public void testUnregisterReleasesPending() {
+		MicroService asker = new SellingService("leaving-asker", null,null);
+		MicroService handler = new SellingService("leaving-handler", null,null);
+		bus.register(asker);
+		bus.register(handler);
+		bus.subscribeRequest(SlottedRequest.class, handler);
+		bus.subscribeRequest(DroppedRequest.class, handler);
+		SlottedRequest slotted = new SlottedRequest();
+		DroppedRequest plain = new DroppedRequest();
+		CompletableFuture<Boolean> slottedResult = bus.sendRequestAsync(slotted, asker);
+		CompletableFuture<Boolean> plainResult = bus.sendRequestAsync(plain, asker);
+		assertNotNull(bus.getPendingRequest(slotted)); // carried by the request itself
+		assertTrue(bus.getPendingMap().containsKey(plain)); // kept by the bus
+		bus.unregister(handler); // leaves before handling them
+		assertNull(bus.getPendingRequest(slotted));
+		assertFalse(bus.getPendingMap().containsKey(plain));
+		assertTrue(slottedResult.isCancelled());
+		assertTrue(plainResult.isCancelled());
+		bus.complete(slotted, true); // too late, nobody waits for it anymore
+		assertTrue(bus.getMicroMap().get(asker).isEmpty());
+	}
+	@Test
+	public void testRestoreRequest() {
+		MicroService asker = new SellingService("restored-asker", null,null);
+		MicroService first = new SellingService("restored 1", null,null);
+		MicroService second = new SellingService("restored 2", null,null);
+		bus.register(asker);
+		bus.register(first);
+		bus.register(second);
+		bus.subscribeRequest(RestoredRequest.class, first);
+		bus.subscribeRequest(RestoredRequest.class, second);
+		// a request the handler held when the checkpoint was written, it is waited for again without being sent
+		RestoredRequest held = new RestoredRequest();
+		bus.restoreRequest(held, asker, (Callback<Boolean>) null);
+		assertTrue(bus.getMicroMap().get(first).isEmpty());
+		bus.complete(held, true);
+		assertTrue(bus.getMicroMap().get(asker).peek().getClass()==RequestCompleted.class);
+		// the round robin goes on from where the checkpointed run was
+		bus.setDispatchCursor(RestoredRequest.class, 1);
+		assertEquals(1, bus.getDispatchCursor(RestoredRequest.class));
+		assertTrue(bus.sendRequest(new RestoredRequest(), asker));
+		assertTrue(bus.getMicroMap().get(first).isEmpty());
+		assertEquals(bus.getMicroMap().get(second).size(),1);
+		assertEquals(0, bus.getDispatchCursor(UnsubscribedRequest.class)); // nobody subscribed
+	}
+	@Test
+	public void testSendRequestAsync() {
+		MicroService asker = new SellingService("async-asker", null,null);
+		MicroService handler = new SellingService("async-handler", null,null);
+		bus.register(asker);
+		bus.register(handler);
+		assertNull(bus.sendRequestAsync(new AsyncRequest(), asker)); // no one subscribed yet
+		bus.subscribeRequest(AsyncRequest.class, handler);
+		AsyncRequest req = new AsyncRequest();
+		CompletableFuture<Boolean> future = bus.sendRequestAsync(req, asker);
+		assertNotNull(future);
+		assertFalse(future.isDone());
+		bus.complete(req, true);
+		assertTrue(future.getNow(false));
+		assertTrue(bus.getMicroMap().get(asker).isEmpty()); // the result is handed over without a message
+		assertFalse(bus.getPendingMap().containsKey(req));
+	}
+	@Test
+	public void testLatencyRecorder() throws Exception {
+		MessageBusImpl latencyBus = new MessageBusImpl(); // the recorder is not left in the shared bus
+		LatencyRecorder latency = new LatencyRecorder();
+		latencyBus.setLatencyRecorder(latency);
+		MicroService asker = new SellingService("latency-asker", null,null);
+		MicroService handler = new SellingService("latency-handler", null,null);
+		latencyBus.register(asker);
+		latencyBus.register(handler);
+		latencyBus.subscribeRequest(AsyncRequest.class, handler);
+		latency.setTick(3);
+		AsyncRequest req = new AsyncRequest();
+		assertNotNull(latencyBus.sendRequestAsync(req, asker));
+		assertSame(req, latencyBus.awaitMessage(handler));
+		latencyBus.started(req, handler);
+		latencyBus.complete(req, true);
+		for (LatencyRecorder.Stage stage : LatencyRecorder.Stage.values())
+			assertEquals(stage==LatencyRecorder.Stage.REPLY ? 0 : 1, latency.getHistogram(AsyncRequest.class, stage).getCount());
+		assertEquals(1, latency.getHistogram(AsyncRequest.class, 3).getCount()); // by the tick it was sent in
+		assertNull(latency.getHistogram(AsyncRequest.class, 4));
+
+		LatencyHistogram histogram = new LatencyHistogram(5);
+		for (long nanos=1; nanos<=100000; nanos++)
+			histogram.record(nanos);
+		assertEquals(50000, histogram.getValueAtPercentile(50), 50000/32);
+		assertEquals(99000, histogram.getValueAtPercentile(99), 99000/32);
+		assertEquals(100000, histogram.getValueAtPercentile(100));
+		assertEquals(50000.5, histogram.getMean(), 0.001);
+	}
+
+	@Test
+	public void testMetrics() {
+		MessageBusImpl metricsBus = new MessageBusImpl();
+		BusMetrics metrics = new BusMetrics(metricsBus, false);
+		metricsBus.setMetrics(metrics);
+		MicroService asker = new SellingService("metrics-asker", null,null);
+		MicroService handler = new SellingService("metrics-handler", null,null);
+		metricsBus.register(asker);
+		metricsBus.register(handler);
+		metricsBus.subscribeRequest(AsyncRequest.class, handler);
+		metricsBus.sendRequestAsync(new AsyncRequest(), asker);
+		assertEquals(1, metricsBus.getMetrics(handler).getMailboxDepth());
+		StringWriter text = new StringWriter();
+		metrics.write(new PrintWriter(text));
+		assertTrue(text.toString().contains("mics_mailbox_depth{service=\"metrics-handler\",class=\"SellingService\"} 1\n"));
+		metricsBus.unregister(handler);
+		assertNull(metricsBus.getMetrics(handler)); // only the registered micro services are exported
+	}
+
+	@Test
+	public void testBoundedMailboxRejects() {
+		bus.setMailboxPolicy(BoundedService.class, new Mailbox.Policy(1, Mailbox.Overflow.REJECT));
+		MicroService asker = new SellingService("bounded-asker", null,null);
+		MicroService handler = new BoundedService("bounded-handler");
+		bus.register(asker);
+		bus.register(handler);
+		bus.subscribeRequest(BoundedRequest.class, handler);
+		assertTrue(bus.sendRequest(new BoundedRequest(), asker));
+		assertFalse(bus.sendRequest(new BoundedRequest(), asker)); // full
+		bus.sendBroadcast(new TickBroadcast(1,true)); // broadcasts are never rejected
+		bus.subscribeBroadcast(TickBroadcast.class, handler);
+		bus.sendBroadcast(new TickBroadcast(2,true));
+		assertEquals(bus.getMicroMap().get(handler).size(),2);
+		assertEquals(bus.getMailbox(handler).getRejected(),1);
+		bus.getMicroMap().get(handler).poll(); // the request leaves the mailbox
+		assertTrue(bus.sendRequest(new BoundedRequest(), asker));
+		assertEquals(bus.getMailbox(handler).getHighWaterMark(),2);
+	}
+	@Test
+	public void testBoundedMailboxBlocks() throws InterruptedException {
+		MessageBusImpl own = new MessageBusImpl(); // the policy is not left in the shared bus
+		own.setMailboxPolicy(BoundedService.class, new Mailbox.Policy(1, Mailbox.Overflow.BLOCK));
+		MicroService asker = new SellingService("blocked-asker", null,null);
+		MicroService handler = new BoundedService("blocking-handler");
+		own.register(asker);
+		own.register(handler);
+		own.subscribeRequest(BoundedRequest.class, handler);
+		assertTrue(own.sendRequest(new BoundedRequest(), asker));
+		boolean[] sent = new boolean[2];
+		Thread sender = new Thread(() -> sent[0] = own.sendRequest(new BoundedRequest(), asker));
+		sender.start();
+		sender.join(200);
+		assertTrue(sender.isAlive()); // waits for room
+		own.getMailbox(handler).poll(); // the handler takes a request
+		sender.join(5000);
+		assertFalse(sender.isAlive());
+		assertTrue(sent[0]);
+		assertEquals(own.getMailbox(handler).size(),1);
+		assertEquals(own.getMailbox(handler).getRejected(),0);
+		Thread left = new Thread(() -> sent[1] = own.sendRequest(new BoundedRequest(), asker));
+		left.start();
+		left.join(200);
+		assertTrue(left.isAlive());
+		own.unregister(handler); // releases the waiting sender, whose request is not added
+		left.join(5000);
+		assertFalse(left.isAlive());
+		assertFalse(sent[1]);
+	}
+
+	@Test
+	public void testBoundedMailboxSpills() {
+		MessageBusImpl own = new MessageBusImpl();
+		own.countInFlight();
+		own.setMailboxPolicy(BoundedService.class, new Mailbox.Policy(1, Mailbox.Overflow.SPILL));
+		MicroService asker = new SellingService("spilling-asker", null,null);
+		MicroService first = new BoundedService("first-handler");
+		MicroService second = new BoundedService("second-handler");
+		own.register(asker);
+		own.register(first);
+		own.register(second);
+		own.subscribeRequest(BoundedRequest.class, first);
+		own.subscribeRequest(BoundedRequest.class, second);
+		assertTrue(own.sendRequest(new BoundedRequest(), asker));
+		assertTrue(own.sendRequest(new BoundedRequest(), asker));
+		assertEquals(own.getMailbox(first).size(),1);
+		assertEquals(own.getMailbox(second).size(),1);
+		assertFalse(own.sendRequest(new BoundedRequest(), asker)); // spilled over both and nobody had room
+		assertEquals(own.getMailbox(first).getRejected()+own.getMailbox(second).getRejected(),2);
+		Message taken = own.getMailbox(first).peek();
+		assertTrue(own.getMailbox(first).remove(taken)); // removing a request gives its room back too
+		assertTrue(own.sendRequest(new BoundedRequest(), asker)); // spills to the only handler with room
+		assertEquals(own.getMailbox(first).size(),1);
+		assertEquals(own.getMailbox(second).size(),1);
+		assertEquals(own.getInFlight(),2); // the removed request is not waited for
+		own.getMailbox(second).clear();
+		for (Iterator<Message> it = own.getMailbox(first).iterator(); it.hasNext(); ){
+			it.next();
+			it.remove();
+		}
+		assertEquals(own.getInFlight(),0);
+		assertTrue(own.sendRequest(new BoundedRequest(), asker));
+		assertTrue(own.sendRequest(new BoundedRequest(), asker)); // both mailboxes had their room back
+	}
+
+	@Test
+	public void testLeastLoadedDispatch() {
+		MessageBusImpl own = new MessageBusImpl();
+		own.setMailboxPolicy(BoundedService.class, new Mailbox.Policy(1, Mailbox.Overflow.SPILL));
+		own.setDispatchPolicy(BoundedRequest.class, new LeastLoadedDispatch());
+		MicroService asker = new SellingService("loaded-asker", null,null);
+		own.register(asker);
+		MicroService[] handlers = new MicroService[3];
+		for (int i=0; i<handlers.length; i++){
+			handlers[i] = new BoundedService("loaded "+i);
+			own.register(handlers[i]);
+			own.subscribeRequest(BoundedRequest.class, handlers[i]);
+		}
+		for (int i=0; i<3; i++) // broadcasts load a mailbox without filling it
+			own.getMailbox(handlers[0]).offer(new TickBroadcast(i,true));
+		for (int i=0; i<2; i++)
+			own.getMailbox(handlers[2]).offer(new TickBroadcast(i,true));
+		assertTrue(own.sendRequest(new BoundedRequest(), asker));
+		assertEquals(own.getMailbox(handlers[1]).size(),1); // the least loaded one
+		// handlers[1] is still the least loaded but full, the retry goes to the next least loaded
+		assertTrue(own.sendRequest(new BoundedRequest(), asker));
+		assertEquals(own.getMailbox(handlers[2]).size(),3);
+		assertEquals(own.getMailbox(handlers[1]).getRejected(),1);
+		assertTrue(own.sendRequest(new BoundedRequest(), asker)); // the most loaded one is tried last
+		assertEquals(own.getMailbox(handlers[0]).size(),4);
+		long[] rejected = new long[handlers.length];
+		for (int i=0; i<handlers.length; i++)
+			rejected[i] = own.getMailbox(handlers[i]).getRejected();
+		assertFalse(own.sendRequest(new BoundedRequest(), asker));
+		for (int i=0; i<handlers.length; i++) // every one was tried exactly once
+			assertEquals(own.getMailbox(handlers[i]).getRejected(),rejected[i]+1);
+	}
+
 	@Test
 	public void testRegister() {
 		MicroService m = new SellingService("bob",null, null);
@@ -94,6 +426,40 @@ public class MessageBusImplTest {
 		assertFalse(bus.getMicroMap().containsKey(m));
 	}
 	@Test
+	public void testUnregisterRemovesSubscriptions() {
+		MicroService m = new SellingService("leaver", null, null);
+		MicroService stays = new SellingService("stayer", null, null);
+		bus.register(m);
+		bus.register(stays);
+		bus.subscribeRequest(LeaverRequest.class, m);
+		bus.subscribeRequest(LeaverRequest.class, stays);
+		bus.unregister(m);
+		for (int i=0; i<3; i++)
+			assertTrue(bus.sendRequest(new LeaverRequest(), stays)); // never sent to the unregistered one
+		assertEquals(bus.getMicroMap().get(stays).size(),3);
+		bus.unregister(stays);
+		assertTrue(bus.getRequestMap().get(LeaverRequest.class).isEmpty());
+	}
+	@Test
+	public void testUnregisteredLeaveTheSnapshot() {
+		MessageBusImpl own = new MessageBusImpl();
+		MicroService[] handlers = new MicroService[4];
+		for (int i=0; i<handlers.length; i++){
+			handlers[i] = new BoundedService("handler "+i);
+			own.register(handlers[i]);
+			own.subscribeRequest(BoundedRequest.class, handlers[i]);
+			own.subscribeBroadcast(TickBroadcast.class, handlers[i]);
+		}
+		own.unregister(handlers[1]); // a single departure is not purged from the list yet
+		assertEquals(own.getRequestMap().get(BoundedRequest.class).size(),3); // only the live handlers are tried
+		assertEquals(own.getBroadcastMap().get(TickBroadcast.class).snapshot().length,3);
+		for (int i=0; i<6; i++)
+			assertTrue(own.sendRequest(new BoundedRequest(), handlers[0]));
+		assertEquals(own.getMailbox(handlers[0]).size(),2); // round robin over the three that are left
+		assertEquals(own.getMailbox(handlers[2]).size(),2);
+		assertEquals(own.getMailbox(handlers[3]).size(),2);
+	}
+	@Test
 	public void testAwaitMessage() {
 		MicroService m = new SellingService("sason", null,null);
 		bus.register(m);
@@ -108,6 +474,111 @@ public class MessageBusImplTest {
 			e.printStackTrace();
 		}
 	}
+	@Test
+	public void testAwaitMessages() {
+		MicroService m = new SellingService("batcher", null,null);
+		bus.register(m);
+		TickBroadcast[] ticks = {new TickBroadcast(1,true), new TickBroadcast(2,true), new TickBroadcast(3,true)};
+		for (TickBroadcast t : ticks)
+			bus.getMicroMap().get(m).offer(t);
+		ArrayList<Message> batch = new ArrayList<Message>();
+		try {
+			assertEquals(bus.awaitMessages(m, batch, 2),2);
+			assertEquals(batch.get(0),ticks[0]); // queue order is kept
+			assertEquals(batch.get(1),ticks[1]);
+			batch.clear();
+			assertEquals(bus.awaitMessages(m, batch, 2),1);
+			assertEquals(batch.get(0),ticks[2]);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testQuiescence() throws InterruptedException {
+		MessageBusImpl own = new MessageBusImpl(); // counts only the messages of this test
+		assertEquals(-1, own.getInFlight()); // not counted unless asked for
+		own.countInFlight();
+		MicroService m = new SellingService("quiet", null,null);
+		own.register(m);
+		own.subscribeBroadcast(TickBroadcast.class, m);
+		own.sendBroadcast(new TickBroadcast(1,true));
+		own.sendBroadcast(new TickBroadcast(2,true));
+		assertEquals(2, own.getInFlight());
+		ArrayList<Message> batch = new ArrayList<Message>();
+		own.awaitMessages(m, batch, 2);
+		assertEquals(2, own.getInFlight()); // taken but not handled yet
+		own.handled(m, batch.size());
+		assertEquals(0, own.getInFlight());
+		own.awaitQuiescence(); // returns at once
+		own.sendBroadcast(new TickBroadcast(3,true));
+		own.unregister(m); // the dropped message is not in flight anymore
+		assertEquals(0, own.getInFlight());
+	}
+
+	@Test
+	public void testUnhandledTailIsReleased() throws InterruptedException {
+		MessageBusImpl own = new MessageBusImpl();
+		MicroService m = new SellingService("terminating", null,null);
+		own.register(m);
+		own.subscribeRequest(AsyncRequest.class, m);
+		AsyncRequest handled = new AsyncRequest(), dropped = new AsyncRequest(), queued = new AsyncRequest();
+		CompletableFuture<Boolean> first = own.sendRequestAsync(handled, m);
+		CompletableFuture<Boolean> second = own.sendRequestAsync(dropped, m);
+		ArrayList<Message> batch = new ArrayList<Message>();
+		own.awaitMessages(m, batch, 2);
+		CompletableFuture<Boolean> third = own.sendRequestAsync(queued, m); // still in the queue
+		own.complete(handled, true); // the handler terminates after the first message of the batch
+		own.handled(m, batch, 1);
+		assertTrue(second.isCancelled()); // taken from the queue but never handled
+		assertNull(own.getPendingRequest(dropped));
+		assertFalse(third.isDone());
+		own.unregister(m);
+		assertTrue(third.isCancelled());
+		assertTrue(first.join());
+	}
+
+	private static class RoundRobinRequest implements Request<Boolean>{
+	}
+
+	private static class AsyncRequest implements Request<Boolean>{
+	}
+
+	private static class RestoredRequest implements Request<Boolean>{
+	}
+
+	private static class BoundedRequest implements Request<Boolean>{
+	}
+
+	private static class LeaverRequest implements Request<Boolean>{
+	}
+
+	private static class DroppedRequest implements Request<Boolean>{
+	}
+
+	private static class UnsubscribedRequest implements Request<Boolean>{
+	}
+
+	private static class SlottedRequest extends AbstractRequest<Boolean>{
+	}
+
+	private static class KeyedRequest implements Request<Boolean>{
+		private String key;
+		public KeyedRequest(String key){
+			this.key = key;
+		}
+		public Object getKey(){
+			return key;
+		}
+	}
 
+	private static class BoundedService extends MicroService{
+		public BoundedService(String name){
+			super(name,null,null);
+		}
+		@Override
+		protected void initialize(){
+		}
+	}
 
 }
@@ -0,0 +1,181 @@
+package bgu.spl.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.PooledRuntime;
+import bgu.spl.mics.Request;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+
+public class PooledRuntimeTest {
+
+	@Test
+	public void testEveryServiceIsScheduled() throws InterruptedException {
+		MessageBusImpl bus = new MessageBusImpl();
+		PooledRuntime runtime = new PooledRuntime(2); // far fewer workers than services
+		int services = 40, messages = 500; // more than a slice per service
+		CountDownLatch ready = new CountDownLatch(services);
+		CountDownLatch finish = new CountDownLatch(services);
+		CountingService[] counters = new CountingService[services];
+		for (int i=0; i<services; i++){
+			counters[i] = new CountingService("counter "+i, bus, ready, finish);
+			runtime.start(counters[i]);
+		}
+		assertTrue(ready.await(10, TimeUnit.SECONDS));
+		for (int n=0; n<messages; n++)
+			bus.sendBroadcast(new NumberedBroadcast(0, n));
+		bus.sendBroadcast(new StopBroadcast());
+		runtime.shutdown();
+		assertTrue(finish.await(10, TimeUnit.SECONDS)); // every service ran until it got the stop broadcast
+		for (CountingService c : counters){
+			assertEquals(messages, c.handled);
+			assertFalse(c.outOfOrder); // a service handles its messages in the order they were sent
+			assertTrue(c.isTerminated());
+		}
+	}
+
+	@Test
+	public void testCallbacksNeverRunConcurrently() throws InterruptedException {
+		MessageBusImpl bus = new MessageBusImpl();
+		PooledRuntime runtime = new PooledRuntime(4);
+		int senders = 4, messages = 5000;
+		CountDownLatch ready = new CountDownLatch(1);
+		CountDownLatch finish = new CountDownLatch(1);
+		CountingService c = new CountingService("single", bus, ready, finish);
+		runtime.start(c);
+		assertTrue(ready.await(10, TimeUnit.SECONDS));
+		// several threads keep waking the service up while it runs, each wake-up may land on another worker
+		Thread[] threads = new Thread[senders];
+		for (int s=0; s<senders; s++){
+			int sender = s;
+			threads[s] = new Thread(() -> {
+				for (int n=0; n<messages; n++)
+					bus.sendBroadcast(new NumberedBroadcast(sender, n));
+			});
+			threads[s].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		bus.sendBroadcast(new StopBroadcast());
+		runtime.shutdown();
+		assertTrue(finish.await(10, TimeUnit.SECONDS));
+		assertEquals(senders*messages, c.handled);
+		assertEquals(0, c.overlaps.get());
+		assertFalse(c.outOfOrder);
+	}
+
+	@Test
+	public void testRequestCompletesOnRequesterSlot() throws InterruptedException {
+		MessageBusImpl bus = new MessageBusImpl();
+		PooledRuntime runtime = new PooledRuntime(2);
+		int requests = 1000;
+		CountDownLatch answeringReady = new CountDownLatch(1);
+		CountDownLatch askingReady = new CountDownLatch(1);
+		CountDownLatch finish = new CountDownLatch(2);
+		runtime.start(new AnsweringService(bus, answeringReady, finish));
+		assertTrue(answeringReady.await(10, TimeUnit.SECONDS)); // subscribed before the first request is sent
+		AskingService asking = new AskingService(bus, requests, askingReady, finish);
+		runtime.start(asking);
+		runtime.shutdown();
+		assertTrue(finish.await(10, TimeUnit.SECONDS));
+		assertEquals(requests, asking.answered);
+		assertEquals(0, asking.overlaps.get()); // completions run on the requester's slot like any message
+	}
+
+	private static class NumberedBroadcast implements Broadcast{
+		private final int sender;
+		private final int number;
+		public NumberedBroadcast(int sender, int number){
+			this.sender = sender;
+			this.number = number;
+		}
+	}
+
+	private static class StopBroadcast implements Broadcast{
+	}
+
+	private static class EchoRequest implements Request<Integer>{
+		private final int number;
+		public EchoRequest(int number){
+			this.number = number;
+		}
+	}
+
+	/**
+	 * counts the numbered broadcasts it handles, the fields are not volatile on purpose: the slot hands the
+	 * service from worker to worker and the runtime makes the writes of one callback visible to the next
+	 */
+	private static class CountingService extends MicroService{
+		private final AtomicInteger inside = new AtomicInteger(0);
+		private final AtomicInteger overlaps = new AtomicInteger(0);
+		private final int[] last = new int[8];
+		private int handled;
+		private boolean outOfOrder;
+		public CountingService(String name, MessageBusImpl bus, CountDownLatch ready, CountDownLatch finish){
+			super(name, bus, ready, finish);
+			Arrays.fill(last, -1);
+		}
+		@Override
+		protected void initialize(){
+			subscribeBroadcast(NumberedBroadcast.class, b -> {
+				if (inside.incrementAndGet()!=1)
+					overlaps.incrementAndGet();
+				if (b.number!=last[b.sender]+1)
+					outOfOrder = true;
+				last[b.sender] = b.number;
+				handled++;
+				inside.decrementAndGet();
+			});
+			subscribeBroadcast(StopBroadcast.class, b -> terminate());
+			latchObject.countDown();
+		}
+	}
+
+	private static class AnsweringService extends MicroService{
+		public AnsweringService(MessageBusImpl bus, CountDownLatch ready, CountDownLatch finish){
+			super("answering", bus, ready, finish);
+		}
+		@Override
+		protected void initialize(){
+			subscribeRequest(EchoRequest.class, r -> complete(r, r.number));
+			subscribeBroadcast(StopBroadcast.class, b -> terminate());
+			latchObject.countDown();
+		}
+	}
+
+	private static class AskingService extends MicroService{
+		private final AtomicInteger inside = new AtomicInteger(0);
+		private final AtomicInteger overlaps = new AtomicInteger(0);
+		private final int requests;
+		private int answered;
+		public AskingService(MessageBusImpl bus, int requests, CountDownLatch ready, CountDownLatch finish){
+			super("asking", bus, ready, finish);
+			this.requests = requests;
+		}
+		@Override
+		protected void initialize(){
+			for (int n=0; n<requests; n++){
+				int expected = n;
+				sendRequest(new EchoRequest(n), result -> {
+					if (inside.incrementAndGet()!=1)
+						overlaps.incrementAndGet();
+					if (result==expected && ++answered==requests)
+						sendBroadcast(new StopBroadcast()); // stops the answering service and this one
+					inside.decrementAndGet();
+				});
+			}
+			subscribeBroadcast(StopBroadcast.class, b -> terminate());
+			latchObject.countDown();
+		}
+	}
+
+}
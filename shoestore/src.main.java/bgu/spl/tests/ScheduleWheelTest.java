@@ -0,0 +1,82 @@
+package bgu.spl.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import bgu.spl.app.ScheduleWheel;
+
+
+public class ScheduleWheelTest {
+
+	// an entry is its own tick
+	private static ScheduleWheel<Integer> wheel(){
+		return new ScheduleWheel<Integer>(t -> t);
+	}
+
+	@Test
+	public void testWrapAround() {
+		ScheduleWheel<Integer> wheel = wheel();
+		for (int t=0; t<300; t+=3) // more ticks than the wheel has slots, added before any is fired
+			wheel.add(t);
+		assertEquals(100, wheel.size());
+		List<Integer> fired = new ArrayList<Integer>();
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int t=0; t<300; t++){
+			fired.addAll(wheel.advance(t)); // each slot is reused every lap
+			if (t%3==0)
+				expected.add(t);
+			if (t%50==31 && t>=131)
+				expected.add(t); // added 131 ticks earlier, after the tick they were added at was fired
+			if (t%50==0)
+				wheel.add(t+131); // lands in the map, moves into the wheel when its lap comes
+		}
+		assertEquals(expected, fired);
+		assertEquals(2, wheel.size()); // 331 and 381
+		assertEquals(Arrays.asList(331), wheel.advance(331));
+		assertEquals(Arrays.asList(381), wheel.advance(381));
+		assertTrue(wheel.isEmpty());
+	}
+
+	@Test
+	public void testOrderWithinTick() {
+		ScheduleWheel<int[]> wheel = new ScheduleWheel<int[]>(e -> e[0]);
+		int[] first = {100, 1}, second = {100, 2}, third = {100, 3};
+		wheel.add(first);
+		wheel.add(second);
+		wheel.advance(50); // both move into the wheel here
+		wheel.add(third);
+		List<int[]> due = wheel.advance(100);
+		assertEquals(3, due.size());
+		assertSame(first, due.get(0));
+		assertSame(second, due.get(1));
+		assertSame(third, due.get(2));
+	}
+
+	@Test
+	public void testJumpAhead() {
+		ScheduleWheel<Integer> wheel = wheel();
+		for (int t : new int[]{5, 70, 299, 300, 301, 363, 364, 1000})
+			wheel.add(t);
+		assertEquals(Arrays.asList(5), wheel.advance(5));
+		// more than a lap ahead: the skipped ticks are dropped, the wheel is filled from 300 on
+		assertTrue(wheel.advance(300).contains(300));
+		assertEquals(4, wheel.size());
+		assertTrue(wheel.pending().containsAll(Arrays.asList(301, 363, 364, 1000)));
+		assertFalse(wheel.add(299)); // already fired
+		assertFalse(wheel.add(70));
+		assertEquals(Arrays.asList(301), wheel.advance(301));
+		assertEquals(Arrays.asList(363), wheel.advance(363)); // the last slot of the lap that was filled by the jump
+		assertEquals(Arrays.asList(364), wheel.advance(364)); // the first one moved in from the map
+		assertTrue(wheel.advance(364).isEmpty()); // fired already
+		assertEquals(Arrays.asList(1000), wheel.advance(1000));
+		assertTrue(wheel.isEmpty());
+		assertTrue(wheel.add(1001));
+		assertEquals(Arrays.asList(1001), wheel.advance(1001));
+	}
+
+}
@@ -15,8 +15,17 @@ import org.junit.Test;
 
 import bgu.spl.app.Store.BuyResult;
 import bgu.spl.app.Receipt;
+import bgu.spl.app.SalesAggregates;
 import bgu.spl.app.ShoeStorageInfo;
 import bgu.spl.app.Store;
+import bgu.spl.app.StoreLog;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StoreTest {
 	
@@ -68,4 +77,173 @@ public class StoreTest {
 
 
 
+	@Test
+	public void testTakeConcurrently() throws InterruptedException {
+		// a flash sale: more buyers than shoes, half of the shoes on discount
+		Store sale = new Store();
+		sale.add("flash-boots", 100);
+		sale.addDiscount("flash-boots", 50);
+		AtomicInteger regular = new AtomicInteger(0);
+		AtomicInteger discounted = new AtomicInteger(0);
+		AtomicInteger notInStock = new AtomicInteger(0);
+		Thread[] buyers = new Thread[8];
+		for (int i=0; i<buyers.length; i++){
+			buyers[i] = new Thread(()->{
+				for (int j=0; j<50; j++){
+					switch(sale.take("flash-boots", false)){
+						case REGULAR_PRICE: regular.incrementAndGet(); break;
+						case DISCOUNTED_PRICE: discounted.incrementAndGet(); break;
+						default: notInStock.incrementAndGet();
+					}
+				}
+			});
+			buyers[i].start();
+		}
+		for (Thread t : buyers)
+			t.join();
+		assertEquals(50, regular.get());
+		assertEquals(50, discounted.get());
+		assertEquals(300, notInStock.get());
+		assertEquals(BuyResult.NOT_IN_STOCK, sale.take("flash-boots", true));
+	}
+
+	@Test
+	public void testFile() {
+		Store journaled = new Store();
+		journaled.file(new Receipt("seller 1", "Bracha", "blue-sneakers", true, 7, 5, 1));
+		journaled.file(new Receipt("factory 1", "store", "red-sandals", false, 9, 3, 12));
+		Iterator<Receipt> it = journaled.getReceipts().iterator();
+		Receipt r = it.next();
+		assertEquals("seller 1", r.getSeller());
+		assertEquals("Bracha", r.getSender());
+		assertEquals("blue-sneakers", r.getShoeType());
+		assertTrue(r.isDiscount());
+		assertEquals(7, r.getIssuedTick());
+		assertEquals(5, r.getRequestTick());
+		assertEquals(1, r.getAmountSold());
+		r = it.next();
+		assertEquals("store", r.getSender());
+		assertFalse(r.isDiscount());
+		assertEquals(12, r.getAmountSold());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testConcurrentFile() throws InterruptedException {
+		Store journaled = new Store();
+		int writers = 4, receipts = 20000; // the writers race over several segments of the journal
+		Thread[] threads = new Thread[writers];
+		for (int w=0; w<writers; w++){
+			String seller = "seller "+w;
+			threads[w] = new Thread(() -> {
+				for (int i=0; i<receipts; i++)
+					journaled.file(new Receipt(seller, "Bracha", "blue-sneakers", false, i, i, 1));
+			});
+			threads[w].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		int[] next = new int[writers];
+		int count = 0;
+		for (Receipt r : journaled.getReceipts()){
+			int w = r.getSeller().charAt(r.getSeller().length()-1)-'0';
+			assertEquals(next[w]++, r.getIssuedTick()); // every writer's receipts are there, in its order
+			count++;
+		}
+		assertEquals(writers*receipts, count);
+	}
+
+	@Test
+	public void testSales() {
+		Store counted = new Store();
+		counted.file(new Receipt("seller 1", "Bracha", "blue-sneakers", true, 7, 5, 1));
+		counted.file(new Receipt("seller 2", "Bracha", "blue-sneakers", false, 12, 11, 1));
+		counted.file(new Receipt("factory 1", "store", "blue-sneakers", false, 9, 3, 12));
+		SalesAggregates sales = counted.getSales();
+		assertEquals(2, sales.getSold("blue-sneakers"));
+		assertEquals(1, sales.getSoldAtDiscount("blue-sneakers"));
+		assertEquals(1, sales.getSoldAtRegularPrice());
+		assertEquals(12, sales.getRestocked("blue-sneakers"));
+		assertEquals(1, sales.getSoldBy("seller 2"));
+		assertEquals(2, sales.getBoughtBy("Bracha"));
+		assertEquals(1, sales.getSoldDuring(0));
+		assertEquals(0, sales.getSold("red-sandals"));
+	}
+
+	@Test
+	public void testLogRecovery() throws Exception {
+		File dir = Files.createTempDirectory("store-log").toFile();
+		Store logged = new Store();
+		logged.load(new ShoeStorageInfo("red-sandals", 5, 0));
+		StoreLog log = StoreLog.open(dir, logged, StoreLog.DEFAULT_SNAPSHOT_MILLIS);
+		logged.add("green-boots", 3);
+		logged.addDiscount("green-boots", 2);
+		assertEquals(BuyResult.DISCOUNTED_PRICE, logged.take("green-boots", true));
+		assertEquals(BuyResult.REGULAR_PRICE, logged.take("red-sandals", false));
+		logged.file(new Receipt("seller 1", "Bracha", "green-boots", true, 4, 2, 1));
+		log.sync(); // a crash from now on loses nothing
+
+		Store recovered = StoreLog.recover(dir);
+		assertEquals(1, recovered.getSales().getSoldAtDiscount("green-boots"));
+		Receipt r = recovered.getReceipts().iterator().next();
+		assertEquals("Bracha", r.getSender());
+		assertEquals(4, r.getIssuedTick());
+		// green-boots: 2 left, 1 on discount. red-sandals: 4 left, none on discount
+		assertEquals(BuyResult.DISCOUNTED_PRICE, recovered.take("green-boots", true));
+		assertEquals(BuyResult.NOT_ON_DISCOUNT, recovered.take("green-boots", true));
+		assertEquals(BuyResult.REGULAR_PRICE, recovered.take("green-boots", false));
+		assertEquals(BuyResult.NOT_IN_STOCK, recovered.take("green-boots", false));
+		for (int i=0; i<4; i++)
+			assertEquals(BuyResult.REGULAR_PRICE, recovered.take("red-sandals", false));
+		assertEquals(BuyResult.NOT_IN_STOCK, recovered.take("red-sandals", false));
+
+		log.close();
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testCloseWhileFiling() throws Exception {
+		File dir = Files.createTempDirectory("store-log").toFile();
+		Store logged = new Store();
+		StoreLog log = StoreLog.open(dir, logged, StoreLog.DEFAULT_SNAPSHOT_MILLIS);
+		int writers = 4;
+		AtomicInteger started = new AtomicInteger(0);
+		Thread[] threads = new Thread[writers];
+		AtomicBoolean closed = new AtomicBoolean(false);
+		for (int w=0; w<writers; w++){
+			String seller = "seller "+w;
+			threads[w] = new Thread(() -> {
+				started.incrementAndGet();
+				int n = 0;
+				while (!closed.get()) // keeps filing across the close
+					logged.file(new Receipt(seller, "Nitzan", "red-sandals", false, n, n++, 1));
+				for (int k=0; k<10; k++) // and after it
+					logged.file(new Receipt(seller, "Nitzan", "red-sandals", false, n, n++, 1));
+			});
+			threads[w].start();
+		}
+		while (started.get()<writers)
+			Thread.yield();
+		log.close(); // the receipts filed during the close are either logged or not at all
+		closed.set(true);
+		for (Thread t : threads)
+			t.join();
+
+		Store recovered = StoreLog.recover(dir);
+		int[] next = new int[writers];
+		int filed = 0;
+		for (Receipt r : recovered.getReceipts()){
+			int w = Integer.parseInt(r.getSeller().substring("seller ".length()));
+			assertEquals(next[w]++, r.getIssuedTick()); // a writer's receipts are recovered in order with no gap
+		}
+		for (Receipt r : logged.getReceipts())
+			filed++;
+		assertTrue(next[0]+next[1]+next[2]+next[3]<=filed-writers*10); // the ones filed after the close are not logged
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
 }